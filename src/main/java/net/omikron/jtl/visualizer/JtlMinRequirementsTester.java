@@ -2,11 +2,10 @@ package net.omikron.jtl.visualizer;
 
 import java.io.File;
 import java.text.NumberFormat;
-import java.util.List;
 
 import net.omikron.jtl.visualizer.exceptions.JtlMinRequirementsException;
 import net.omikron.jtl.visualizer.io.JtlReader;
-import net.omikron.jtl.visualizer.sample.Sample;
+import net.omikron.jtl.visualizer.sample.SampleTable;
 
 import org.apache.commons.cli.BasicParser;
 import org.apache.commons.cli.CommandLine;
@@ -67,13 +66,13 @@ public class JtlMinRequirementsTester {
 	private void testJtlMinimumRequirements() {
 		final JtlReader jtlReader = new JtlReader();
 		// read all samples including the unsuccessful ones
-		final List<Sample> samples = jtlReader.readSamples(jtlFileName, null, false);
+		final SampleTable samples = jtlReader.readSamples(jtlFileName, null, false);
 
 		testMinSamples(samples);
 		testMinSuccessRatio(samples);
 	}
 
-	private void testMinSamples(final List<Sample> samples) {
+	private void testMinSamples(final SampleTable samples) {
 		// only test for minimum number of samples if option was specified
 		if (commandLine.hasOption(ARG_NAME_MIN_SAMPLES)) {
 			final String minSamplesOptionValue = commandLine.getOptionValue(ARG_NAME_MIN_SAMPLES);
@@ -87,13 +86,8 @@ public class JtlMinRequirementsTester {
 		}
 	}
 
-	private void testMinSuccessRatio(final List<Sample> samples) {
-		int successfulSamples = 0;
-		for (final Sample sample : samples) {
-			if (sample.isSuccess()) {
-				successfulSamples++;
-			}
-		}
+	private void testMinSuccessRatio(final SampleTable samples) {
+		final int successfulSamples = samples.getNumSuccessful();
 
 		final double minSuccessRatio = getMinSuccessRatio();
 		final double actualSuccessRatio = (double) successfulSamples / (double) samples.size();
@@ -1,5 +1,6 @@
 package net.omikron.jtl.visualizer;
 
+import java.net.URL;
 import java.text.NumberFormat;
 import java.util.Collections;
 import java.util.LinkedList;
@@ -13,7 +14,7 @@ import java.util.concurrent.TimeUnit;
 
 import net.omikron.jtl.visualizer.io.JtlReader;
 import net.omikron.jtl.visualizer.report.SpeedUp;
-import net.omikron.jtl.visualizer.sample.Sample;
+import net.omikron.jtl.visualizer.sample.SampleTable;
 
 public class JtlResponseReport {
 
@@ -31,10 +32,10 @@ public class JtlResponseReport {
 	private void comparePairedResponseTimes() {
 		final JtlReader jtlReader = new JtlReader();
 
-		final List<Sample> samples69 = jtlReader.readSamples(JTL_6_9_PATH + JTL_6_9_NAME + ".jtl", null, false);
+		final SampleTable samples69 = jtlReader.readSamples(JTL_6_9_PATH + JTL_6_9_NAME + ".jtl", null, false);
 		final Map<String, List<Integer>> responseTimes69 = analyzeSamples(samples69);
 
-		final List<Sample> samples610 = jtlReader.readSamples(JTL_6_10_PATH + JTL_6_10_NAME + ".jtl", null, false);
+		final SampleTable samples610 = jtlReader.readSamples(JTL_6_10_PATH + JTL_6_10_NAME + ".jtl", null, false);
 		final Map<String, List<Integer>> responseTimes610 = analyzeSamples(samples610);
 
 		final SortedSet<SpeedUp> speedUps = compareResponseTimes(responseTimes69, responseTimes610);
@@ -42,28 +43,28 @@ public class JtlResponseReport {
 		printSpeedUps(speedUps);
 	}
 
-	private Map<String, List<Integer>> analyzeSamples(final List<Sample> samples) {
+	private Map<String, List<Integer>> analyzeSamples(final SampleTable samples) {
 		final Map<String, List<Integer>> responseTimesMapping = new TreeMap<String, List<Integer>>();
 
 		long minTimestamp = Long.MAX_VALUE;
 		long maxTimestamp = Long.MIN_VALUE;
-		for (final Sample sample : samples) {
-			final String url = getShortenedURL(sample);
-			// final String url = sample.getUrl().getQuery();
+		for (int row = 0; row < samples.size(); row++) {
+			final String url = getShortenedURL(samples.getUrl(row));
+			// final String url = samples.getUrl(row).getQuery();
 			List<Integer> responseTimes = responseTimesMapping.get(url);
 			if (responseTimes == null) {
 				responseTimes = new LinkedList<Integer>();
 				responseTimesMapping.put(url, responseTimes);
 			}
-			responseTimes.add(sample.getResponseTime());
+			responseTimes.add(samples.getResponseTime(row));
 			// Collections.sort(responseTimes, Collections.reverseOrder());
 
-			final long start = sample.getStartOfRequest().getTime();
+			final long start = samples.getTimestamp(row);
 			if (start < minTimestamp) {
 				minTimestamp = start;
 			}
 
-			final long end = sample.getStartOfRequest().getTime() + sample.getResponseTime();
+			final long end = start + samples.getResponseTime(row);
 			if (end > maxTimestamp) {
 				maxTimestamp = end;
 			}
@@ -151,11 +152,11 @@ public class JtlResponseReport {
 		}
 	}
 
-	private String getShortenedURL(final Sample sample) {
+	private String getShortenedURL(final URL url) {
 		String shortenedURL = "";
-		if (sample != null && sample.getUrl() != null && sample.getUrl().getQuery() != null) {
+		if (url != null && url.getQuery() != null) {
 			// remove sessionID, username and password from URL query
-			shortenedURL = sample.getUrl().getQuery();
+			shortenedURL = url.getQuery();
 			shortenedURL = removeFromUrl("sid", shortenedURL);
 			shortenedURL = removeFromUrl("username", shortenedURL);
 			shortenedURL = removeFromUrl("password", shortenedURL);
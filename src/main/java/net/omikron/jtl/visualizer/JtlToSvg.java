@@ -10,8 +10,17 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import net.omikron.jtl.visualizer.exceptions.JtlReaderException;
+import net.omikron.jtl.visualizer.io.JtlCache;
+import net.omikron.jtl.visualizer.io.JtlCheckpoint;
+import net.omikron.jtl.visualizer.io.JtlReader;
+import net.omikron.jtl.visualizer.sample.SampleTable;
 import net.omikron.jtl.visualizer.transcoder.JtlToSvgTranscoder;
+import net.omikron.jtl.visualizer.transcoder.RasterImageTranscoder;
 import net.omikron.jtl.visualizer.transcoder.SampleHistogramRenderer;
 
 import org.apache.batik.transcoder.TranscoderException;
@@ -26,12 +35,16 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FilenameUtils;
 
 public class JtlToSvg {
 
-	private static final String	TEST_RESULT_PATH	= "jtl/";
+	private static final String		TEST_RESULT_PATH			= "jtl/";
+	private static final int		DEFAULT_REFRESH_INTERVAL	= 10;
+	/** Options for reading the JTLs, which are only taken from the command line in batch mode */
+	private static final String[]	BATCH_READING_OPTIONS		= {"exclude", "threads", "mmap", "cache", "follow", "incremental", "batch"};
 
-	private final CommandLine	commandLine;
+	private final CommandLine		commandLine;
 
 	public static void main(final String[] args) throws Exception {
 		final HelpFormatter formatter = new HelpFormatter();
@@ -56,21 +69,49 @@ public class JtlToSvg {
 				remainingArgs[0] = TEST_RESULT_PATH + "result.jtl";
 				System.out.println("No JTL file name provided. Using '" + (new File(remainingArgs[0])).getAbsolutePath() + "' instead.");
 			}
-			final String jtlFile = remainingArgs[0];
+			List<String> jtlFiles = null;
+			try {
+				jtlFiles = JtlReader.expandFileNames(remainingArgs);
+			} catch (final JtlReaderException e) {
+				System.err.println(e.getMessage());
+				System.exit(-1);
+			}
+			if (jtlFiles.size() > 1 && (commandLine.hasOption("follow") || commandLine.hasOption("incremental"))) {
+				System.err.println("Several JTL files can neither be followed nor analysed incrementally.");
+				System.exit(-1);
+			}
+			if (commandLine.hasOption("batch")) {
+				if (commandLine.hasOption("follow") || commandLine.hasOption("incremental")) {
+					System.err.println("A batch can neither follow the JTL nor analyse it incrementally.");
+					System.exit(-1);
+				}
+				jtlToSvg.transcodeBatch(jtlFiles, args, parser, commandOptions);
+				return;
+			}
+			final String format = jtlToSvg.getOutputFormat();
+			if (format == null) {
+				System.err.println("Unsupported output format '" + commandLine.getOptionValue("format") + "'.");
+				System.exit(-1);
+			}
+			final String jtlFile = jtlFiles.get(0);
 			final String svgFile;
 			if (commandLine.hasOption("out")) {
 				svgFile = commandLine.getOptionValue("out");
 			} else {
-				svgFile = jtlFile + ".svg";
+				svgFile = jtlFile + "." + format;
+			}
+			if (commandLine.hasOption("follow")) {
+				jtlToSvg.followJtl(jtlFile, svgFile);
+			} else {
+				jtlToSvg.transcodeJtlToSvg(jtlFiles, svgFile);
 			}
-			jtlToSvg.transcodeJtlToSvg(jtlFile, svgFile);
 			// jtlToSvg.prettyPrintSvg(TEST_RESULT_PATH + "\\jtl\\result.histogram.svg", TEST_RESULT_PATH + "\\jtl\\result.histogram.svg");
 		}
 	}
 
 	private static void printUsageInfo(final HelpFormatter formatter, final Options commandOptions) {
 		formatter.setWidth(120);
-		formatter.printHelp(JtlToSvg.class.getSimpleName() + " [options] [JTL file]", commandOptions);
+		formatter.printHelp(JtlToSvg.class.getSimpleName() + " [options] [JTL files]", commandOptions);
 	}
 
 	public JtlToSvg(final CommandLine commandLine) {
@@ -84,10 +125,41 @@ public class JtlToSvg {
 		return commandLine;
 	}
 
-	private void transcodeJtlToSvg(final String inputFileName, final String outputFileName) throws IOException, TranscoderException {
+	/**
+	 * @return The format given by the format option or else by the extension of the output file name, svg if neither is given. Null if the format option is
+	 *         not supported.
+	 */
+	private String getOutputFormat() {
+		if (commandLine.hasOption("format")) {
+			return getSupportedFormat(commandLine.getOptionValue("format"));
+		}
+		if (commandLine.hasOption("out")) {
+			final String format = getSupportedFormat(FilenameUtils.getExtension(commandLine.getOptionValue("out")));
+			if (format != null) {
+				return format;
+			}
+		}
+		return JtlToSvgTranscoder.FORMAT_SVG;
+	}
+
+	private static String getSupportedFormat(final String name) {
+		final String format = name.toLowerCase();
+		if (format.equals(JtlToSvgTranscoder.FORMAT_SVG) || format.equals(RasterImageTranscoder.FORMAT_PNG) || format.equals(RasterImageTranscoder.FORMAT_JPEG)) {
+			return format;
+		}
+		if (format.equals("jpeg")) {
+			return RasterImageTranscoder.FORMAT_JPEG;
+		}
+		return null;
+	}
+
+	/**
+	 * Transcodes the given JTLs into one SVG. The samples of several JTLs, e.g. of several load generators, are merged by their timestamp.
+	 */
+	private void transcodeJtlToSvg(final List<String> inputFileNames, final String outputFileName) throws IOException, TranscoderException {
 		OutputStream ostream = null;
 		try {
-			final String jtlURI = new File(inputFileName).toURI().toString();
+			final String jtlURI = new File(inputFileNames.get(0)).toURI().toString();
 			final TranscoderInput input = new TranscoderInput(jtlURI);
 
 			final File outputFile = new File(outputFileName);
@@ -98,9 +170,19 @@ public class JtlToSvg {
 			final JtlToSvgTranscoder transcoder = new JtlToSvgTranscoder();
 
 			setTranscodingHints(transcoder);
+			if (inputFileNames.size() > 1) {
+				final List<String> mergedURIs = new ArrayList<String>();
+				for (final String inputFileName : inputFileNames.subList(1, inputFileNames.size())) {
+					mergedURIs.add(new File(inputFileName).toURI().toString());
+				}
+				transcoder.addTranscodingHint(JtlToSvgTranscoder.KEY_MERGED_JTLS, mergedURIs);
+			}
+			if (commandLine.hasOption("incremental")) {
+				transcoder.addTranscodingHint(JtlToSvgTranscoder.KEY_STATE_FILE, JtlCheckpoint.getStateFile(outputFile).getPath());
+			}
 
 			transcoder.transcode(input, output);
-			System.out.println("SVG histogram saved to " + outputFile);
+			System.out.println(getOutputFormat().toUpperCase() + " histogram saved to " + outputFile);
 		} finally {
 			if (ostream != null) {
 				ostream.flush();
@@ -109,7 +191,152 @@ public class JtlToSvg {
 		}
 	}
 
+	/**
+	 * Reads the given JTLs once and renders every diagram of the batch file from the same samples. Every line of the batch file holds the options of one
+	 * diagram, which override the options of the command line. Empty lines and lines starting with '#' are skipped.
+	 */
+	private void transcodeBatch(final List<String> inputFileNames, final String[] args, final CommandLineParser parser, final Options commandOptions)
+			throws IOException, TranscoderException {
+		final String batchFileName = commandLine.getOptionValue("batch");
+		final List<CommandLine> jobs = new ArrayList<CommandLine>();
+		final BufferedReader reader = new BufferedReader(new FileReader(batchFileName));
+		try {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#")) {
+					continue;
+				}
+				final List<String> jobArgs = splitArguments(line);
+				try {
+					final CommandLine jobOptions = parser.parse(commandOptions, jobArgs.toArray(new String[jobArgs.size()]));
+					for (final String readingOption : BATCH_READING_OPTIONS) {
+						if (jobOptions.hasOption(readingOption)) {
+							throw new ParseException("The option " + readingOption + " can only be given on the command line.");
+						}
+					}
+					if (jobOptions.getArgs().length > 0) {
+						throw new ParseException("JTL files can only be given on the command line.");
+					}
+					// commons-cli returns the first value of an option, so the options of the line take precedence
+					jobArgs.addAll(Arrays.asList(args));
+					final CommandLine job = parser.parse(commandOptions, jobArgs.toArray(new String[jobArgs.size()]));
+					if (new JtlToSvg(job).getOutputFormat() == null) {
+						throw new ParseException("Unsupported output format '" + job.getOptionValue("format") + "'.");
+					}
+					jobs.add(job);
+				} catch (final ParseException e) {
+					System.err.println("Error in line " + lineNumber + " of " + batchFileName + ". " + e.getMessage());
+					System.exit(-1);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		final String jtlFile = inputFileNames.get(0);
+		final JtlToSvgTranscoder reading = new JtlToSvgTranscoder();
+		setTranscodingHints(reading);
+		if (inputFileNames.size() > 1) {
+			final List<String> mergedURIs = new ArrayList<String>();
+			for (final String inputFileName : inputFileNames.subList(1, inputFileNames.size())) {
+				mergedURIs.add(new File(inputFileName).toURI().toString());
+			}
+			reading.addTranscodingHint(JtlToSvgTranscoder.KEY_MERGED_JTLS, mergedURIs);
+		}
+		final SampleTable samples = reading.readSamples(new TranscoderInput(new File(jtlFile).toURI().toString()));
+
+		for (final CommandLine job : jobs) {
+			final JtlToSvg jtlToSvg = new JtlToSvg(job);
+			final String format = jtlToSvg.getOutputFormat();
+			final File outputFile;
+			if (job.hasOption("out")) {
+				outputFile = new File(job.getOptionValue("out"));
+			} else {
+				outputFile = new File(jtlFile + "." + job.getOptionValue("diagram", "histogram") + "." + format);
+			}
+			final OutputStream ostream = new FileOutputStream(outputFile);
+			try {
+				final JtlToSvgTranscoder transcoder = new JtlToSvgTranscoder();
+				jtlToSvg.setTranscodingHints(transcoder);
+				transcoder.transcode(samples, new TranscoderOutput(ostream));
+			} finally {
+				ostream.close();
+			}
+			System.out.println(format.toUpperCase() + " histogram saved to " + outputFile);
+		}
+	}
+
+	/**
+	 * Splits a line of a batch file into arguments at whitespace, except within double quotes.
+	 */
+	private static List<String> splitArguments(final String line) {
+		final List<String> arguments = new ArrayList<String>();
+		final StringBuilder argument = new StringBuilder();
+		boolean quoted = false;
+		boolean inArgument = false;
+		for (int i = 0; i < line.length(); i++) {
+			final char c = line.charAt(i);
+			if (c == '"') {
+				quoted = !quoted;
+				inArgument = true;
+			} else if (Character.isWhitespace(c) && !quoted) {
+				if (inArgument) {
+					arguments.add(argument.toString());
+					argument.setLength(0);
+					inArgument = false;
+				}
+			} else {
+				argument.append(c);
+				inArgument = true;
+			}
+		}
+		if (inArgument) {
+			arguments.add(argument.toString());
+		}
+		return arguments;
+	}
+
+	/**
+	 * Follows the JTL while a test is running and refreshes the SVG in the interval given by the follow option until the process is stopped.
+	 */
+	private void followJtl(final String inputFileName, final String outputFileName) throws TranscoderException {
+		final String jtlURI = new File(inputFileName).toURI().toString();
+		final File outputFile = new File(outputFileName);
+		System.out.println(outputFile.getAbsolutePath());
+
+		final JtlToSvgTranscoder transcoder = new JtlToSvgTranscoder();
+		setTranscodingHints(transcoder);
+
+		final int refreshInterval = getRefreshInterval();
+		System.out.println("Following " + inputFileName + ", the SVG is refreshed every " + refreshInterval + " s. Press Ctrl+C to stop.");
+		transcoder.follow(new TranscoderInput(jtlURI), outputFile, refreshInterval * 1000L);
+	}
+
+	/**
+	 * @return The refresh interval in seconds given by the follow option.
+	 */
+	private int getRefreshInterval() {
+		final String refreshIntervalString = commandLine.getOptionValue("follow");
+		if (refreshIntervalString != null) {
+			try {
+				final int refreshInterval = Integer.parseInt(refreshIntervalString);
+				if (refreshInterval > 0) {
+					return refreshInterval;
+				}
+			} catch (final NumberFormatException e) {
+				// reported below
+			}
+			System.err.println("The provided follow parameter '" + refreshIntervalString + "' is not a positive integer. The default ("
+					+ DEFAULT_REFRESH_INTERVAL + " s) will be used.");
+		}
+		return DEFAULT_REFRESH_INTERVAL;
+	}
+
 	protected void setTranscodingHints(final JtlToSvgTranscoder transcoder) {
+		transcoder.addTranscodingHint(JtlToSvgTranscoder.KEY_FORMAT, getOutputFormat());
 		if (commandLine.hasOption("bins")) {
 			transcoder.addTranscodingHint(JtlToSvgTranscoder.KEY_NUM_BINS, commandLine.getOptionValue("bins"));
 		}
@@ -158,6 +385,24 @@ public class JtlToSvg {
 		if (commandLine.hasOption("plotResultCount")) {
 			transcoder.addTranscodingHint(JtlToSvgTranscoder.KEY_RESULT_COUNT, Boolean.TRUE);
 		}
+		if (commandLine.hasOption("density")) {
+			transcoder.addTranscodingHint(JtlToSvgTranscoder.KEY_DENSITY, Boolean.TRUE);
+		}
+		if (commandLine.hasOption("decimate")) {
+			transcoder.addTranscodingHint(JtlToSvgTranscoder.KEY_DECIMATE, Boolean.TRUE);
+		}
+		if (commandLine.hasOption("cache")) {
+			transcoder.addTranscodingHint(JtlToSvgTranscoder.KEY_CACHE, Boolean.TRUE);
+		}
+		if (commandLine.hasOption("mmap")) {
+			transcoder.addTranscodingHint(JtlToSvgTranscoder.KEY_MEMORY_MAPPED, Boolean.TRUE);
+		}
+		if (commandLine.hasOption("threads")) {
+			transcoder.addTranscodingHint(JtlToSvgTranscoder.KEY_THREADS, commandLine.getOptionValue("threads"));
+		}
+		if (commandLine.hasOption("significantDigits")) {
+			transcoder.addTranscodingHint(JtlToSvgTranscoder.KEY_SIGNIFICANT_DIGITS, commandLine.getOptionValue("significantDigits"));
+		}
 	}
 
 	private void prettyPrintSvg(final String inputFileName, final String outputFileName) throws IOException {
@@ -185,8 +430,14 @@ public class JtlToSvg {
 		final Options options = new Options();
 
 		final Option svgFile = OptionBuilder.withArgName("file").hasArg()
-				.withDescription("Set the output file name for the generated SVG. If not set, the input filename + '.svg' will be used.").create("out");
+				.withDescription("Set the output file name for the generated diagram. If not set, the (first) input filename + '.svg' (or the extension of the format) will be used.").create("out");
 		options.addOption(svgFile);
+		final Option format = OptionBuilder
+				.withArgName("format")
+				.hasArg()
+				.withDescription(	"Set the format of the output, one of: svg, png, jpg. PNG and JPEG images are rasterised from the generated SVG in memory. If not set, the format is taken from the extension of the output file name, or else svg will be used.")
+				.create("format");
+		options.addOption(format);
 		final Option exclude = OptionBuilder
 				.withArgName("regexp")
 				.hasArg()
@@ -232,6 +483,24 @@ public class JtlToSvg {
 				.withDescription("Set the number of bins to be created in the historgram. If not set, the default number of bins will be set to 20.")
 				.create("bins");
 		options.addOption(numBins);
+		final Option significantDigits = OptionBuilder
+				.withArgName("digits")
+				.hasArg()
+				.withDescription(	"Calculate descriptive statistics from response times kept with the given number of significant digits (1-5), so the memory needed does not grow with the number of samples. The quantiles are only exact for response times up to 2 * 10^digits ms, e.g. 2047 ms for 3 digits. Only has an effect for stats. If not set, the exact response times are kept.")
+				.create("significantDigits");
+		options.addOption(significantDigits);
+		final Option threads = OptionBuilder
+				.withArgName("num")
+				.hasArg()
+				.withDescription(	"Set the number of threads used to read large JTL files. If set to 1, the JTL will be read sequentially. If not set, the number of available processors will be used.")
+				.create("threads");
+		options.addOption(threads);
+		final Option follow = OptionBuilder
+				.withArgName("seconds")
+				.hasArg()
+				.withDescription(	"Follow the JTL while JMeter is still writing it and refresh the SVG every given number of seconds until the process is stopped. Only the samples appended since the last refresh are read, so bad soak tests can be aborted early.")
+				.create("follow");
+		options.addOption(follow);
 		final Option segmentParam = OptionBuilder
 				.withArgName("name(=CSV list)|regex")
 				.hasArg()
@@ -252,12 +521,31 @@ public class JtlToSvg {
 		options.addOption(	"tooltips",
 							false,
 							"Display a tooltip containing the query part of the request for long running requests, i.e. requests with response times longer than the 95% quantil of the data set. Only applies for scatter plots.");
+		options.addOption(	"density",
+							false,
+							"Render the number of samples per pixel as an image instead of a data point per sample. Only long running requests, i.e. requests with response times longer than the 95% quantil of the data set, are still shown as data points, so the size of the SVG does not depend on the number of samples. Only applies for scatter plots.");
+		options.addOption(	"decimate",
+							false,
+							"Render at most one data point per pixel, the one with the largest radius, plus all data points with tooltips, so the size of the SVG is limited by the size of the canvas instead of the number of samples. Data points on the same pixel are no longer drawn on top of each other, so dense areas look lighter. Only applies for scatter plots without density.");
 		options.addOption("logScaleXAxis", false, "Use a logarithmic scale for the x-axis.");
 		options.addOption("logScaleYAxis", false, "Use a logarithmic scale for the y-axis.");
+		options.addOption(	"cache", false,
+							"Keep all samples of the JTL in a binary cache file next to it (JTL file name + '" + JtlCache.FILE_EXTENSION
+									+ "'). Further diagrams of the unchanged JTL are created from the cache without parsing the JTL again.");
+		options.addOption(	"incremental", false,
+							"Keep the state of the analysis in a file next to the SVG (SVG file name + '" + JtlCheckpoint.FILE_EXTENSION
+									+ "'). The next run on the same growing JTL, e.g. for hourly reports of a soak test, only reads the samples appended in the meantime. A truncated or rewritten JTL is read from the start.");
+		options.addOption("mmap", false, "Read the JTL through a memory mapping instead of streams. Repeatedly read JTLs are then served from the page cache.");
 		options.addOption("plotResultCount", false, "Creates a scatter plot with response time vs. result count. Only has an effect for scatter plots.");
 		options.addOption("relativeDataLabels", false, "Print data labels as relative percentages instead of absolute numbers.");
 		options.addOption(	"groupSegments", false,
 							"Group segment parameter values which only have a few results, e.g. search queries with more than 10 words. Only has an effect if segmentParam is set.");
+		final Option batch = OptionBuilder
+				.withArgName("file")
+				.hasArg()
+				.withDescription(	"Render several diagrams from a single read of the JTLs. Every line of the given file holds the options of one diagram, e.g. \"-diagram scatter -density -out scatter.png\", which override the options given on the command line. Options for reading the JTLs, e.g. exclude, are only taken from the command line.")
+				.create("batch");
+		options.addOption(batch);
 		options.addOption("h", false, "Print this help message.");
 
 		return options;
@@ -0,0 +1,111 @@
+package net.omikron.jtl.visualizer.histogram;
+
+/**
+ * The upper bounds of the bins of a histogram, calculated once per histogram. A bin contains the response times from the bound of the previous bin
+ * (inclusive) to its own bound (exclusive). The first bin also takes all smaller and the last bin all larger response times, so every response time belongs
+ * to exactly one bin regardless of the order in which the samples are binned.
+ */
+public class BinBounds {
+
+	private final int[]		bounds;
+
+	private final boolean	useLogScale;
+	private final int		lowerBound;
+	private final double	boundStep;
+
+	/**
+	 * Calculates the bounds of a histogram. If the minimum response time is below the lower bound, an additional first bin collects all response times below
+	 * the lower bound. If the last regular bound is below the maximum response time, an additional last bin collects the remaining response times.
+	 *
+	 * @param min The minimum response time of the samples.
+	 * @param max The maximum response time of the samples.
+	 * @param lowerBound The lower bound of the x-axis.
+	 * @param upperBound The upper bound of the x-axis.
+	 * @param initialNumBins The number of regular bins.
+	 * @param useLogScale If true the bounds are spaced logarithmically.
+	 */
+	public BinBounds(final int min, final int max, final int lowerBound, final int upperBound, final int initialNumBins, final boolean useLogScale) {
+		super();
+		this.useLogScale = useLogScale;
+		this.lowerBound = lowerBound;
+
+		final int startNormalBins = min < lowerBound ? 1 : 0;
+		final int numBins = initialNumBins + startNormalBins;
+		this.boundStep = (double) (upperBound - lowerBound) / (double) numBins;
+		final int logStart = Math.max(1, lowerBound);
+		final double logBase = Math.exp((Math.log(upperBound) - Math.log(logStart)) / numBins);
+
+		final int[] allBounds = new int[numBins + 1];
+		int numBounds = 0;
+		int curBound = lowerBound;
+		if (startNormalBins > 0) {
+			allBounds[numBounds++] = curBound;
+		}
+		for (int i = startNormalBins; i < numBins; i++) {
+			if (useLogScale) {
+				curBound = (int) Math.floor(logStart * Math.pow(logBase, i + 1));
+			} else {
+				curBound = lowerBound + (int) Math.ceil((i + 1) * boundStep);
+			}
+			allBounds[numBounds++] = curBound;
+		}
+		if (curBound < max) {
+			allBounds[numBounds++] = max;
+		}
+		this.bounds = new int[numBounds];
+		System.arraycopy(allBounds, 0, bounds, 0, numBounds);
+	}
+
+	/**
+	 * @return The number of bins.
+	 */
+	public int getNumBins() {
+		return bounds.length;
+	}
+
+	/**
+	 * @param bin The index of the bin.
+	 * @return The upper bound of the bin.
+	 */
+	public int getBound(final int bin) {
+		return bounds[bin];
+	}
+
+	/**
+	 * Returns the bin of the given response time. Linear bins are located arithmetically, logarithmic bins by binary search.
+	 *
+	 * @param responseTime The response time.
+	 * @return The index of the bin.
+	 */
+	public int getBin(final int responseTime) {
+		final int lastBin = bounds.length - 1;
+		if (lastBin < 0) {
+			return -1;
+		}
+		int bin;
+		if (useLogScale || boundStep <= 0) {
+			// first bin whose bound is larger than the response time
+			int low = 0;
+			int high = lastBin;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if (bounds[mid] > responseTime) {
+					high = mid;
+				} else {
+					low = mid + 1;
+				}
+			}
+			bin = low;
+		} else {
+			// the guess can be off by one because the bounds are rounded
+			bin = (int) Math.max(0, Math.min(lastBin, Math.floor((responseTime - lowerBound) / boundStep)));
+			while (bin < lastBin && bounds[bin] <= responseTime) {
+				bin++;
+			}
+			while (bin > 0 && bounds[bin - 1] > responseTime) {
+				bin--;
+			}
+		}
+		return bin;
+	}
+}
@@ -185,6 +185,45 @@ public class Histogram {
 		this.endOfLastRequest = endOfLastRequest;
 	}
 
+	/**
+	 * Sets the minimum, quartiles, median, 95% quantile, maximum and average from the response times recorded by the given recorder. The quantiles are
+	 * selected with the same ranks as from a sorted list of all response times.
+	 * 
+	 * @param responseTimes The recorded response times, must not be empty.
+	 */
+	public void setDescriptiveStats(final LatencyRecorder responseTimes) {
+		final long maxRank = responseTimes.getTotalCount() - 1;
+		this.min = (int) responseTimes.getMin();
+		this.quartLow = (int) responseTimes.getValueAtRank(maxRank / 4);
+		this.median = (int) responseTimes.getValueAtRank(maxRank / 2);
+		this.quartUp = (int) responseTimes.getValueAtRank((maxRank * 3) / 4);
+		this.quantil95 = (int) responseTimes.getValueAtRank((maxRank * 95) / 100);
+		this.max = (int) responseTimes.getMax();
+		this.average = (int) (responseTimes.getTotal() / responseTimes.getTotalCount());
+	}
+
+	/**
+	 * Sets the minimum, quartiles, median, 95% quantile, maximum and average from the given response times. The quantiles are exact.
+	 * 
+	 * @param responseTimes The response times, must not be empty. The array may be reordered.
+	 */
+	public void setDescriptiveStats(final int[] responseTimes) {
+		final int maxRank = responseTimes.length - 1;
+		final int[] quantiles = Quantiles.select(responseTimes, 0, maxRank / 4, maxRank / 2, (int) (((long) maxRank * 3) / 4),
+				(int) (((long) maxRank * 95) / 100), maxRank);
+		this.min = quantiles[0];
+		this.quartLow = quantiles[1];
+		this.median = quantiles[2];
+		this.quartUp = quantiles[3];
+		this.quantil95 = quantiles[4];
+		this.max = quantiles[5];
+		long total = 0;
+		for (final int responseTime : responseTimes) {
+			total += responseTime;
+		}
+		this.average = (int) (total / responseTimes.length);
+	}
+
 	private void updateMaxFrequency() {
 		maxFrequency = Integer.MIN_VALUE;
 		for (final BinList binsForFilter : this.bins.values()) {
@@ -0,0 +1,358 @@
+package net.omikron.jtl.visualizer.histogram;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Records response times in constant memory and answers arbitrary quantiles afterwards. Values are counted in log-linear buckets like in HdrHistogram: each
+ * power of two range is divided into the same number of linear sub-buckets, so every recorded value is kept with the configured number of significant
+ * decimal digits. With three significant digits all response times up to 2047 ms are recorded exactly and a range of one day needs about 150 KB.
+ *
+ * <p>
+ * The minimum, maximum, count and total of the recorded values are tracked exactly. Values larger than the highest trackable value are counted in the last
+ * bucket.
+ * </p>
+ *
+ * <p>
+ * Recorders with the same configuration can be merged without any loss, so e.g. every JTL of a distributed test can be reduced on its own and only the
+ * snapshots written by {@link #writeTo(OutputStream)} have to be combined. The merged recorder is identical to one which recorded all values in one pass.
+ * </p>
+ */
+public class LatencyRecorder {
+
+	/** Default number of significant decimal digits */
+	public static final int		DEFAULT_SIGNIFICANT_DIGITS	= 3;
+	/** Default highest trackable value, one day in ms */
+	public static final long	DEFAULT_HIGHEST_VALUE		= 24L * 60L * 60L * 1000L;
+
+	/** Marks the start of a serialized recorder, "JTLR" */
+	private static final int	SNAPSHOT_MAGIC				= 0x4A544C52;
+	private static final int	SNAPSHOT_VERSION			= 1;
+
+	private final long			highestTrackableValue;
+	private final int			significantDigits;
+
+	private final int			subBucketHalfCountMagnitude;
+	private final int			subBucketHalfCount;
+	private final long			subBucketMask;
+	private final int			leadingZeroCountBase;
+
+	private final long[]		counts;
+
+	private long				totalCount					= 0;
+	private long				total						= 0;
+	private long				min							= Long.MAX_VALUE;
+	private long				max							= Long.MIN_VALUE;
+
+	/**
+	 * Creates a recorder for response times of up to one day with three significant digits.
+	 */
+	public LatencyRecorder() {
+		this(DEFAULT_HIGHEST_VALUE, DEFAULT_SIGNIFICANT_DIGITS);
+	}
+
+	/**
+	 * Creates a recorder.
+	 *
+	 * @param highestTrackableValue The highest value to be recorded with the given precision, at least 2 and at most Long.MAX_VALUE / 2.
+	 * @param significantDigits The number of significant decimal digits kept for every value, between 1 and 5.
+	 */
+	public LatencyRecorder(final long highestTrackableValue, final int significantDigits) {
+		super();
+		if (significantDigits < 1 || significantDigits > 5) {
+			throw new IllegalArgumentException("The number of significant digits has to be between 1 and 5: " + significantDigits);
+		}
+		if (highestTrackableValue < 2 || highestTrackableValue > Long.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("The highest trackable value has to be between 2 and " + Long.MAX_VALUE / 2 + ": " + highestTrackableValue);
+		}
+		this.highestTrackableValue = highestTrackableValue;
+		this.significantDigits = significantDigits;
+
+		// the sub-buckets of a bucket have to distinguish 10^digits values twice over to keep the precision across the whole bucket
+		final long largestValueWithSingleUnitResolution = 2 * (long) Math.pow(10, significantDigits);
+		final int subBucketCountMagnitude = 64 - Long.numberOfLeadingZeros(largestValueWithSingleUnitResolution - 1);
+		subBucketHalfCountMagnitude = subBucketCountMagnitude - 1;
+		final int subBucketCount = 1 << subBucketCountMagnitude;
+		subBucketHalfCount = subBucketCount / 2;
+		subBucketMask = subBucketCount - 1;
+		leadingZeroCountBase = 64 - subBucketHalfCountMagnitude - 1;
+
+		int bucketCount = 1;
+		long smallestUntrackableValue = subBucketCount;
+		while (smallestUntrackableValue <= highestTrackableValue) {
+			smallestUntrackableValue <<= 1;
+			bucketCount++;
+		}
+		counts = new long[(bucketCount + 1) * subBucketHalfCount];
+	}
+
+	/**
+	 * Records a single value.
+	 *
+	 * @param value The value, e.g. a response time in ms. Negative values are recorded as 0.
+	 */
+	public void record(final long value) {
+		record(value, 1);
+	}
+
+	/**
+	 * Records a value several times.
+	 *
+	 * @param value The value, e.g. a response time in ms. Negative values are recorded as 0.
+	 * @param count The number of times the value occurred.
+	 */
+	public void record(final long value, final long count) {
+		if (count <= 0) {
+			return;
+		}
+		final long recordedValue = Math.max(0, value);
+		counts[getIndex(Math.min(recordedValue, highestTrackableValue))] += count;
+		totalCount += count;
+		total += recordedValue * count;
+		if (recordedValue < min) min = recordedValue;
+		if (recordedValue > max) max = recordedValue;
+	}
+
+	/**
+	 * Adds all values recorded by the other recorder to this one.
+	 *
+	 * @param other The recorder to merge, must have the same highest trackable value and number of significant digits.
+	 */
+	public void merge(final LatencyRecorder other) {
+		if (other.highestTrackableValue != highestTrackableValue || other.significantDigits != significantDigits) {
+			throw new IllegalArgumentException("Cannot merge recorders with different configurations: " + other.highestTrackableValue + "/"
+					+ other.significantDigits + " into " + highestTrackableValue + "/" + significantDigits);
+		}
+		for (int index = 0; index < counts.length; index++) {
+			counts[index] += other.counts[index];
+		}
+		totalCount += other.totalCount;
+		total += other.total;
+		if (other.min < min) min = other.min;
+		if (other.max > max) max = other.max;
+	}
+
+	/**
+	 * Returns the value of the given rank, i.e. for rank k the value which would be at index k if all recorded values were sorted ascending. The result is
+	 * the highest value equivalent to the recorded one within the precision of the recorder, limited by the exact minimum and maximum.
+	 *
+	 * @param rank The rank, between 0 and {@link #getTotalCount()} - 1.
+	 * @return The value of the rank.
+	 */
+	public long getValueAtRank(final long rank) {
+		if (rank < 0 || rank >= totalCount) {
+			throw new IndexOutOfBoundsException("Rank: " + rank + ", Count: " + totalCount);
+		}
+		long numBelow = 0;
+		for (int index = 0; index < counts.length; index++) {
+			numBelow += counts[index];
+			if (numBelow > rank) {
+				return Math.max(min, Math.min(max, getHighestEquivalentValue(index)));
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Returns the value at the given percentile using the rank (count - 1) * percentile / 100 rounded down.
+	 *
+	 * @param percentile The percentile between 0 and 100, e.g. 99.9.
+	 * @return The value at the percentile.
+	 */
+	public long getValueAtPercentile(final double percentile) {
+		final double boundedPercentile = Math.max(0.0, Math.min(100.0, percentile));
+		return getValueAtRank((long) Math.floor((totalCount - 1) * boundedPercentile / 100.0));
+	}
+
+	/**
+	 * @return The number of recorded values.
+	 */
+	public long getTotalCount() {
+		return totalCount;
+	}
+
+	/**
+	 * @return The exact sum of all recorded values.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return The exact mean of all recorded values or 0 if nothing was recorded.
+	 */
+	public double getMean() {
+		return totalCount == 0 ? 0.0 : (double) total / (double) totalCount;
+	}
+
+	/**
+	 * @return The exact minimum of all recorded values or {@link Long#MAX_VALUE} if nothing was recorded.
+	 */
+	public long getMin() {
+		return min;
+	}
+
+	/**
+	 * @return The exact maximum of all recorded values or {@link Long#MIN_VALUE} if nothing was recorded.
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * @return The highest value recorded with the configured precision.
+	 */
+	public long getHighestTrackableValue() {
+		return highestTrackableValue;
+	}
+
+	/**
+	 * @return The number of significant decimal digits kept for every value.
+	 */
+	public int getSignificantDigits() {
+		return significantDigits;
+	}
+
+	/**
+	 * Removes all recorded values.
+	 */
+	public void reset() {
+		Arrays.fill(counts, 0);
+		totalCount = 0;
+		total = 0;
+		min = Long.MAX_VALUE;
+		max = Long.MIN_VALUE;
+	}
+
+	/**
+	 * Writes a compact snapshot of this recorder. Runs of empty buckets are collapsed and all numbers are written as variable length integers, so the size of
+	 * a snapshot depends on the number of distinct values rather than on the configured range.
+	 *
+	 * @param out The stream to write to, it is not closed.
+	 * @throws IOException If writing fails.
+	 */
+	public void writeTo(final OutputStream out) throws IOException {
+		final DataOutputStream data = new DataOutputStream(out);
+		data.writeInt(SNAPSHOT_MAGIC);
+		data.writeByte(SNAPSHOT_VERSION);
+		writeVarLong(data, highestTrackableValue);
+		data.writeByte(significantDigits);
+		writeVarLong(data, totalCount);
+		writeVarLong(data, total);
+		writeVarLong(data, zigZag(min));
+		writeVarLong(data, zigZag(max));
+
+		// a count is written as is, a run of empty buckets as its negated length
+		int index = 0;
+		while (index < counts.length) {
+			if (counts[index] == 0) {
+				int runEnd = index + 1;
+				while (runEnd < counts.length && counts[runEnd] == 0) {
+					runEnd++;
+				}
+				writeVarLong(data, zigZag(index - runEnd));
+				index = runEnd;
+			} else {
+				writeVarLong(data, zigZag(counts[index]));
+				index++;
+			}
+		}
+		data.flush();
+	}
+
+	/**
+	 * Reads a snapshot written by {@link #writeTo(OutputStream)}.
+	 *
+	 * @param in The stream to read from, it is not closed.
+	 * @return The recorder of the snapshot.
+	 * @throws IOException If reading fails or the stream does not contain a snapshot.
+	 */
+	public static LatencyRecorder readFrom(final InputStream in) throws IOException {
+		final DataInputStream data = new DataInputStream(in);
+		if (data.readInt() != SNAPSHOT_MAGIC) {
+			throw new IOException("The stream does not contain a latency recorder snapshot.");
+		}
+		final int version = data.readUnsignedByte();
+		if (version != SNAPSHOT_VERSION) {
+			throw new IOException("Unsupported latency recorder snapshot version: " + version);
+		}
+		final LatencyRecorder recorder;
+		try {
+			recorder = new LatencyRecorder(readVarLong(data), data.readUnsignedByte());
+		} catch (final IllegalArgumentException e) {
+			throw new IOException("Invalid latency recorder snapshot: " + e.getMessage());
+		}
+		recorder.totalCount = readVarLong(data);
+		recorder.total = readVarLong(data);
+		recorder.min = unZigZag(readVarLong(data));
+		recorder.max = unZigZag(readVarLong(data));
+
+		int index = 0;
+		while (index < recorder.counts.length) {
+			final long value = unZigZag(readVarLong(data));
+			if (value < 0) {
+				// compared as long, so a corrupt run length cannot overflow the index
+				if (value < index - recorder.counts.length) {
+					throw new IOException("Invalid latency recorder snapshot: counts exceed the configured range.");
+				}
+				index -= (int) value;
+			} else {
+				recorder.counts[index++] = value;
+			}
+		}
+		return recorder;
+	}
+
+	private static void writeVarLong(final DataOutputStream data, final long value) throws IOException {
+		long remaining = value;
+		while ((remaining & ~0x7FL) != 0) {
+			data.writeByte((int) ((remaining & 0x7F) | 0x80));
+			remaining >>>= 7;
+		}
+		data.writeByte((int) remaining);
+	}
+
+	private static long readVarLong(final DataInputStream data) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = data.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Invalid latency recorder snapshot: malformed number.");
+	}
+
+	private static long zigZag(final long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(final long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private int getIndex(final long value) {
+		final int bucketIndex = leadingZeroCountBase - Long.numberOfLeadingZeros(value | subBucketMask);
+		final int subBucketIndex = (int) (value >>> bucketIndex);
+		return ((bucketIndex + 1) << subBucketHalfCountMagnitude) + (subBucketIndex - subBucketHalfCount);
+	}
+
+	private long getLowestEquivalentValue(final int index) {
+		final int bucketIndex = getBucketIndex(index);
+		final int subBucketIndex = (index & (subBucketHalfCount - 1)) + (index < subBucketHalfCount ? 0 : subBucketHalfCount);
+		return (long) subBucketIndex << bucketIndex;
+	}
+
+	private long getHighestEquivalentValue(final int index) {
+		return getLowestEquivalentValue(index) + (1L << getBucketIndex(index)) - 1;
+	}
+
+	private int getBucketIndex(final int index) {
+		return Math.max(0, (index >> subBucketHalfCountMagnitude) - 1);
+	}
+}
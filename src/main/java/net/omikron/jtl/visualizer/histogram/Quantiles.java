@@ -0,0 +1,127 @@
+package net.omikron.jtl.visualizer.histogram;
+
+import java.util.Arrays;
+
+/**
+ * Selects order statistics, e.g. the median or the quartiles, from response times without sorting them. Response times are bounded milliseconds, so a
+ * counting sort over the range of values is used whenever the range is small enough, otherwise the values are partitioned by quickselect.
+ */
+public final class Quantiles {
+
+	/** Ranges up to this size are always selected by counting, larger ranges only if they do not exceed the number of values */
+	private static final int	MAX_COUNTING_RANGE	= 1 << 16;
+
+	private Quantiles() {
+		super();
+	}
+
+	/**
+	 * Returns the values of the given ranks, i.e. for rank k the value which would be at index k if the values were sorted ascending.
+	 *
+	 * @param values The values to select from. The array may be reordered.
+	 * @param ranks The ranks to select in ascending order.
+	 * @return The values of the ranks in the order of the ranks.
+	 */
+	public static int[] select(final int[] values, final int... ranks) {
+		if (values.length == 0) {
+			throw new IllegalArgumentException("Cannot select ranks from an empty array.");
+		}
+		for (int i = 0; i < ranks.length; i++) {
+			checkRank(ranks[i], values.length);
+			if (i > 0 && ranks[i] < ranks[i - 1]) {
+				throw new IllegalArgumentException("Ranks have to be in ascending order.");
+			}
+		}
+		int min = values[0];
+		int max = values[0];
+		for (final int value : values) {
+			if (value < min) min = value;
+			if (value > max) max = value;
+		}
+		final long range = (long) max - min + 1;
+		if (range <= Math.max(MAX_COUNTING_RANGE, values.length)) {
+			return countingSelect(values, ranks, min, (int) range);
+		}
+		final int[] selected = new int[ranks.length];
+		int from = 0;
+		for (int i = 0; i < ranks.length; i++) {
+			// after selecting a rank all values right of it are at least as large, so later ranks only have to search there
+			selected[i] = quickSelect(values, from, values.length - 1, ranks[i]);
+			from = ranks[i];
+		}
+		return selected;
+	}
+
+	private static int[] countingSelect(final int[] values, final int[] ranks, final int min, final int range) {
+		final int[] counts = new int[range];
+		for (final int value : values) {
+			counts[value - min]++;
+		}
+		final int[] selected = new int[ranks.length];
+		int offset = 0;
+		long numBelow = counts[0];
+		for (int i = 0; i < ranks.length; i++) {
+			while (numBelow <= ranks[i]) {
+				offset++;
+				numBelow += counts[offset];
+			}
+			selected[i] = min + offset;
+		}
+		return selected;
+	}
+
+	private static int quickSelect(final int[] values, final int from, final int to, final int rank) {
+		int left = from;
+		int right = to;
+		// fall back to sorting the remaining range if the pivots turn out badly too often
+		int remainingPartitions = 2 * (32 - Integer.numberOfLeadingZeros(right - left + 1));
+		while (right > left) {
+			if (remainingPartitions-- == 0) {
+				Arrays.sort(values, left, right + 1);
+				break;
+			}
+			final int mid = (left + right) >>> 1;
+			if (values[mid] < values[left]) swap(values, mid, left);
+			if (values[right] < values[left]) swap(values, right, left);
+			if (values[right] < values[mid]) swap(values, right, mid);
+			final int pivot = values[mid];
+
+			int i = left;
+			int j = right;
+			while (i <= j) {
+				while (values[i] < pivot) {
+					i++;
+				}
+				while (values[j] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(values, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (rank <= j) {
+				right = j;
+			} else if (rank >= i) {
+				left = i;
+			} else {
+				// values between j and i are equal to the pivot
+				break;
+			}
+		}
+		return values[rank];
+	}
+
+	private static void swap(final int[] values, final int i, final int j) {
+		final int value = values[i];
+		values[i] = values[j];
+		values[j] = value;
+	}
+
+	private static void checkRank(final int rank, final int numValues) {
+		if (rank < 0 || rank >= numValues) {
+			throw new IndexOutOfBoundsException("Rank: " + rank + ", Size: " + numValues);
+		}
+	}
+}
@@ -0,0 +1,225 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses the gzip members of a file starting at a given position. In contrast to the {@link java.util.zip.GZIPInputStream} the exact position after
+ * the last decompressed member is known, so a file can be split into ranges of members which are decompressed independently.
+ *
+ * <p>
+ * Members are decompressed as long as they start before the given limit, the last member may end after the limit. Bytes after the last member which are not
+ * a gzip header are ignored like by the {@link java.util.zip.GZIPInputStream}, only a file which does not start with a gzip header is rejected.
+ * </p>
+ */
+class GzipMemberInputStream extends InputStream {
+
+	private static final int	BUFFER_SIZE	= 64 * 1024;
+
+	private static final int	MAGIC_1		= 0x1F;
+	private static final int	MAGIC_2		= 0x8B;
+	private static final int	DEFLATE		= 8;
+	private static final int	FHCRC		= 2;
+	private static final int	FEXTRA		= 4;
+	private static final int	FNAME		= 8;
+	private static final int	FCOMMENT	= 16;
+
+	private final FileChannel	channel;
+	private final long			limit;
+	private final byte[]		buffer		= new byte[BUFFER_SIZE];
+	private final CRC32			crc			= new CRC32();
+
+	/** File position of the first byte in the buffer */
+	private long				bufferOffset;
+	private int					bufferPos	= 0;
+	private int					bufferLimit	= 0;
+
+	private Inflater			inflater	= null;
+	private long				memberSize;
+	private boolean				finished	= false;
+
+	/**
+	 * @param channel The channel of the gzip file, it is not closed by this stream.
+	 * @param start The position of the first member, the position has to be the start of a gzip header.
+	 * @param limit No members are started at or after this position.
+	 */
+	GzipMemberInputStream(final FileChannel channel, final long start, final long limit) {
+		super();
+		this.channel = channel;
+		this.bufferOffset = start;
+		this.limit = limit;
+	}
+
+	/**
+	 * @return The position after the last decompressed member.
+	 */
+	long getPosition() {
+		return bufferOffset + bufferPos;
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] single = new byte[1];
+		return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		while (!finished) {
+			if (inflater == null) {
+				if (!startMember()) {
+					finished = true;
+					break;
+				}
+			}
+			final int inflated;
+			try {
+				inflated = inflater.inflate(b, off, len);
+			} catch (final DataFormatException e) {
+				throw new ZipException(e.getMessage());
+			}
+			if (inflated > 0) {
+				crc.update(b, off, inflated);
+				memberSize += inflated;
+				return inflated;
+			}
+			if (inflater.finished()) {
+				// hand the bytes after the deflate stream back to the buffer
+				bufferPos = bufferLimit - inflater.getRemaining();
+				inflater.end();
+				inflater = null;
+				readTrailer();
+			} else if (inflater.needsInput()) {
+				if (bufferPos == bufferLimit && !fill()) {
+					throw new EOFException("Unexpected end of the gzip member at byte " + getPosition() + ".");
+				}
+				inflater.setInput(buffer, bufferPos, bufferLimit - bufferPos);
+				bufferPos = bufferLimit;
+			} else {
+				throw new ZipException("The gzip member requires a preset dictionary.");
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public void close() {
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+		finished = true;
+	}
+
+	/**
+	 * Reads the header of the next member.
+	 *
+	 * @return False if there is no further member.
+	 */
+	private boolean startMember() throws IOException {
+		if (getPosition() >= limit) {
+			return false;
+		}
+		if (!ensureAvailable(2) || (buffer[bufferPos] & 0xFF) != MAGIC_1 || (buffer[bufferPos + 1] & 0xFF) != MAGIC_2) {
+			if (getPosition() == 0) {
+				throw new ZipException("Not in gzip format.");
+			}
+			// end of the file or trailing garbage
+			return false;
+		}
+		bufferPos += 2;
+		if (readUnsignedByte() != DEFLATE) {
+			throw new ZipException("Unsupported compression method of the gzip member at byte " + getPosition() + ".");
+		}
+		final int flags = readUnsignedByte();
+		// modification time, extra flags and operating system
+		skipBytes(6);
+		if ((flags & FEXTRA) != 0) {
+			skipBytes(readUnsignedByte() | (readUnsignedByte() << 8));
+		}
+		if ((flags & FNAME) != 0) {
+			skipString();
+		}
+		if ((flags & FCOMMENT) != 0) {
+			skipString();
+		}
+		if ((flags & FHCRC) != 0) {
+			skipBytes(2);
+		}
+		inflater = new Inflater(true);
+		crc.reset();
+		memberSize = 0;
+		return true;
+	}
+
+	private void readTrailer() throws IOException {
+		final long expectedCrc = readUnsignedInt();
+		final long expectedSize = readUnsignedInt();
+		if (expectedCrc != crc.getValue() || expectedSize != (memberSize & 0xFFFFFFFFL)) {
+			throw new ZipException("Corrupt trailer of the gzip member ending at byte " + getPosition() + ".");
+		}
+	}
+
+	private long readUnsignedInt() throws IOException {
+		final long low = readUnsignedByte() | (readUnsignedByte() << 8);
+		final long high = readUnsignedByte() | (readUnsignedByte() << 8);
+		return low | (high << 16);
+	}
+
+	private int readUnsignedByte() throws IOException {
+		if (!ensureAvailable(1)) {
+			throw new EOFException("Unexpected end of the gzip member at byte " + getPosition() + ".");
+		}
+		return buffer[bufferPos++] & 0xFF;
+	}
+
+	private void skipBytes(final int numBytes) throws IOException {
+		for (int i = 0; i < numBytes; i++) {
+			readUnsignedByte();
+		}
+	}
+
+	private void skipString() throws IOException {
+		while (readUnsignedByte() != 0) {
+			// skip the zero terminated file name or comment
+		}
+	}
+
+	private boolean ensureAvailable(final int numBytes) throws IOException {
+		while (bufferLimit - bufferPos < numBytes) {
+			if (!fill()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads the next bytes of the file into the buffer, keeping the bytes which have not been consumed yet.
+	 *
+	 * @return False if the end of the file has been reached.
+	 */
+	private boolean fill() throws IOException {
+		final int remaining = bufferLimit - bufferPos;
+		System.arraycopy(buffer, bufferPos, buffer, 0, remaining);
+		bufferOffset += bufferPos;
+		bufferPos = 0;
+		bufferLimit = remaining;
+		final int read = channel.read(ByteBuffer.wrap(buffer, remaining, buffer.length - remaining), bufferOffset + remaining);
+		if (read <= 0) {
+			return false;
+		}
+		bufferLimit += read;
+		return true;
+	}
+}
@@ -0,0 +1,18 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses the raw bytes of a JTL which are handed over in consecutive buffers, e.g. windows of a memory mapped file. The parser keeps its state between the
+ * buffers, markup or records cut off at the end of a buffer are left unconsumed and have to be passed again at the start of the next buffer.
+ */
+public interface JtlBufferParser {
+
+	/**
+	 * Parses all complete samples between the buffer's position and limit and advances the buffer's position to the first byte which was not consumed.
+	 *
+	 * @param buffer The buffer holding the raw bytes.
+	 * @param endOfInput True if no more bytes will follow the buffer's content.
+	 */
+	void parse(ByteBuffer buffer, boolean endOfInput);
+}
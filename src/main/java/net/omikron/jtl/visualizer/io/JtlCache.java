@@ -0,0 +1,107 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import net.omikron.jtl.visualizer.sample.SampleTable;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Binary column oriented cache of all samples of a JTL. The cache is stored next to the JTL in a file with the extension {@value #FILE_EXTENSION} and is
+ * loaded through a memory mapping, so creating several diagrams of the same JTL only parses the JTL once.
+ *
+ * <p>
+ * A cache is only used as long as the size, modification time and a checksum of the first and last bytes of the JTL are unchanged. The whole JTL is not
+ * hashed, as reading it would cost about as much as parsing it.
+ * </p>
+ */
+public class JtlCache {
+
+	public static final String	FILE_EXTENSION	= ".jtlc";
+
+	private static final int	MAGIC			= 0x4A544C4B;
+	private static final int	VERSION			= 1;
+	/** Magic, version, JTL size, modification time and checksum */
+	private static final int	HEADER_LENGTH	= 4 + 4 + 8 + 8 + 8;
+
+	/**
+	 * @param jtlFile The JTL file.
+	 * @return The cache file of the JTL.
+	 */
+	public static File getCacheFile(final File jtlFile) {
+		return new File(jtlFile.getPath() + FILE_EXTENSION);
+	}
+
+	/**
+	 * Loads the samples of the given JTL from its cache.
+	 *
+	 * @param jtlFile The JTL file.
+	 * @return All samples of the JTL or null if there is no cache or the JTL has changed since the cache was written.
+	 */
+	public SampleTable read(final File jtlFile) {
+		final File cacheFile = getCacheFile(jtlFile);
+		if (!cacheFile.isFile() || cacheFile.length() > Integer.MAX_VALUE) {
+			return null;
+		}
+		RandomAccessFile cache = null;
+		try {
+			cache = new RandomAccessFile(cacheFile, "r");
+			final FileChannel channel = cache.getChannel();
+			final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return null;
+			}
+			final long length = jtlFile.length();
+			if (buffer.getLong() != length || buffer.getLong() != jtlFile.lastModified() || buffer.getLong() != JtlFiles.getChecksum(jtlFile, length)) {
+				System.out.println("The JTL has changed since the cache " + cacheFile.getName() + " was written.");
+				return null;
+			}
+			return SampleTable.readFrom(buffer);
+		} catch (final IOException e) {
+			System.err.println("The cache " + cacheFile.getName() + " cannot be read. " + e.getMessage());
+			return null;
+		} finally {
+			IOUtils.closeQuietly(cache);
+		}
+	}
+
+	/**
+	 * Writes the samples of the given JTL to its cache. The cache is written to a temporary file first, so readers never see an incomplete cache. Errors are
+	 * only reported, as the cache is optional.
+	 *
+	 * @param jtlFile The JTL file.
+	 * @param samples All samples of the JTL.
+	 */
+	public void write(final File jtlFile, final SampleTable samples) {
+		final File cacheFile = getCacheFile(jtlFile);
+		try {
+			JtlFiles.write(cacheFile, new JtlFiles.Content() {
+				public void writeTo(final FileChannel channel) throws IOException {
+					final long length = jtlFile.length();
+					final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+					header.putInt(MAGIC);
+					header.putInt(VERSION);
+					header.putLong(length);
+					header.putLong(jtlFile.lastModified());
+					header.putLong(JtlFiles.getChecksum(jtlFile, length));
+					header.flip();
+					while (header.hasRemaining()) {
+						channel.write(header);
+					}
+					samples.writeTo(channel);
+				}
+			});
+			System.out.println("Samples cached in " + cacheFile.getName() + ".");
+		} catch (final IOException e) {
+			System.err.println("The cache " + cacheFile.getName() + " cannot be written. " + e.getMessage());
+		}
+	}
+}
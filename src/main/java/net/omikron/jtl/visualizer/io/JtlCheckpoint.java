@@ -0,0 +1,220 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+
+import net.omikron.jtl.visualizer.histogram.LatencyRecorder;
+import net.omikron.jtl.visualizer.sample.SampleTable;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * State of an analysis of a JTL which is still growing, i.e. the position up to which the JTL has been parsed and either all samples read so far or, for
+ * descriptive statistics, only their response times and time span. The state is stored in a file with the extension {@value #FILE_EXTENSION} next to the
+ * output, so the next analysis of the same JTL only parses the bytes appended in the meantime, see {@link JtlFollower#resume(long)}.
+ *
+ * <p>
+ * A checkpoint is only used if the settings of the analysis are unchanged and checksums of the first and last bytes before the position still match, so a
+ * JTL which has been truncated or rewritten is read from the start again.
+ * </p>
+ */
+public class JtlCheckpoint {
+
+	public static final String		FILE_EXTENSION		= ".state";
+
+	private static final int		MAGIC				= 0x4A544C50;
+	private static final int		VERSION				= 1;
+	private static final Charset	UTF8				= Charset.forName("UTF-8");
+	private static final byte		TYPE_SAMPLES		= 0;
+	private static final byte		TYPE_RESPONSE_TIMES	= 1;
+
+	private final long				position;
+	private final SampleTable		samples;
+	private final LatencyRecorder	responseTimes;
+	private final long				startOfFirstRequest;
+	private final long				endOfLastRequest;
+
+	/**
+	 * Creates a checkpoint holding all samples read so far.
+	 *
+	 * @param position The position after the last parsed sample of the JTL.
+	 * @param samples The samples read up to the position.
+	 */
+	public JtlCheckpoint(final long position, final SampleTable samples) {
+		super();
+		this.position = position;
+		this.samples = samples;
+		this.responseTimes = null;
+		this.startOfFirstRequest = 0;
+		this.endOfLastRequest = 0;
+	}
+
+	/**
+	 * Creates a checkpoint holding only the response times and the time span of the samples read so far.
+	 *
+	 * @param position The position after the last parsed sample of the JTL.
+	 * @param responseTimes The response times recorded up to the position.
+	 * @param startOfFirstRequest The start of the first request in ms since the epoch.
+	 * @param endOfLastRequest The end of the last request in ms since the epoch.
+	 */
+	public JtlCheckpoint(final long position, final LatencyRecorder responseTimes, final long startOfFirstRequest, final long endOfLastRequest) {
+		super();
+		this.position = position;
+		this.samples = null;
+		this.responseTimes = responseTimes;
+		this.startOfFirstRequest = startOfFirstRequest;
+		this.endOfLastRequest = endOfLastRequest;
+	}
+
+	/**
+	 * @param outputFile The output of the analysis.
+	 * @return The file storing the checkpoint of the analysis.
+	 */
+	public static File getStateFile(final File outputFile) {
+		return new File(outputFile.getPath() + FILE_EXTENSION);
+	}
+
+	/**
+	 * Loads the checkpoint of an analysis of the given JTL.
+	 *
+	 * @param stateFile The file storing the checkpoint.
+	 * @param jtlFileName The file name or file URI of the JTL.
+	 * @param settings The settings of the analysis, e.g. the exclusion pattern, which affect the stored state.
+	 * @return The checkpoint or null if there is none, it was stored with other settings or the JTL has been truncated or rewritten.
+	 */
+	public static JtlCheckpoint read(final File stateFile, final String jtlFileName, final String settings) {
+		final File jtlFile = JtlReader.getFile(jtlFileName);
+		if (jtlFile == null || !stateFile.isFile() || stateFile.length() > Integer.MAX_VALUE) {
+			return null;
+		}
+		RandomAccessFile state = null;
+		try {
+			state = new RandomAccessFile(stateFile, "r");
+			final FileChannel channel = state.getChannel();
+			final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || !settings.equals(readString(buffer))) {
+				return null;
+			}
+			final long position = buffer.getLong();
+			if (jtlFile.length() < position || buffer.getLong() != JtlFiles.getChecksum(jtlFile, position)) {
+				System.out.println("The JTL has been truncated or rewritten since the state " + stateFile.getName() + " was written.");
+				return null;
+			}
+			if (buffer.get() == TYPE_SAMPLES) {
+				return new JtlCheckpoint(position, SampleTable.readFrom(buffer));
+			}
+			final long startOfFirstRequest = buffer.getLong();
+			final long endOfLastRequest = buffer.getLong();
+			final byte[] snapshot = new byte[buffer.remaining()];
+			buffer.get(snapshot);
+			return new JtlCheckpoint(position, LatencyRecorder.readFrom(new ByteArrayInputStream(snapshot)), startOfFirstRequest, endOfLastRequest);
+		} catch (final BufferUnderflowException e) {
+			System.err.println("The state " + stateFile.getName() + " is incomplete.");
+			return null;
+		} catch (final IOException e) {
+			System.err.println("The state " + stateFile.getName() + " cannot be read. " + e.getMessage());
+			return null;
+		} finally {
+			IOUtils.closeQuietly(state);
+		}
+	}
+
+	/**
+	 * Stores this checkpoint of an analysis of the given JTL. The checkpoint is written to a temporary file first, so an incomplete checkpoint is never read.
+	 * Errors are only reported, as the next analysis can always read the whole JTL.
+	 *
+	 * @param stateFile The file storing the checkpoint.
+	 * @param jtlFile The JTL file.
+	 * @param settings The settings of the analysis, see {@link #read(File, String, String)}.
+	 */
+	public void write(final File stateFile, final File jtlFile, final String settings) {
+		try {
+			JtlFiles.write(stateFile, new JtlFiles.Content() {
+				public void writeTo(final FileChannel channel) throws IOException {
+					final byte[] settingsBytes = settings.getBytes(UTF8);
+					final ByteBuffer header = ByteBuffer.allocate(4 + 4 + 4 + settingsBytes.length + 8 + 8 + 1 + 8 + 8).order(ByteOrder.LITTLE_ENDIAN);
+					header.putInt(MAGIC);
+					header.putInt(VERSION);
+					header.putInt(settingsBytes.length);
+					header.put(settingsBytes);
+					header.putLong(position);
+					header.putLong(JtlFiles.getChecksum(jtlFile, position));
+					if (samples != null) {
+						header.put(TYPE_SAMPLES);
+					} else {
+						header.put(TYPE_RESPONSE_TIMES);
+						header.putLong(startOfFirstRequest);
+						header.putLong(endOfLastRequest);
+					}
+					header.flip();
+					while (header.hasRemaining()) {
+						channel.write(header);
+					}
+					if (samples != null) {
+						samples.writeTo(channel);
+					} else {
+						responseTimes.writeTo(Channels.newOutputStream(channel));
+					}
+				}
+			});
+		} catch (final IOException e) {
+			System.err.println("The state " + stateFile.getName() + " cannot be written. " + e.getMessage());
+		}
+	}
+
+	/**
+	 * @return The position after the last parsed sample of the JTL.
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return The samples read up to the position or null if only response times are stored.
+	 */
+	public SampleTable getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return The response times recorded up to the position or null if the samples are stored.
+	 */
+	public LatencyRecorder getResponseTimes() {
+		return responseTimes;
+	}
+
+	/**
+	 * @return The start of the first request in ms since the epoch, only set if response times are stored.
+	 */
+	public long getStartOfFirstRequest() {
+		return startOfFirstRequest;
+	}
+
+	/**
+	 * @return The end of the last request in ms since the epoch, only set if response times are stored.
+	 */
+	public long getEndOfLastRequest() {
+		return endOfLastRequest;
+	}
+
+	private static String readString(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length < 0 || length > buffer.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF8);
+	}
+}
@@ -0,0 +1,434 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import net.omikron.jtl.visualizer.exceptions.JtlReaderException;
+import net.omikron.jtl.visualizer.sample.Sample;
+import net.omikron.jtl.visualizer.sample.StringDictionary;
+
+/**
+ * Parses JTLs which were saved in JMeter's CSV format.
+ *
+ * <p>
+ * The parser works directly on the raw bytes of the JTL. Fields are only sliced as offsets into the byte buffer, numeric columns are decoded from the bytes
+ * without creating intermediate strings and only the string columns used by {@link Sample} are decoded. If the first line is a header line (i.e. contains the
+ * column "timeStamp" or "elapsed") the columns are mapped by name, otherwise JMeter's default column order is assumed. The delimiter is taken from the header
+ * line and defaults to a comma. Fields may be quoted as written by JMeter, quoted line breaks are supported.
+ * </p>
+ *
+ * <p>
+ * Only millisecond timestamps are supported, i.e. the JTL has to be written with the default setting jmeter.save.saveservice.timestamp_format=ms.
+ * </p>
+ */
+public class JtlCsvParser implements JtlBufferParser {
+
+	public static final String		COLUMN_TIMESTAMP		= "timeStamp";
+	public static final String		COLUMN_ELAPSED			= "elapsed";
+	public static final String		COLUMN_LABEL			= "label";
+	public static final String		COLUMN_RESPONSE_CODE	= "responseCode";
+	public static final String		COLUMN_RESPONSE_MESSAGE	= "responseMessage";
+	public static final String		COLUMN_THREAD_NAME		= "threadName";
+	public static final String		COLUMN_DATA_TYPE		= "dataType";
+	public static final String		COLUMN_SUCCESS			= "success";
+	public static final String		COLUMN_BYTES			= "bytes";
+	public static final String		COLUMN_URL				= "URL";
+	public static final String		COLUMN_RESULT_COUNT		= "RESULTCOUNT";
+	public static final String		COLUMN_CACHE_AGE		= "CACHEAGE";
+	public static final String		COLUMN_TIMEOUT			= "TIMEOUT";
+
+	/** Column order written by JMeter if no header line is saved. */
+	public static final String[]	DEFAULT_COLUMNS			= {COLUMN_TIMESTAMP, COLUMN_ELAPSED, COLUMN_LABEL, COLUMN_RESPONSE_CODE, COLUMN_RESPONSE_MESSAGE,
+			COLUMN_THREAD_NAME, COLUMN_DATA_TYPE, COLUMN_SUCCESS, "failureMessage", COLUMN_BYTES, "sentBytes", "grpThreads", "allThreads", COLUMN_URL,
+			"Latency", "IdleTime", "Connect"						};
+
+	private static final Charset	UTF8					= Charset.forName("UTF-8");
+	private static final int		INITIAL_BUFFER_SIZE		= 64 * 1024;
+	private static final byte		QUOTE					= '"';
+	private static final byte		DEFAULT_DELIMITER		= ',';
+	private static final byte[]		TRUE_BYTES				= "true".getBytes(UTF8);
+	private static final String		NO_URL					= "null";
+
+	private final SampleHandler		handler;
+	private final StringDictionary	dictionary;
+	private final SampleFilter		filter;
+
+	private byte					delimiter				= DEFAULT_DELIMITER;
+
+	private int						timestampColumn			= -1;
+	private int						elapsedColumn			= -1;
+	private int						labelColumn				= -1;
+	private int						responseCodeColumn		= -1;
+	private int						responseMessageColumn	= -1;
+	private int						threadNameColumn		= -1;
+	private int						dataTypeColumn			= -1;
+	private int						successColumn			= -1;
+	private int						bytesColumn				= -1;
+	private int						urlColumn				= -1;
+	private int						resultCountColumn		= -1;
+	private int						cacheAgeColumn			= -1;
+	private int						timeoutColumn			= -1;
+
+	/* Field slices of the current record, i.e. offsets into the byte buffer */
+	private int[]					fieldStarts				= new int[32];
+	private int[]					fieldEnds				= new int[32];
+	private boolean[]				fieldQuoted				= new boolean[32];
+	private int						numFields;
+
+	private boolean					columnsMapped			= false;
+	private long					lineNumber				= 0;
+	private byte[]					decodeBuffer			= new byte[256];
+
+	/**
+	 * Creates a parser which passes all parsed samples to the given handler.
+	 *
+	 * @param handler The handler receiving the samples.
+	 */
+	public JtlCsvParser(final SampleHandler handler) {
+		this(handler, new StringDictionary());
+	}
+
+	/**
+	 * Creates a parser which passes all parsed samples to the given handler and encodes their string attributes with the given dictionary.
+	 *
+	 * @param handler The handler receiving the samples.
+	 * @param dictionary The dictionary used to encode the string attributes of the samples.
+	 */
+	public JtlCsvParser(final SampleHandler handler, final StringDictionary dictionary) {
+		this(handler, dictionary, SampleFilter.ALL);
+	}
+
+	/**
+	 * Creates a parser which only passes the samples included by the given filter to the given handler. Excluded records are skipped before their remaining
+	 * fields are decoded.
+	 *
+	 * @param handler The handler receiving the samples.
+	 * @param dictionary The dictionary used to encode the string attributes of the samples.
+	 * @param filter The filter selecting the samples.
+	 */
+	public JtlCsvParser(final SampleHandler handler, final StringDictionary dictionary, final SampleFilter filter) {
+		this.handler = handler;
+		this.dictionary = dictionary;
+		this.filter = filter;
+	}
+
+	/**
+	 * Parses the whole stream. The stream is not closed.
+	 *
+	 * @param csvStream The stream to read the CSV JTL from.
+	 * @throws IOException If reading from the stream fails.
+	 */
+	public void parse(final InputStream csvStream) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+		boolean eof = false;
+		while (!eof) {
+			final int read = csvStream.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+			if (read < 0) {
+				eof = true;
+			} else {
+				buffer.position(buffer.position() + read);
+			}
+			buffer.flip();
+			parse(buffer, eof);
+			if (!eof && buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+				// a single record does not fit into the buffer
+				final ByteBuffer largerBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+				largerBuffer.put(buffer);
+				buffer = largerBuffer;
+			} else {
+				buffer.compact();
+			}
+		}
+	}
+
+	/**
+	 * Parses all complete records between the buffer's position and limit. The buffer's position is advanced to the first byte which was not consumed. If
+	 * endOfInput is true a last record without terminating line break is parsed as well.
+	 *
+	 * @param buffer The buffer holding the raw CSV bytes.
+	 * @param endOfInput True if no more bytes will follow the buffer's content.
+	 */
+	public void parse(final ByteBuffer buffer, final boolean endOfInput) {
+		int pos = buffer.position();
+		final int limit = buffer.limit();
+		if (!columnsMapped) {
+			pos = skipByteOrderMark(buffer, pos, limit);
+			if (!detectDelimiter(buffer, pos, limit) && !endOfInput) {
+				// wait for the complete first line
+				buffer.position(pos);
+				return;
+			}
+		}
+		while (pos < limit) {
+			final int recordEnd = sliceRecord(buffer, pos, limit, endOfInput);
+			if (recordEnd < 0) {
+				break;
+			}
+			lineNumber++;
+			pos = recordEnd;
+			if (isBlankRecord()) {
+				continue;
+			}
+			if (!columnsMapped) {
+				columnsMapped = true;
+				if (mapColumns(buffer)) {
+					continue;
+				}
+			}
+			parseRecord(buffer);
+		}
+		buffer.position(pos);
+	}
+
+	/**
+	 * Slices the record starting at the given position into fields.
+	 *
+	 * @return The position after the record's line break or -1 if the record is not complete yet.
+	 */
+	private int sliceRecord(final ByteBuffer buffer, final int start, final int limit, final boolean endOfInput) {
+		numFields = 0;
+		int pos = start;
+		int fieldStart = start;
+		boolean quoted = false;
+		boolean inQuotes = false;
+		while (pos < limit) {
+			final byte b = buffer.get(pos);
+			if (inQuotes) {
+				if (b == QUOTE) {
+					if (pos + 1 < limit && buffer.get(pos + 1) == QUOTE) {
+						pos++;
+					} else if (pos + 1 >= limit && !endOfInput) {
+						// cannot decide yet whether this is an escaped quote
+						return -1;
+					} else {
+						inQuotes = false;
+					}
+				}
+			} else if (b == QUOTE && pos == fieldStart) {
+				quoted = true;
+				inQuotes = true;
+			} else if (b == delimiter) {
+				addField(fieldStart, pos, quoted);
+				fieldStart = pos + 1;
+				quoted = false;
+			} else if (b == '\n') {
+				int fieldEnd = pos;
+				if (fieldEnd > fieldStart && buffer.get(fieldEnd - 1) == '\r') {
+					fieldEnd--;
+				}
+				addField(fieldStart, fieldEnd, quoted);
+				return pos + 1;
+			}
+			pos++;
+		}
+		if (!endOfInput) {
+			return -1;
+		}
+		addField(fieldStart, limit, quoted);
+		return limit;
+	}
+
+	private void addField(final int start, final int end, final boolean quoted) {
+		if (numFields == fieldStarts.length) {
+			fieldStarts = Arrays.copyOf(fieldStarts, numFields * 2);
+			fieldEnds = Arrays.copyOf(fieldEnds, numFields * 2);
+			fieldQuoted = Arrays.copyOf(fieldQuoted, numFields * 2);
+		}
+		if (quoted) {
+			fieldStarts[numFields] = start + 1;
+			fieldEnds[numFields] = Math.max(start + 1, end - 1);
+		} else {
+			fieldStarts[numFields] = start;
+			fieldEnds[numFields] = end;
+		}
+		fieldQuoted[numFields] = quoted;
+		numFields++;
+	}
+
+	private boolean isBlankRecord() {
+		return numFields == 1 && fieldStarts[0] == fieldEnds[0];
+	}
+
+	/**
+	 * Maps the columns either from the header line in the current record or from the default column order.
+	 *
+	 * @return True if the current record is the header line.
+	 */
+	private boolean mapColumns(final ByteBuffer buffer) {
+		String[] columns = new String[numFields];
+		boolean isHeader = false;
+		for (int i = 0; i < numFields; i++) {
+			columns[i] = decode(buffer, i);
+			if (COLUMN_TIMESTAMP.equals(columns[i]) || COLUMN_ELAPSED.equals(columns[i])) {
+				isHeader = true;
+			}
+		}
+		if (!isHeader) {
+			if (numFields == 1) {
+				throw new JtlReaderException("The CSV JTL neither starts with a header line nor is it delimited by '" + (char) delimiter + "'.");
+			}
+			columns = DEFAULT_COLUMNS;
+		}
+
+		for (int i = 0; i < columns.length; i++) {
+			final String column = columns[i];
+			if (COLUMN_TIMESTAMP.equals(column)) timestampColumn = i;
+			else if (COLUMN_ELAPSED.equals(column)) elapsedColumn = i;
+			else if (COLUMN_LABEL.equals(column)) labelColumn = i;
+			else if (COLUMN_RESPONSE_CODE.equals(column)) responseCodeColumn = i;
+			else if (COLUMN_RESPONSE_MESSAGE.equals(column)) responseMessageColumn = i;
+			else if (COLUMN_THREAD_NAME.equals(column)) threadNameColumn = i;
+			else if (COLUMN_DATA_TYPE.equals(column)) dataTypeColumn = i;
+			else if (COLUMN_SUCCESS.equals(column)) successColumn = i;
+			else if (COLUMN_BYTES.equals(column)) bytesColumn = i;
+			else if (COLUMN_URL.equals(column)) urlColumn = i;
+			else if (COLUMN_RESULT_COUNT.equals(column)) resultCountColumn = i;
+			else if (COLUMN_CACHE_AGE.equals(column)) cacheAgeColumn = i;
+			else if (COLUMN_TIMEOUT.equals(column)) timeoutColumn = i;
+		}
+		if (timestampColumn < 0 || elapsedColumn < 0 || (labelColumn < 0 && urlColumn < 0)) {
+			throw new JtlReaderException("The CSV JTL does not contain the required columns " + COLUMN_TIMESTAMP + ", " + COLUMN_ELAPSED + " and "
+					+ COLUMN_LABEL + ".");
+		}
+		return isHeader;
+	}
+
+	private void parseRecord(final ByteBuffer buffer) {
+		final boolean success = isTrue(buffer, successColumn);
+		if (!filter.includesSuccess(success)) {
+			return;
+		}
+		String url = null;
+		if (urlColumn >= 0 && urlColumn < numFields) {
+			url = decode(buffer, urlColumn);
+		}
+		if (url == null || url.length() == 0 || NO_URL.equals(url)) {
+			url = decode(buffer, labelColumn);
+		}
+		if (!filter.includesLabel(url)) {
+			return;
+		}
+
+		final Sample sample = new Sample(url, /**/
+		success, /**/
+		decode(buffer, responseCodeColumn), /**/
+		decode(buffer, responseMessageColumn), /**/
+		(int) parseLong(buffer, elapsedColumn, 0), /**/
+		parseLong(buffer, timestampColumn, 0), /**/
+		decode(buffer, threadNameColumn), /**/
+		decode(buffer, dataTypeColumn), /**/
+		(int) parseLong(buffer, bytesColumn, 0), /**/
+		dictionary);
+		if (resultCountColumn >= 0) {
+			sample.setResultCount((int) parseLong(buffer, resultCountColumn, sample.getResultCount()));
+		}
+		if (cacheAgeColumn >= 0) {
+			sample.setCacheAge((int) parseLong(buffer, cacheAgeColumn, sample.getCacheAge()));
+		}
+		if (timeoutColumn >= 0) {
+			sample.setTimeOut(isTrue(buffer, timeoutColumn));
+		}
+		handler.handleSample(sample);
+	}
+
+	/**
+	 * Decodes the ASCII digits of the given field without creating a string.
+	 *
+	 * @return The parsed number or the default value if the column does not exist or is empty.
+	 */
+	private long parseLong(final ByteBuffer buffer, final int column, final long defaultValue) {
+		if (column < 0 || column >= numFields || fieldStarts[column] == fieldEnds[column]) {
+			return defaultValue;
+		}
+		int pos = fieldStarts[column];
+		final int end = fieldEnds[column];
+		boolean negative = false;
+		if (buffer.get(pos) == '-') {
+			negative = true;
+			pos++;
+		}
+		long value = 0;
+		for (; pos < end; pos++) {
+			final int digit = buffer.get(pos) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new JtlReaderException("Line " + lineNumber + " of the CSV JTL contains the non numeric value '" + decode(buffer, column)
+						+ "' in a numeric column. Only millisecond timestamps are supported.");
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	private boolean isTrue(final ByteBuffer buffer, final int column) {
+		if (column < 0 || column >= numFields || fieldEnds[column] - fieldStarts[column] != TRUE_BYTES.length) {
+			return false;
+		}
+		for (int i = 0; i < TRUE_BYTES.length; i++) {
+			if (buffer.get(fieldStarts[column] + i) != TRUE_BYTES[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String decode(final ByteBuffer buffer, final int column) {
+		if (column < 0 || column >= numFields) {
+			return null;
+		}
+		final int start = fieldStarts[column];
+		final int length = fieldEnds[column] - start;
+		if (length > decodeBuffer.length) {
+			decodeBuffer = new byte[Math.max(length, decodeBuffer.length * 2)];
+		}
+		int decodedLength = 0;
+		for (int i = 0; i < length; i++) {
+			final byte b = buffer.get(start + i);
+			decodeBuffer[decodedLength++] = b;
+			if (fieldQuoted[column] && b == QUOTE) {
+				// skip the second quote of an escaped quote
+				i++;
+			}
+		}
+		return new String(decodeBuffer, 0, decodedLength, UTF8);
+	}
+
+	private int skipByteOrderMark(final ByteBuffer buffer, final int pos, final int limit) {
+		if (limit - pos >= 3 && buffer.get(pos) == (byte) 0xEF && buffer.get(pos + 1) == (byte) 0xBB && buffer.get(pos + 2) == (byte) 0xBF) {
+			return pos + 3;
+		}
+		return pos;
+	}
+
+	/**
+	 * Detects the delimiter from the header line, i.e. the byte following the column name timeStamp or elapsed. Keeps the default delimiter if the first line
+	 * is no header line.
+	 *
+	 * @return False if the first line is not complete yet.
+	 */
+	private boolean detectDelimiter(final ByteBuffer buffer, final int start, final int limit) {
+		int lineEnd = start;
+		while (lineEnd < limit && buffer.get(lineEnd) != '\n') {
+			lineEnd++;
+		}
+		if (lineEnd == limit) {
+			return false;
+		}
+		for (final String column : new String[] {COLUMN_TIMESTAMP, COLUMN_ELAPSED}) {
+			final byte[] columnBytes = column.getBytes(UTF8);
+			for (int pos = start; pos + columnBytes.length < lineEnd; pos++) {
+				int i = 0;
+				while (i < columnBytes.length && buffer.get(pos + i) == columnBytes[i]) {
+					i++;
+				}
+				if (i == columnBytes.length) {
+					delimiter = buffer.get(pos + columnBytes.length);
+					return true;
+				}
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,114 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+import net.omikron.jtl.visualizer.exceptions.JtlReaderException;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+/**
+ * Detects gzip and Zstandard compressed JTLs by their magic bytes and decompresses them while they are read, so archived JTLs need not be decompressed to
+ * disk first. The file extension is not considered. Gzip files consisting of several members are decompressed on several threads.
+ */
+final class JtlDecompressor {
+
+	private static final int	BUFFER_SIZE		= 64 * 1024;
+	private static final int	MAGIC_LENGTH	= 4;
+
+	private static final byte[]	GZIP_MAGIC		= {(byte) 0x1F, (byte) 0x8B};
+	private static final byte[]	ZSTD_MAGIC		= {(byte) 0x28, (byte) 0xB5, (byte) 0x2F, (byte) 0xFD};
+
+	private JtlDecompressor() {
+		super();
+	}
+
+	/**
+	 * Tests if the JTL starting with the given bytes is compressed.
+	 *
+	 * @param head The first bytes of the JTL.
+	 * @return True if the JTL is gzip or Zstandard compressed.
+	 */
+	static boolean isCompressed(final byte[] head) {
+		return startsWith(head, head.length, GZIP_MAGIC) || startsWith(head, head.length, ZSTD_MAGIC);
+	}
+
+	/**
+	 * Opens the given JTL file. Gzip files are decompressed on the given number of threads.
+	 *
+	 * @param jtlFile The JTL file.
+	 * @param numThreads The maximum number of threads decompressing the file.
+	 * @return The buffered and decompressed stream of the JTL.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	static InputStream open(final File jtlFile, final int numThreads) throws IOException {
+		final InputStream jtlStream = new BufferedInputStream(new FileInputStream(jtlFile), BUFFER_SIZE);
+		if (numThreads > 1 && startsWith(readMagic(jtlStream), MAGIC_LENGTH, GZIP_MAGIC)) {
+			jtlStream.close();
+			return new BufferedInputStream(new ParallelGzipInputStream(jtlFile, numThreads), BUFFER_SIZE);
+		}
+		return decompress(jtlStream);
+	}
+
+	/**
+	 * Decompresses the given stream if it starts with the magic bytes of gzip or Zstandard.
+	 *
+	 * @param jtlStream The stream of the JTL, it has to support marks.
+	 * @return The given stream if it is not compressed, otherwise a buffered stream of the decompressed JTL.
+	 * @throws IOException If the stream cannot be read.
+	 */
+	static InputStream decompress(final InputStream jtlStream) throws IOException {
+		final byte[] magic = readMagic(jtlStream);
+		if (startsWith(magic, MAGIC_LENGTH, GZIP_MAGIC)) {
+			// reads all members of multi member files
+			return new BufferedInputStream(new GZIPInputStream(jtlStream, BUFFER_SIZE), BUFFER_SIZE);
+		}
+		if (startsWith(magic, MAGIC_LENGTH, ZSTD_MAGIC)) {
+			return new BufferedInputStream(openZstd(jtlStream), BUFFER_SIZE);
+		}
+		return jtlStream;
+	}
+
+	private static InputStream openZstd(final InputStream jtlStream) throws IOException {
+		try {
+			return new ZstdInputStream(jtlStream);
+		} catch (final LinkageError e) {
+			// the native library is not available for every platform
+			throw new JtlReaderException("Zstandard compressed JTLs cannot be read on this platform, please decompress the JTL first. " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads the magic bytes of the stream and resets it afterwards.
+	 */
+	private static byte[] readMagic(final InputStream jtlStream) throws IOException {
+		final byte[] magic = new byte[MAGIC_LENGTH];
+		jtlStream.mark(MAGIC_LENGTH);
+		try {
+			int length = 0;
+			int read = 0;
+			while (length < magic.length && (read = jtlStream.read(magic, length, magic.length - length)) >= 0) {
+				length += read;
+			}
+		} finally {
+			jtlStream.reset();
+		}
+		return magic;
+	}
+
+	private static boolean startsWith(final byte[] head, final int length, final byte[] magic) {
+		if (length < magic.length) {
+			return false;
+		}
+		for (int i = 0; i < magic.length; i++) {
+			if (head[i] != magic[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
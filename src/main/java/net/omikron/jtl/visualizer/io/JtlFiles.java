@@ -0,0 +1,116 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * File operations shared by the files stored next to a JTL or an output, i.e. the {@link JtlCache}, the {@link JtlCheckpoint} and followed diagrams: a
+ * checksum which tells whether a JTL has been rewritten and replacing a file which readers never see incomplete.
+ */
+public final class JtlFiles {
+
+	/** Number of bytes at the start of the JTL and before the end covered by the checksum */
+	private static final int	CHECKSUM_LENGTH		= 64 * 1024;
+	private static final int	MAX_RENAME_ATTEMPTS	= 5;
+	/** Time in ms to wait for e.g. a viewer to release a file which cannot be deleted */
+	private static final long	RENAME_RETRY_DELAY	= 100;
+
+	/**
+	 * Writes the content of a file to its channel.
+	 */
+	interface Content {
+
+		/**
+		 * @param channel The channel of the empty file, it is closed afterwards.
+		 * @throws IOException If writing fails.
+		 */
+		void writeTo(FileChannel channel) throws IOException;
+	}
+
+	private JtlFiles() {
+		super();
+	}
+
+	/**
+	 * Calculates a checksum of the first bytes of the JTL and of the last bytes before the given end, so appending to the JTL after the end does not change it.
+	 *
+	 * @param jtlFile The JTL file.
+	 * @param end The position up to which the JTL is covered.
+	 * @return The checksum.
+	 * @throws IOException If the JTL cannot be read up to the end.
+	 */
+	static long getChecksum(final File jtlFile, final long end) throws IOException {
+		final CRC32 checksum = new CRC32();
+		RandomAccessFile jtl = null;
+		try {
+			jtl = new RandomAccessFile(jtlFile, "r");
+			final byte[] bytes = new byte[(int) Math.min(end, CHECKSUM_LENGTH)];
+			jtl.readFully(bytes);
+			checksum.update(bytes);
+			if (end > CHECKSUM_LENGTH) {
+				jtl.seek(Math.max(CHECKSUM_LENGTH, end - CHECKSUM_LENGTH));
+				final byte[] tail = new byte[(int) (end - jtl.getFilePointer())];
+				jtl.readFully(tail);
+				checksum.update(tail);
+			}
+		} finally {
+			IOUtils.closeQuietly(jtl);
+		}
+		return checksum.getValue();
+	}
+
+	/**
+	 * Writes the given content to a temporary file which replaces the given file afterwards, so an incomplete file is never read. The temporary file is
+	 * deleted if writing fails.
+	 *
+	 * @param file The file to write.
+	 * @param content The content of the file.
+	 * @throws IOException If writing or replacing the file fails.
+	 */
+	static void write(final File file, final Content content) throws IOException {
+		final File tempFile = new File(file.getPath() + ".tmp");
+		RandomAccessFile out = null;
+		try {
+			out = new RandomAccessFile(tempFile, "rw");
+			out.setLength(0);
+			content.writeTo(out.getChannel());
+			out.close();
+			out = null;
+			replace(tempFile, file);
+		} catch (final IOException e) {
+			IOUtils.closeQuietly(out);
+			tempFile.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Replaces the given file by renaming the temporary file. Where a rename replaces an existing file atomically, e.g. on Linux and macOS, readers see either
+	 * the old or the new file. Where it does not, e.g. on Windows, the file is deleted after the first rename failed, so readers may briefly not find it. The
+	 * rename is retried a few times, as e.g. a viewer reading the file may keep it from being deleted for a moment.
+	 *
+	 * @param tempFile The temporary file with the new content, in the same directory as the file.
+	 * @param file The file to replace.
+	 * @throws IOException If the file cannot be replaced.
+	 */
+	public static void replace(final File tempFile, final File file) throws IOException {
+		for (int attempt = 1; !tempFile.renameTo(file); attempt++) {
+			if (attempt == MAX_RENAME_ATTEMPTS) {
+				throw new IOException("The file " + file.getName() + " cannot be replaced.");
+			}
+			if (file.exists() && !file.delete()) {
+				try {
+					Thread.sleep(RENAME_RETRY_DELAY);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Replacing the file " + file.getName() + " was interrupted.");
+				}
+			}
+		}
+	}
+}
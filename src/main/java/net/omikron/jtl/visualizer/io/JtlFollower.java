@@ -0,0 +1,262 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import net.omikron.jtl.visualizer.exceptions.JtlReaderException;
+import net.omikron.jtl.visualizer.sample.Sample;
+import net.omikron.jtl.visualizer.sample.StringDictionary;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Follows a JTL file while JMeter appends samples to it. Every {@link #poll()} only parses the bytes appended since the previous poll, a sample which is
+ * still being written is left for the next poll. The parser keeps its state between polls, so XML JTLs need not be complete.
+ *
+ * <p>
+ * The first bytes of the JTL are compared on every poll, so a JTL which has been truncated or replaced, e.g. by a new test run, is detected. Compressed JTLs
+ * and XML JTLs which are not encoded in UTF-8 cannot be followed.
+ * </p>
+ *
+ * <p>
+ * Following can be {@link #resume(long) resumed} at a position returned by {@link #getPosition()} of an earlier follower of the same JTL. The parser is
+ * prepared with the prologue of the JTL, i.e. the header line of a CSV JTL or the root element of an XML JTL, before the appended samples are parsed.
+ * </p>
+ */
+public class JtlFollower implements Closeable {
+
+	private static final int		BUFFER_SIZE	= 64 * 1024;
+	private static final Charset	UTF8		= Charset.forName("UTF-8");
+	private static final byte[][]	SAMPLE_TAGS	= {"<sample".getBytes(UTF8), "<httpSample".getBytes(UTF8)};
+
+	private final File				jtlFile;
+	private final RandomAccessFile	file;
+	private final FileChannel		channel;
+	private final SampleHandler		handler;
+	private final StringDictionary	dictionary;
+	private final SampleFilter		filter;
+
+	private JtlBufferParser			parser		= null;
+	/** The first bytes of the JTL when the parser was created */
+	private byte[]					head		= null;
+	private ByteBuffer				buffer		= ByteBuffer.allocate(BUFFER_SIZE);
+	/** Position after the last byte which has been read from the JTL */
+	private long					position	= 0;
+	/** True while the parser is prepared with the prologue, the samples parsed meanwhile are dropped */
+	private boolean					priming		= false;
+	/** The last sample of an XML JTL while its element is not complete yet, it is passed on once the element is closed */
+	private Sample					openSample	= null;
+
+	/**
+	 * @param jtlFileName The file name or file URI of the JTL.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @param dictionary The dictionary used to encode the string attributes of the samples.
+	 * @param handler The handler receiving the samples.
+	 */
+	public JtlFollower(final String jtlFileName, final String excludeRegExp, final boolean onlyIncludeSuccessful, final StringDictionary dictionary,
+			final SampleHandler handler) {
+		super();
+		this.jtlFile = JtlReader.getFile(jtlFileName);
+		if (jtlFile == null) {
+			throw new JtlReaderException("Only local JTL files can be followed: " + jtlFileName);
+		}
+		try {
+			this.file = new RandomAccessFile(jtlFile, "r");
+		} catch (final IOException e) {
+			throw new JtlReaderException(e);
+		}
+		this.channel = file.getChannel();
+		this.handler = handler;
+		this.dictionary = dictionary;
+		this.filter = new SampleFilter(excludeRegExp, onlyIncludeSuccessful);
+	}
+
+	/**
+	 * @return The followed JTL file.
+	 */
+	public File getJtlFile() {
+		return jtlFile;
+	}
+
+	/**
+	 * Parses the bytes which have been appended to the JTL since the previous poll.
+	 *
+	 * @return False if the JTL has been truncated or replaced since the previous poll. Nothing is read in this case, the JTL has to be followed from the start
+	 *         by a new follower.
+	 * @throws IOException If reading the JTL fails.
+	 */
+	public boolean poll() throws IOException {
+		final long size = channel.size();
+		if (size < position || (head != null && !Arrays.equals(head, read(0, head.length)))) {
+			return false;
+		}
+		if (parser == null) {
+			final byte[] start = read(0, (int) Math.min(size, MappedJtlReader.HEAD_LENGTH));
+			if (start.length < MappedJtlReader.HEAD_LENGTH && !containsLineBreak(start)) {
+				// the format cannot be detected before the first line is complete
+				return true;
+			}
+			createParser(start);
+		}
+		while (position < size) {
+			if (!buffer.hasRemaining()) {
+				// a single sample does not fit into the buffer
+				final ByteBuffer largerBuffer = ByteBuffer.allocate(buffer.capacity() * 2);
+				buffer.flip();
+				largerBuffer.put(buffer);
+				buffer = largerBuffer;
+			}
+			final int read = channel.read(buffer, position);
+			if (read <= 0) {
+				break;
+			}
+			position += read;
+			buffer.flip();
+			parser.parse(buffer, false);
+			buffer.compact();
+			if (openSample != null && !((JtlXmlScanner) parser).isWithinSample()) {
+				handleSample(openSample);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Prepares following the JTL from the given position on, so the next poll only parses the bytes after it.
+	 *
+	 * @param resumePosition The position returned by {@link #getPosition()} of an earlier follower of the same JTL.
+	 * @return False if the JTL cannot be resumed at the position, e.g. because it is shorter or its prologue is not known. The JTL has to be followed from
+	 *         the start in this case.
+	 * @throws IOException If reading the JTL fails.
+	 */
+	public boolean resume(final long resumePosition) throws IOException {
+		final long size = channel.size();
+		final byte[] start = read(0, (int) Math.min(size, MappedJtlReader.HEAD_LENGTH));
+		if (resumePosition > size || !containsLineBreak(start)) {
+			return false;
+		}
+		createParser(start);
+		final int prologueLength = getPrologueLength(start);
+		if (prologueLength < 0 || prologueLength > resumePosition) {
+			parser = null;
+			head = null;
+			return false;
+		}
+		priming = true;
+		try {
+			parser.parse(ByteBuffer.wrap(start, 0, prologueLength), false);
+		} finally {
+			priming = false;
+		}
+		position = resumePosition;
+		buffer.clear();
+		return true;
+	}
+
+	/**
+	 * @return The position after the last sample which has been passed to the handler, a sample which is still being written is not included.
+	 */
+	public long getPosition() {
+		final long consumed = position - buffer.position();
+		if (parser instanceof JtlXmlScanner) {
+			// the elements within a sample, e.g. assertion results, may still be incomplete
+			return consumed - ((JtlXmlScanner) parser).getBytesAfterRootLevel();
+		}
+		return consumed;
+	}
+
+	public void close() {
+		IOUtils.closeQuietly(file);
+	}
+
+	private void createParser(final byte[] start) throws IOException {
+		parser = new MappedJtlReader().createParser(start, new SampleHandler() {
+			public void handleSample(final Sample sample) {
+				if (priming) {
+					return;
+				}
+				if (parser instanceof JtlXmlScanner) {
+					// a sample is scanned with its start tag, it is held back until its element is complete
+					if (openSample != null) {
+						JtlFollower.this.handleSample(openSample);
+					}
+					openSample = sample;
+				} else {
+					handler.handleSample(sample);
+				}
+			}
+		}, dictionary, filter);
+		openSample = null;
+		if (parser == null) {
+			throw new JtlReaderException("Compressed JTLs and XML JTLs which are not encoded in UTF-8 cannot be followed.");
+		}
+		head = start;
+	}
+
+	private void handleSample(final Sample sample) {
+		openSample = null;
+		handler.handleSample(sample);
+	}
+
+	/**
+	 * @return The length of the bytes before the first sample of an XML JTL or of the first line of a CSV JTL, -1 if it is not contained in the given head.
+	 */
+	private int getPrologueLength(final byte[] start) {
+		if (!(parser instanceof JtlXmlScanner)) {
+			for (int i = 0; i < start.length; i++) {
+				if (start[i] == '\n') {
+					return i + 1;
+				}
+			}
+			return -1;
+		}
+		for (int i = 0; i < start.length; i++) {
+			for (final byte[] tag : SAMPLE_TAGS) {
+				if (startsWith(start, i, tag) && i + tag.length < start.length && isTagNameEnd(start[i + tag.length])) {
+					return i;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static boolean startsWith(final byte[] bytes, final int offset, final byte[] prefix) {
+		if (offset + prefix.length > bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++) {
+			if (bytes[offset + i] != prefix[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean isTagNameEnd(final byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '/' || b == '>';
+	}
+
+	private byte[] read(final long start, final int length) throws IOException {
+		final ByteBuffer bytes = ByteBuffer.allocate(length);
+		while (bytes.hasRemaining() && channel.read(bytes, start + bytes.position()) > 0) {
+			// fill the buffer
+		}
+		return bytes.position() == length ? bytes.array() : Arrays.copyOf(bytes.array(), bytes.position());
+	}
+
+	private static boolean containsLineBreak(final byte[] bytes) {
+		for (final byte b : bytes) {
+			if (b == '\n') {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -1,105 +1,355 @@
 package net.omikron.jtl.visualizer.io;
 
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import net.omikron.jtl.visualizer.exceptions.JtlReaderException;
 import net.omikron.jtl.visualizer.sample.Sample;
+import net.omikron.jtl.visualizer.sample.SampleTable;
+import net.omikron.jtl.visualizer.sample.StringDictionary;
+import net.omikron.util.NaturalOrderComparator;
 
-import org.apache.commons.lang.StringUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
 
 public class JtlReader {
 
-	private static final String	SAMPLE_NAME_1	= "sample";
-	private static final String	SAMPLE_NAME_2	= "httpSample";
+	private static final String		SAMPLE_NAME_1			= "sample";
+	private static final String		SAMPLE_NAME_2			= "httpSample";
+	private static final String		ATTRIBUTE_LABEL			= "lb";
+	private static final String		ATTRIBUTE_SUCCESS		= "s";
 
-	public List<Sample> readSamples(final String jtlFileName, final String excludeRegExp, final boolean onlyIncludeSuccessful) {
-		final DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder dBuilder;
+	/** Depth of the sample elements, i.e. the direct children of the root element testResults. */
+	private static final int		SAMPLE_DEPTH			= 2;
+	private static final int		BUFFER_SIZE				= 64 * 1024;
+	private static final int		FORMAT_DETECTION_LENGTH	= 256;
+
+	private static final Charset	UTF8					= Charset.forName("UTF-8");
+	private static final Pattern	XML_ENCODING			= Pattern.compile("encoding\\s*=\\s*[\"']([^\"']*)[\"']");
+
+	private int						numThreads				= Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * @param numThreads The maximum number of threads decompressing a gzip compressed JTL file.
+	 */
+	public void setNumThreads(final int numThreads) {
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Reads all samples of the given XML or CSV JTL into a column oriented sample table. The JTL is streamed, so no DOM of the whole document is built and the
+	 * heap is only occupied by the samples which pass the filters.
+	 * 
+	 * @param jtlFileName The file name or URI of the JTL.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @return The samples in the order in which they appear in the JTL.
+	 */
+	public SampleTable readSamples(final String jtlFileName, final String excludeRegExp, final boolean onlyIncludeSuccessful) {
+		final SampleTable samples = new SampleTable();
+		readSamples(jtlFileName, excludeRegExp, onlyIncludeSuccessful, samples.getAttributeDictionary(), new SampleHandler() {
+			public void handleSample(final Sample sample) {
+				samples.add(sample);
+			}
+		});
+		samples.trimToSize();
+
+		System.out.println("" + samples.size() + " samples read from JTL.");
+		return samples;
+	}
+
+	/**
+	 * Streams the samples of the given JTL to the given handler.
+	 * 
+	 * @param jtlFileName The file name or URI of the JTL.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @param handler The handler receiving the samples.
+	 */
+	public void readSamples(final String jtlFileName, final String excludeRegExp, final boolean onlyIncludeSuccessful, final SampleHandler handler) {
+		readSamples(jtlFileName, excludeRegExp, onlyIncludeSuccessful, new StringDictionary(), handler);
+	}
+
+	/**
+	 * Streams the samples of the given JTL to the given handler. The response codes, response messages, thread names and data types of all samples are
+	 * encoded with the given dictionary.
+	 * 
+	 * @param jtlFileName The file name or URI of the JTL.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @param dictionary The dictionary used to encode the string attributes of the samples.
+	 * @param handler The handler receiving the samples.
+	 */
+	public void readSamples(final String jtlFileName, final String excludeRegExp, final boolean onlyIncludeSuccessful, final StringDictionary dictionary,
+			final SampleHandler handler) {
+		InputStream jtlStream = null;
 		try {
-			dBuilder = dbFactory.newDocumentBuilder();
-			return readSamples(dBuilder.parse(jtlFileName), excludeRegExp, onlyIncludeSuccessful);
-		} catch (final ParserConfigurationException e) {
-			throw new JtlReaderException(e);
-		} catch (final SAXException e) {
-			throw new JtlReaderException(e);
+			jtlStream = openJtl(jtlFileName);
+			readSamples(jtlStream, excludeRegExp, onlyIncludeSuccessful, dictionary, handler);
 		} catch (final IOException e) {
 			throw new JtlReaderException(e);
+		} finally {
+			IOUtils.closeQuietly(jtlStream);
 		}
 	}
 
-	public List<Sample> readSamples(final Document jtlDocument, final String excludeRegExp, final boolean onlyIncludeSuccessful) {
-		final List<Sample> samples = new ArrayList<Sample>();
+	/**
+	 * Streams the samples of the JTL provided by the given input stream to the given handler. The format of the JTL, i.e. XML or CSV, is detected from its
+	 * first bytes. Gzip and Zstandard compressed JTLs are detected by their magic bytes and decompressed while they are read. In XML JTLs only the
+	 * {@value #SAMPLE_NAME_1} and {@value #SAMPLE_NAME_2} elements directly below the root element are considered, nested sub results are skipped. CSV JTLs
+	 * are parsed by the {@link JtlCsvParser}. The stream is not closed.
+	 * 
+	 * @param jtlStream The stream to read the JTL from.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @param handler The handler receiving the samples.
+	 */
+	public void readSamples(final InputStream jtlStream, final String excludeRegExp, final boolean onlyIncludeSuccessful, final SampleHandler handler) {
+		readSamples(jtlStream, excludeRegExp, onlyIncludeSuccessful, new StringDictionary(), handler);
+	}
 
-		final Pattern excludePattern = getExcludePattern(excludeRegExp);
+	/**
+	 * Streams the samples of the JTL provided by the given input stream to the given handler, see
+	 * {@link #readSamples(InputStream, String, boolean, SampleHandler)}. The response codes, response messages, thread names and data types of all samples
+	 * are encoded with the given dictionary, so samples of one read share a single instance of every distinct value.
+	 * 
+	 * @param jtlStream The stream to read the JTL from.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @param dictionary The dictionary used to encode the string attributes of the samples.
+	 * @param handler The handler receiving the samples.
+	 */
+	public void readSamples(final InputStream jtlStream, final String excludeRegExp, final boolean onlyIncludeSuccessful, final StringDictionary dictionary,
+			final SampleHandler handler) {
+		final SampleFilter filter = new SampleFilter(excludeRegExp, onlyIncludeSuccessful);
+		try {
+			final InputStream markableStream = JtlDecompressor.decompress(jtlStream.markSupported() ? jtlStream : new BufferedInputStream(jtlStream,
+					BUFFER_SIZE));
+			if (isXml(markableStream)) {
+				readXmlSamples(markableStream, dictionary, filter, handler);
+			} else {
+				new JtlCsvParser(handler, dictionary, filter).parse(markableStream);
+			}
+		} catch (final XMLStreamException e) {
+			throw new JtlReaderException(e);
+		} catch (final IOException e) {
+			throw new JtlReaderException(e);
+		}
+	}
 
+	private void readXmlSamples(final InputStream jtlStream, final StringDictionary dictionary, final SampleFilter filter, final SampleHandler handler)
+			throws XMLStreamException, IOException {
+		final XMLStreamReader xmlReader = createXmlInputFactory().createXMLStreamReader(jtlStream);
 		try {
-			final NodeList rootNodes = jtlDocument.getChildNodes();
-			final Node testResultsTag = rootNodes.item(0);
-			final NodeList sampleNodes = testResultsTag.getChildNodes();
-			for (int i = 0; i < sampleNodes.getLength(); i++) {
-				final Node node = sampleNodes.item(i);
-				final String nodeName = node.getNodeName();
-				if (SAMPLE_NAME_1.equals(nodeName) || SAMPLE_NAME_2.equals(nodeName)) {
-					final Sample sample = new Sample(node);
-					if (includeSample(sample, excludePattern, onlyIncludeSuccessful)) {
-						samples.add(sample);
+			int depth = 0;
+			while (xmlReader.hasNext()) {
+				final int event = xmlReader.next();
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					depth++;
+					final String elementName = xmlReader.getLocalName();
+					if (depth == SAMPLE_DEPTH && (SAMPLE_NAME_1.equals(elementName) || SAMPLE_NAME_2.equals(elementName))
+							&& filter.includesSuccess(Boolean.parseBoolean(xmlReader.getAttributeValue(null, ATTRIBUTE_SUCCESS)))
+							&& filter.includesLabel(xmlReader.getAttributeValue(null, ATTRIBUTE_LABEL))) {
+						handler.handleSample(new Sample(xmlReader, dictionary));
 					}
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					depth--;
 				}
 			}
-		} catch (final IOException io) {
-			System.err.println(io.getMessage());
+		} finally {
+			xmlReader.close();
 		}
+	}
+
+	/**
+	 * Tests if the stream contains an XML JTL, i.e. if the first character after an optional byte order mark and whitespace is '&lt;'. The stream is reset to
+	 * its current position afterwards.
+	 */
+	boolean isXml(final InputStream jtlStream) throws IOException {
+		jtlStream.mark(FORMAT_DETECTION_LENGTH);
+		try {
+			final byte[] head = new byte[FORMAT_DETECTION_LENGTH];
+			int length = 0;
+			int read = 0;
+			while (length < head.length && (read = jtlStream.read(head, length, head.length - length)) >= 0) {
+				length += read;
+			}
+			int pos = 0;
+			if (length >= 3 && head[0] == (byte) 0xEF && head[1] == (byte) 0xBB && head[2] == (byte) 0xBF) {
+				pos = 3;
+			}
+			while (pos < length && Character.isWhitespace(head[pos])) {
+				pos++;
+			}
+			// an empty JTL is treated as XML to keep the previous behavior
+			return pos == length || head[pos] == '<';
+		} finally {
+			jtlStream.reset();
+		}
+	}
+
+	public SampleTable readSamples(final Document jtlDocument, final String excludeRegExp, final boolean onlyIncludeSuccessful) {
+		final SampleTable samples = new SampleTable();
+
+		final SampleFilter filter = new SampleFilter(excludeRegExp, onlyIncludeSuccessful);
+
+		final NodeList rootNodes = jtlDocument.getChildNodes();
+		final Node testResultsTag = rootNodes.item(0);
+		final NodeList sampleNodes = testResultsTag.getChildNodes();
+		for (int i = 0; i < sampleNodes.getLength(); i++) {
+			final Node node = sampleNodes.item(i);
+			final String nodeName = node.getNodeName();
+			if (SAMPLE_NAME_1.equals(nodeName) || SAMPLE_NAME_2.equals(nodeName)) {
+				final Sample sample = new Sample(node, samples.getAttributeDictionary());
+				if (filter.includes(sample)) {
+					samples.add(sample);
+				}
+			}
+		}
+		samples.trimToSize();
 
 		System.out.println("" + samples.size() + " samples read from JTL.");
 		return samples;
 	}
 
-	private Pattern getExcludePattern(String excludeRegExp) {
-		Pattern excludePattern = null;
-		if (StringUtils.isNotBlank(excludeRegExp)) {
-			// enable substring matches
-			excludeRegExp = ".*" + excludeRegExp + ".*";
-			excludePattern = Pattern.compile(excludeRegExp);
+	private InputStream openJtl(final String jtlFileName) throws IOException {
+		final File jtlFile = getFile(jtlFileName);
+		if (jtlFile != null) {
+			return JtlDecompressor.open(jtlFile, numThreads);
 		}
-		return excludePattern;
+		// not a local file, so it has to be a URI of another scheme
+		return new BufferedInputStream(new URL(jtlFileName).openStream(), BUFFER_SIZE);
+	}
+
+	private XMLInputFactory createXmlInputFactory() {
+		final XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		return factory;
 	}
 
 	/**
-	 * Tests if a sample should be included for analysis. All samples that were successful requests and of which the URL does NOT match the exclude pattern will
-	 * be included.
+	 * Selects the samples of the given table which should be included for analysis. The exclusion pattern is only tested once per distinct label.
+	 *
+	 * @param samples The samples to select from, the table is not modified.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @return The included samples.
+	 */
+	SampleTable selectSamples(final SampleTable samples, final String excludeRegExp, final boolean onlyIncludeSuccessful) {
+		final SampleFilter filter = new SampleFilter(excludeRegExp, onlyIncludeSuccessful);
+		final BitSet excludedLabels = new BitSet();
+		if (filter.isExcludingLabels()) {
+			final StringDictionary labels = samples.getLabelDictionary();
+			for (int labelId = 0; labelId < labels.size(); labelId++) {
+				excludedLabels.set(labelId, !filter.includesLabel(labels.getValue(labelId)));
+			}
+		}
+		final BitSet rows = new BitSet(samples.size());
+		for (int row = 0; row < samples.size(); row++) {
+			final int labelId = samples.getLabelId(row);
+			if (filter.includesSuccess(samples.isSuccess(row)) && (labelId == StringDictionary.NULL_ID || !excludedLabels.get(labelId))) {
+				rows.set(row);
+			}
+		}
+		final SampleTable selected = samples.select(rows);
+		System.out.println("" + selected.size() + " samples selected for analysis.");
+		return selected;
+	}
+
+	/**
+	 * Tests if the XML JTL starting with the given bytes is encoded in UTF-8, i.e. if its XML declaration does not declare another encoding. Readers which
+	 * decode the raw bytes themselves only support UTF-8.
+	 * 
+	 * @param head The first bytes of the JTL.
+	 * @return True if the JTL is encoded in UTF-8.
+	 */
+	static boolean isUtf8(final byte[] head) {
+		final String declaration = new String(head, 0, Math.min(head.length, FORMAT_DETECTION_LENGTH), UTF8);
+		if (!declaration.trim().startsWith("<?xml")) {
+			return true;
+		}
+		final Matcher encoding = XML_ENCODING.matcher(declaration.substring(0, Math.max(0, declaration.indexOf("?>"))));
+		return !encoding.find() || "UTF-8".equalsIgnoreCase(encoding.group(1)) || "UTF8".equalsIgnoreCase(encoding.group(1));
+	}
+
+	/**
+	 * Expands the given JTL file names, e.g. of several load generators. A name containing the wildcards * or ? in its last part is replaced by the names of the
+	 * matching files in its directory in natural order, i.e. <code>jtl/generator*.jtl</code> lists <code>generator2.jtl</code> before
+	 * <code>generator10.jtl</code>. Other names are kept as they are.
+	 *
+	 * @param jtlFileNames The file names, URIs or wildcard patterns of the JTLs.
+	 * @return The file names or URIs of the JTLs.
+	 * @throws JtlReaderException If a pattern does not match any file.
+	 */
+	public static List<String> expandFileNames(final String[] jtlFileNames) {
+		final List<String> expanded = new ArrayList<String>();
+		for (final String jtlFileName : jtlFileNames) {
+			final File pattern = new File(jtlFileName);
+			if (pattern.getName().indexOf('*') < 0 && pattern.getName().indexOf('?') < 0 || pattern.isFile()) {
+				expanded.add(jtlFileName);
+				continue;
+			}
+			final File directory = pattern.getAbsoluteFile().getParentFile();
+			final String[] names = directory.list((FilenameFilter) new WildcardFileFilter(pattern.getName()));
+			if (names == null || names.length == 0) {
+				throw new JtlReaderException("No JTL file matches " + jtlFileName);
+			}
+			Arrays.sort(names, new NaturalOrderComparator());
+			for (final String name : names) {
+				final File file = new File(pattern.getParentFile(), name);
+				if (file.isFile()) {
+					expanded.add(file.getPath());
+				}
+			}
+		}
+		return expanded;
+	}
+
+	/**
+	 * Resolves the given file name or file URI to a local file.
 	 * 
-	 * @param sample The sample to test.
-	 * @param excludePattern The exclusion pattern to test against.
-	 * @param onlyIncludeSuccessful the only include successful
-	 * @return True if the sample stems from a successful request and the URL does not match the exclusion pattern.
+	 * @param jtlFileName The file name or URI of the JTL.
+	 * @return The file or null if the JTL is not a local file.
 	 */
-	private boolean includeSample(final Sample sample, final Pattern excludePattern, final boolean onlyIncludeSuccessful) {
-		boolean includeSample = !onlyIncludeSuccessful || sample.isSuccess();
-		if (includeSample && excludePattern != null) {
-			try {
-				final String url = URLDecoder.decode(sample.getUrl().toString(), "UTF-8");
-				final Matcher excludeMatcher = excludePattern.matcher(url);
-				includeSample = !excludeMatcher.matches();
-			} catch (final UnsupportedEncodingException e) {
-				System.err
-						.println("WTF Error: Your system does not support UTF-8 encoding. The url cannot be decoded. Exclusion test cannot be performed. Sample will be included in the analysis. "
-								+ e.getMessage());
+	static File getFile(final String jtlFileName) {
+		final File jtlFile = new File(jtlFileName);
+		if (jtlFile.isFile()) {
+			return jtlFile;
+		}
+		try {
+			// the transcoder passes file URIs
+			final URI jtlUri = new URI(jtlFileName);
+			if ("file".equals(jtlUri.getScheme())) {
+				final File uriFile = new File(jtlUri);
+				return uriFile.isFile() ? uriFile : null;
 			}
+		} catch (final URISyntaxException e) {
+			// not a URI either, opening the JTL will report it
+		} catch (final IllegalArgumentException e) {
+			// not a hierarchical file URI
 		}
-		return includeSample;
+		return null;
 	}
 }
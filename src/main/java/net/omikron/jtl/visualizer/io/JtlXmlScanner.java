@@ -0,0 +1,511 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import net.omikron.jtl.visualizer.exceptions.JtlReaderException;
+import net.omikron.jtl.visualizer.sample.Sample;
+import net.omikron.jtl.visualizer.sample.StringDictionary;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Scans XML JTLs directly on their raw UTF-8 bytes, e.g. on a memory mapped file.
+ *
+ * <p>
+ * Only the markup needed to find the {@link #SAMPLE_NAME_1} and {@link #SAMPLE_NAME_2} elements directly below the root element is interpreted: tags,
+ * comments, CDATA sections, processing instructions and the document type declaration. The attributes of a sample are sliced as offsets into the byte buffer,
+ * numeric attributes are decoded from the bytes without creating intermediate strings. String attributes are decoded with the predefined entities, character
+ * references and the whitespace normalization of attribute values, so the samples are identical to those read by a StAX parser. Unlike a validating parser
+ * the scanner does not check the document for well-formedness beyond what is needed to find the samples.
+ * </p>
+ */
+public class JtlXmlScanner implements JtlBufferParser {
+
+	public static final String		SAMPLE_NAME_1		= "sample";
+	public static final String		SAMPLE_NAME_2		= "httpSample";
+
+	private static final Charset	UTF8				= Charset.forName("UTF-8");
+	/** Depth of the sample elements, i.e. the direct children of the root element testResults. */
+	private static final int		SAMPLE_DEPTH		= 2;
+
+	private static final byte[][]	SAMPLE_NAMES		= {SAMPLE_NAME_1.getBytes(UTF8), SAMPLE_NAME_2.getBytes(UTF8)};
+	private static final byte[]		COMMENT_START		= "<!--".getBytes(UTF8);
+	private static final byte[]		COMMENT_END			= "-->".getBytes(UTF8);
+	private static final byte[]		CDATA_START			= "<![CDATA[".getBytes(UTF8);
+	private static final byte[]		CDATA_END			= "]]>".getBytes(UTF8);
+	private static final byte[]		PI_END				= "?>".getBytes(UTF8);
+
+	/* Attributes of a sample, the index in this array is the slot of the attribute's value */
+	private static final byte[][]	ATTRIBUTES			= {"lb".getBytes(UTF8), "s".getBytes(UTF8), "rc".getBytes(UTF8), "rm".getBytes(UTF8),
+			"t".getBytes(UTF8), "ts".getBytes(UTF8), "tn".getBytes(UTF8), "dt".getBytes(UTF8), "by".getBytes(UTF8), "RESULTCOUNT".getBytes(UTF8),
+			"CACHEAGE".getBytes(UTF8), "TIMEOUT".getBytes(UTF8)	};
+	private static final int		LABEL				= 0;
+	private static final int		SUCCESS				= 1;
+	private static final int		RESPONSE_CODE		= 2;
+	private static final int		RESPONSE_MESSAGE	= 3;
+	private static final int		ELAPSED_TIME		= 4;
+	private static final int		TIMESTAMP			= 5;
+	private static final int		THREAD_NAME			= 6;
+	private static final int		DATA_TYPE			= 7;
+	private static final int		BYTES				= 8;
+	private static final int		RESULT_COUNT		= 9;
+	private static final int		CACHE_AGE			= 10;
+	private static final int		TIMEOUT				= 11;
+
+	private final SampleHandler		handler;
+	private final StringDictionary	dictionary;
+	private final SampleFilter		filter;
+
+	/* Attribute value slices of the current sample, i.e. offsets into the byte buffer */
+	private final int[]				valueStarts			= new int[ATTRIBUTES.length];
+	private final int[]				valueEnds			= new int[ATTRIBUTES.length];
+
+	private boolean					started				= false;
+	private int						depth				= 0;
+	/** Number of consumed bytes after the last position at which the scanner was outside of the samples */
+	private long					bytesAfterRootLevel	= 0;
+	private byte[]					decodeBuffer		= new byte[256];
+
+	/**
+	 * Creates a scanner which passes all samples to the given handler and encodes their string attributes with the given dictionary.
+	 *
+	 * @param handler The handler receiving the samples.
+	 * @param dictionary The dictionary used to encode the string attributes of the samples.
+	 */
+	public JtlXmlScanner(final SampleHandler handler, final StringDictionary dictionary) {
+		this(handler, dictionary, SampleFilter.ALL);
+	}
+
+	/**
+	 * Creates a scanner which only passes the samples included by the given filter to the given handler. The attributes of excluded samples are not decoded.
+	 *
+	 * @param handler The handler receiving the samples.
+	 * @param dictionary The dictionary used to encode the string attributes of the samples.
+	 * @param filter The filter selecting the samples.
+	 */
+	public JtlXmlScanner(final SampleHandler handler, final StringDictionary dictionary, final SampleFilter filter) {
+		this.handler = handler;
+		this.dictionary = dictionary;
+		this.filter = filter;
+	}
+
+	/**
+	 * Scans all complete markup between the buffer's position and limit. The buffer's position is advanced to the first byte which was not consumed, i.e. the
+	 * start of markup which is cut off by the limit. If endOfInput is true, cut off markup is an error.
+	 *
+	 * @param buffer The buffer holding the raw XML bytes.
+	 * @param endOfInput True if no more bytes will follow the buffer's content.
+	 */
+	public void parse(final ByteBuffer buffer, final boolean endOfInput) {
+		final int start = buffer.position();
+		int pos = start;
+		int rootLevelEnd = -1;
+		final int limit = buffer.limit();
+		if (!started) {
+			if (limit - pos < 3 && !endOfInput) {
+				return;
+			}
+			started = true;
+			if (limit - pos >= 3 && buffer.get(pos) == (byte) 0xEF && buffer.get(pos + 1) == (byte) 0xBB && buffer.get(pos + 2) == (byte) 0xBF) {
+				pos += 3;
+			}
+		}
+		while (pos < limit) {
+			if (buffer.get(pos) != '<') {
+				// character data between the elements is never needed
+				pos++;
+				if (depth < SAMPLE_DEPTH) {
+					rootLevelEnd = pos;
+				}
+				continue;
+			}
+			final int markupEnd = scanMarkup(buffer, pos, limit);
+			if (markupEnd < 0) {
+				if (endOfInput) {
+					throw new JtlReaderException("The XML JTL ends within markup at byte " + pos + " of the scanned range.");
+				}
+				break;
+			}
+			pos = markupEnd;
+			if (depth < SAMPLE_DEPTH) {
+				rootLevelEnd = pos;
+			}
+		}
+		buffer.position(pos);
+		bytesAfterRootLevel = rootLevelEnd >= 0 ? pos - rootLevelEnd : bytesAfterRootLevel + pos - start;
+		if (endOfInput && depth > 0) {
+			throw new JtlReaderException("The XML JTL ends before the root element is closed.");
+		}
+	}
+
+	/**
+	 * @return True if the last consumed byte belongs to a sample element, i.e. its start tag has been scanned but not its end tag.
+	 */
+	public boolean isWithinSample() {
+		return depth >= SAMPLE_DEPTH;
+	}
+
+	/**
+	 * @return The number of bytes consumed since the scanner was outside of the samples the last time. Scanning can only be resumed in a new scanner that far
+	 *         before the first unconsumed byte, as the state within a sample is not known to it.
+	 */
+	public long getBytesAfterRootLevel() {
+		return bytesAfterRootLevel;
+	}
+
+	/**
+	 * Scans the markup starting with '&lt;' at the given position.
+	 *
+	 * @return The position after the markup or -1 if the markup is not complete yet.
+	 */
+	private int scanMarkup(final ByteBuffer buffer, final int start, final int limit) {
+		if (start + 1 >= limit) {
+			return -1;
+		}
+		final byte next = buffer.get(start + 1);
+		if (next == '?') {
+			return indexAfter(buffer, start + 2, limit, PI_END);
+		}
+		if (next == '!') {
+			if (limit - start >= COMMENT_START.length && startsWith(buffer, start, COMMENT_START)) {
+				return indexAfter(buffer, start + COMMENT_START.length, limit, COMMENT_END);
+			}
+			if (limit - start < CDATA_START.length) {
+				// a CDATA section cannot be told from a declaration yet
+				return -1;
+			}
+			if (startsWith(buffer, start, CDATA_START)) {
+				return indexAfter(buffer, start + CDATA_START.length, limit, CDATA_END);
+			}
+			return scanDeclaration(buffer, start + 2, limit);
+		}
+		if (next == '/') {
+			final int tagEnd = indexAfter(buffer, start + 2, limit, '>');
+			if (tagEnd >= 0) {
+				depth--;
+			}
+			return tagEnd;
+		}
+		return scanStartTag(buffer, start, limit);
+	}
+
+	/**
+	 * Scans a document type declaration, which may contain an internal subset in brackets and quoted literals.
+	 */
+	private int scanDeclaration(final ByteBuffer buffer, final int start, final int limit) {
+		int brackets = 0;
+		byte quote = 0;
+		for (int pos = start; pos < limit; pos++) {
+			final byte b = buffer.get(pos);
+			if (quote != 0) {
+				if (b == quote) quote = 0;
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '[') {
+				brackets++;
+			} else if (b == ']') {
+				brackets--;
+			} else if (b == '>' && brackets <= 0) {
+				return pos + 1;
+			}
+		}
+		return -1;
+	}
+
+	private int scanStartTag(final ByteBuffer buffer, final int start, final int limit) {
+		int pos = start + 1;
+		final int nameStart = pos;
+		while (pos < limit && !isWhitespace(buffer.get(pos)) && buffer.get(pos) != '>' && buffer.get(pos) != '/') {
+			pos++;
+		}
+		final int nameEnd = pos;
+		final boolean isSample = depth + 1 == SAMPLE_DEPTH && isSampleName(buffer, nameStart, nameEnd);
+		if (isSample) {
+			for (int i = 0; i < ATTRIBUTES.length; i++) {
+				valueStarts[i] = -1;
+			}
+		}
+
+		// attributes, values are quoted and may contain '>'
+		while (pos < limit) {
+			final byte b = buffer.get(pos);
+			if (b == '>' || (b == '/' && pos + 1 < limit && buffer.get(pos + 1) == '>')) {
+				final boolean empty = b == '/';
+				final int tagEnd = pos + (empty ? 2 : 1);
+				if (isSample && filter.includesSuccess(isTrue(buffer, SUCCESS))) {
+					final String label = decode(buffer, LABEL);
+					if (filter.includesLabel(label)) {
+						handler.handleSample(createSample(buffer, label));
+					}
+				}
+				if (!empty) {
+					depth++;
+				}
+				return tagEnd;
+			}
+			if (b == '/' || isWhitespace(b)) {
+				pos++;
+				continue;
+			}
+			final int attributeStart = pos;
+			while (pos < limit && buffer.get(pos) != '=' && !isWhitespace(buffer.get(pos))) {
+				pos++;
+			}
+			final int attributeEnd = pos;
+			while (pos < limit && buffer.get(pos) != '"' && buffer.get(pos) != '\'') {
+				pos++;
+			}
+			if (pos >= limit) {
+				return -1;
+			}
+			final byte quote = buffer.get(pos);
+			final int valueStart = pos + 1;
+			pos = valueStart;
+			while (pos < limit && buffer.get(pos) != quote) {
+				pos++;
+			}
+			if (pos >= limit) {
+				return -1;
+			}
+			if (isSample) {
+				final int slot = getAttributeSlot(buffer, attributeStart, attributeEnd);
+				if (slot >= 0 && valueStarts[slot] < 0) {
+					valueStarts[slot] = valueStart;
+					valueEnds[slot] = pos;
+				}
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	private Sample createSample(final ByteBuffer buffer, final String label) {
+		final Sample sample = new Sample(label, /**/
+		isTrue(buffer, SUCCESS), /**/
+		decode(buffer, RESPONSE_CODE), /**/
+		decode(buffer, RESPONSE_MESSAGE), /**/
+		(int) parseLong(buffer, ELAPSED_TIME), /**/
+		parseLong(buffer, TIMESTAMP), /**/
+		decode(buffer, THREAD_NAME), /**/
+		decode(buffer, DATA_TYPE), /**/
+		(int) parseLong(buffer, BYTES), /**/
+		dictionary);
+		final String resultCountString = decode(buffer, RESULT_COUNT);
+		if (StringUtils.isNotEmpty(resultCountString)) {
+			if (resultCountString.equals("leider keine")) {
+				sample.setResultCount(0);
+			} else {
+				try {
+					sample.setResultCount(Integer.parseInt(resultCountString));
+				} catch (final NumberFormatException e) {
+					// do nothing...do not set result count
+				}
+			}
+		}
+		final String cacheAgeString = decode(buffer, CACHE_AGE);
+		if (StringUtils.isNotEmpty(cacheAgeString)) {
+			try {
+				sample.setCacheAge(Integer.parseInt(cacheAgeString));
+			} catch (final NumberFormatException e) {
+				// do nothing...do not set cache age
+			}
+		}
+		if (valueStarts[TIMEOUT] >= 0 && valueStarts[TIMEOUT] < valueEnds[TIMEOUT]) {
+			sample.setTimeOut(isTrue(buffer, TIMEOUT));
+		}
+		return sample;
+	}
+
+	/**
+	 * Decodes the ASCII digits of the given attribute without creating a string. Values containing references are decoded first.
+	 *
+	 * @return The parsed number.
+	 */
+	private long parseLong(final ByteBuffer buffer, final int slot) {
+		if (valueStarts[slot] < 0) {
+			throw new JtlReaderException("A sample of the XML JTL does not contain the attribute " + new String(ATTRIBUTES[slot], UTF8) + ".");
+		}
+		int pos = valueStarts[slot];
+		final int end = valueEnds[slot];
+		boolean negative = false;
+		if (pos < end && (buffer.get(pos) == '-' || buffer.get(pos) == '+')) {
+			negative = buffer.get(pos) == '-';
+			pos++;
+		}
+		if (pos == end) {
+			throw new JtlReaderException("A sample of the XML JTL contains an empty numeric attribute " + new String(ATTRIBUTES[slot], UTF8) + ".");
+		}
+		long value = 0;
+		for (; pos < end; pos++) {
+			final int digit = buffer.get(pos) - '0';
+			if (digit < 0 || digit > 9) {
+				try {
+					return Long.parseLong(decode(buffer, slot));
+				} catch (final NumberFormatException e) {
+					throw new JtlReaderException("A sample of the XML JTL contains the non numeric value '" + decode(buffer, slot) + "' in the attribute "
+							+ new String(ATTRIBUTES[slot], UTF8) + ".", e);
+				}
+			}
+			value = value * 10 + digit;
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Like {@link Boolean#parseBoolean(String)}, the value is compared ignoring case.
+	 */
+	private boolean isTrue(final ByteBuffer buffer, final int slot) {
+		final int start = valueStarts[slot];
+		if (start < 0 || valueEnds[slot] - start != 4) {
+			return start >= 0 && valueEnds[slot] - start > 4 && "true".equalsIgnoreCase(decode(buffer, slot));
+		}
+		return (buffer.get(start) | 0x20) == 't' && (buffer.get(start + 1) | 0x20) == 'r' && (buffer.get(start + 2) | 0x20) == 'u'
+				&& (buffer.get(start + 3) | 0x20) == 'e';
+	}
+
+	/**
+	 * Decodes the given attribute value, i.e. resolves references and normalizes whitespace like an XML parser does.
+	 *
+	 * @return The value or null if the attribute is missing.
+	 */
+	private String decode(final ByteBuffer buffer, final int slot) {
+		final int start = valueStarts[slot];
+		if (start < 0) {
+			return null;
+		}
+		final int end = valueEnds[slot];
+		if (end - start > decodeBuffer.length) {
+			decodeBuffer = new byte[Math.max(end - start, decodeBuffer.length * 2)];
+		}
+		int length = 0;
+		for (int pos = start; pos < end; pos++) {
+			final byte b = buffer.get(pos);
+			if (b == '&') {
+				final int referenceEnd = indexAfter(buffer, pos + 1, end, ';');
+				if (referenceEnd < 0) {
+					throw new JtlReaderException("A sample of the XML JTL contains an unterminated reference in the attribute " + new String(ATTRIBUTES[slot], UTF8)
+							+ ".");
+				}
+				length = appendReference(buffer, pos + 1, referenceEnd - 1, length);
+				pos = referenceEnd - 1;
+			} else if (b == '\r') {
+				// a line break \r\n is normalized to a single space
+				if (pos + 1 < end && buffer.get(pos + 1) == '\n') {
+					pos++;
+				}
+				decodeBuffer[length++] = ' ';
+			} else if (b == '\n' || b == '\t') {
+				decodeBuffer[length++] = ' ';
+			} else {
+				decodeBuffer[length++] = b;
+			}
+		}
+		return new String(decodeBuffer, 0, length, UTF8);
+	}
+
+	/**
+	 * Appends the UTF-8 bytes of the reference between the given positions, i.e. without '&amp;' and ';'.
+	 *
+	 * @return The new length of the decoded bytes.
+	 */
+	private int appendReference(final ByteBuffer buffer, final int start, final int end, final int length) {
+		final int codePoint;
+		if (end - start >= 2 && buffer.get(start) == '#') {
+			final boolean hex = buffer.get(start + 1) == 'x';
+			final int digitsStart = start + (hex ? 2 : 1);
+			int value = 0;
+			for (int pos = digitsStart; pos < end && value <= Character.MAX_CODE_POINT; pos++) {
+				final int digit = Character.digit((char) buffer.get(pos), hex ? 16 : 10);
+				if (digit < 0) {
+					value = -1;
+					break;
+				}
+				value = value * (hex ? 16 : 10) + digit;
+			}
+			// the loop stops before the value can overflow
+			if (digitsStart == end || value < 0 || value > Character.MAX_CODE_POINT) {
+				throw new JtlReaderException("A sample of the XML JTL contains the invalid character reference &" + decodeAscii(buffer, start, end) + ";.");
+			}
+			codePoint = value;
+		} else {
+			final String name = decodeAscii(buffer, start, end);
+			if ("amp".equals(name)) codePoint = '&';
+			else if ("lt".equals(name)) codePoint = '<';
+			else if ("gt".equals(name)) codePoint = '>';
+			else if ("quot".equals(name)) codePoint = '"';
+			else if ("apos".equals(name)) codePoint = '\'';
+			else throw new JtlReaderException("A sample of the XML JTL contains the undeclared entity &" + name + ";.");
+		}
+		final byte[] bytes = new String(Character.toChars(codePoint)).getBytes(UTF8);
+		System.arraycopy(bytes, 0, decodeBuffer, length, bytes.length);
+		return length + bytes.length;
+	}
+
+	private String decodeAscii(final ByteBuffer buffer, final int start, final int end) {
+		final StringBuilder s = new StringBuilder(end - start);
+		for (int pos = start; pos < end; pos++) {
+			s.append((char) buffer.get(pos));
+		}
+		return s.toString();
+	}
+
+	private boolean isSampleName(final ByteBuffer buffer, final int start, final int end) {
+		for (final byte[] name : SAMPLE_NAMES) {
+			if (equals(buffer, start, end, name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int getAttributeSlot(final ByteBuffer buffer, final int start, final int end) {
+		for (int slot = 0; slot < ATTRIBUTES.length; slot++) {
+			if (equals(buffer, start, end, ATTRIBUTES[slot])) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean equals(final ByteBuffer buffer, final int start, final int end, final byte[] bytes) {
+		if (end - start != bytes.length) {
+			return false;
+		}
+		for (int i = 0; i < bytes.length; i++) {
+			if (buffer.get(start + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return True if the buffer starts with the given bytes at the given position, the bytes have to be within the limit.
+	 */
+	private static boolean startsWith(final ByteBuffer buffer, final int start, final byte[] bytes) {
+		return equals(buffer, start, start + bytes.length, bytes);
+	}
+
+	private static int indexAfter(final ByteBuffer buffer, final int start, final int limit, final char c) {
+		for (int pos = start; pos < limit; pos++) {
+			if (buffer.get(pos) == c) {
+				return pos + 1;
+			}
+		}
+		return -1;
+	}
+
+	private static int indexAfter(final ByteBuffer buffer, final int start, final int limit, final byte[] bytes) {
+		for (int pos = start; pos + bytes.length <= limit; pos++) {
+			if (startsWith(buffer, pos, bytes)) {
+				return pos + bytes.length;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isWhitespace(final byte b) {
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+	}
+}
@@ -0,0 +1,122 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Searches a text for several literals at once in a single pass (Aho-Corasick). The automaton is built once and is not modified afterwards, so one search
+ * can be shared by several threads.
+ */
+final class LiteralSearch {
+
+	private static final int	ASCII_SIZE	= 128;
+
+	/** Index of the ASCII characters in the alphabet of the literals, 0 for characters which do not occur in any literal */
+	private final int[]			asciiIndexes;
+	/** Sorted non ASCII characters of the literals, their index in the alphabet follows the ASCII characters */
+	private final char[]		otherChars;
+	private final int			alphabetSize;
+	/** Complete transition table, the transitions of a state start at state * alphabetSize */
+	private final int[]			transitions;
+	/** True for the states in which at least one literal ends */
+	private final boolean[]		accepting;
+
+	/**
+	 * @param literals The literals to search for, none of them may be empty.
+	 */
+	LiteralSearch(final Collection<String> literals) {
+		super();
+		this.asciiIndexes = new int[ASCII_SIZE];
+		final StringBuilder others = new StringBuilder();
+		int numAscii = 0;
+		for (final String literal : literals) {
+			for (int i = 0; i < literal.length(); i++) {
+				final char c = literal.charAt(i);
+				if (c < ASCII_SIZE) {
+					if (asciiIndexes[c] == 0) {
+						asciiIndexes[c] = ++numAscii;
+					}
+				} else if (others.indexOf(String.valueOf(c)) < 0) {
+					others.append(c);
+				}
+			}
+		}
+		this.otherChars = others.toString().toCharArray();
+		Arrays.sort(otherChars);
+		this.alphabetSize = 1 + numAscii + otherChars.length;
+
+		// trie of the literals, the missing transitions are completed below
+		final List<int[]> trie = new ArrayList<int[]>();
+		final List<Boolean> ends = new ArrayList<Boolean>();
+		trie.add(new int[alphabetSize]);
+		ends.add(Boolean.FALSE);
+		for (final String literal : literals) {
+			int state = 0;
+			for (int i = 0; i < literal.length(); i++) {
+				final int index = getIndex(literal.charAt(i));
+				if (trie.get(state)[index] == 0) {
+					trie.get(state)[index] = trie.size();
+					trie.add(new int[alphabetSize]);
+					ends.add(Boolean.FALSE);
+				}
+				state = trie.get(state)[index];
+			}
+			ends.set(state, Boolean.TRUE);
+		}
+
+		// breadth first, so the failure state of a state is complete before the state itself
+		final int numStates = trie.size();
+		this.transitions = new int[numStates * alphabetSize];
+		this.accepting = new boolean[numStates];
+		final int[] failures = new int[numStates];
+		final int[] queue = new int[numStates];
+		int head = 0;
+		int tail = 0;
+		for (int index = 0; index < alphabetSize; index++) {
+			final int child = trie.get(0)[index];
+			transitions[index] = child;
+			if (child != 0) {
+				queue[tail++] = child;
+			}
+		}
+		while (head < tail) {
+			final int state = queue[head++];
+			accepting[state] = ends.get(state).booleanValue() || accepting[failures[state]];
+			for (int index = 0; index < alphabetSize; index++) {
+				final int child = trie.get(state)[index];
+				if (child != 0) {
+					failures[child] = transitions[failures[state] * alphabetSize + index];
+					transitions[state * alphabetSize + index] = child;
+					queue[tail++] = child;
+				} else {
+					transitions[state * alphabetSize + index] = transitions[failures[state] * alphabetSize + index];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param text The text to search.
+	 * @return True if the text contains at least one of the literals.
+	 */
+	boolean containsAny(final String text) {
+		int state = 0;
+		for (int i = 0; i < text.length(); i++) {
+			state = transitions[state * alphabetSize + getIndex(text.charAt(i))];
+			if (accepting[state]) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private int getIndex(final char c) {
+		if (c < ASCII_SIZE) {
+			return asciiIndexes[c];
+		}
+		final int other = Arrays.binarySearch(otherChars, c);
+		return other < 0 ? 0 : alphabetSize - otherChars.length + other;
+	}
+}
@@ -0,0 +1,170 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import net.omikron.jtl.visualizer.exceptions.JtlReaderException;
+import net.omikron.jtl.visualizer.sample.Sample;
+import net.omikron.jtl.visualizer.sample.SampleTable;
+import net.omikron.jtl.visualizer.sample.StringDictionary;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads JTL files through a memory mapping instead of a stream. The mapped bytes are parsed in place by the {@link JtlXmlScanner} or the
+ * {@link JtlCsvParser}, so the JTL is neither copied from the page cache into stream buffers nor decoded into characters as a whole. Reading the same JTL
+ * again, e.g. for another diagram, is served from the page cache.
+ *
+ * <p>
+ * Files larger than {@value #MAX_WINDOW_SIZE} bytes are mapped in consecutive windows. JTLs which are not plain files and XML JTLs which are not encoded in
+ * UTF-8 as well as compressed JTLs are read by the {@link JtlReader}.
+ * </p>
+ */
+public class MappedJtlReader {
+
+	/** A single mapping cannot exceed 2 GB, larger files are mapped in windows of this size */
+	static final long		MAX_WINDOW_SIZE	= 512L * 1024L * 1024L;
+	static final int		HEAD_LENGTH		= 4096;
+
+	private final JtlReader	jtlReader		= new JtlReader();
+
+	/**
+	 * @param numThreads The maximum number of threads decompressing a gzip compressed JTL file, which cannot be mapped.
+	 */
+	public void setNumThreads(final int numThreads) {
+		jtlReader.setNumThreads(numThreads);
+	}
+
+	/**
+	 * Reads all samples of the given XML or CSV JTL into a column oriented sample table, see {@link JtlReader#readSamples(String, String, boolean)}.
+	 *
+	 * @param jtlFileName The file name or URI of the JTL.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @return The samples in the order in which they appear in the JTL.
+	 */
+	public SampleTable readSamples(final String jtlFileName, final String excludeRegExp, final boolean onlyIncludeSuccessful) {
+		final SampleTable samples = new SampleTable();
+		readSamples(jtlFileName, excludeRegExp, onlyIncludeSuccessful, samples.getAttributeDictionary(), new SampleHandler() {
+			public void handleSample(final Sample sample) {
+				samples.add(sample);
+			}
+		});
+		samples.trimToSize();
+
+		System.out.println("" + samples.size() + " samples read from JTL.");
+		return samples;
+	}
+
+	/**
+	 * Streams the samples of the given JTL to the given handler.
+	 *
+	 * @param jtlFileName The file name or URI of the JTL.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @param handler The handler receiving the samples.
+	 */
+	public void readSamples(final String jtlFileName, final String excludeRegExp, final boolean onlyIncludeSuccessful, final SampleHandler handler) {
+		readSamples(jtlFileName, excludeRegExp, onlyIncludeSuccessful, new StringDictionary(), handler);
+	}
+
+	/**
+	 * Streams the samples of the given JTL to the given handler. The response codes, response messages, thread names and data types of all samples are
+	 * encoded with the given dictionary.
+	 *
+	 * @param jtlFileName The file name or URI of the JTL.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @param dictionary The dictionary used to encode the string attributes of the samples.
+	 * @param handler The handler receiving the samples.
+	 */
+	public void readSamples(final String jtlFileName, final String excludeRegExp, final boolean onlyIncludeSuccessful, final StringDictionary dictionary,
+			final SampleHandler handler) {
+		final File jtlFile = JtlReader.getFile(jtlFileName);
+		if (jtlFile == null || jtlFile.length() == 0) {
+			jtlReader.readSamples(jtlFileName, excludeRegExp, onlyIncludeSuccessful, dictionary, handler);
+			return;
+		}
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(jtlFile, "r");
+			final FileChannel channel = file.getChannel();
+			final JtlBufferParser parser = createParser(channel, handler, dictionary, new SampleFilter(excludeRegExp, onlyIncludeSuccessful));
+			if (parser == null) {
+				jtlReader.readSamples(jtlFileName, excludeRegExp, onlyIncludeSuccessful, dictionary, handler);
+			} else {
+				parse(channel, 0, channel.size(), parser, true);
+			}
+		} catch (final IOException e) {
+			throw new JtlReaderException(e);
+		} finally {
+			IOUtils.closeQuietly(file);
+		}
+	}
+
+	/**
+	 * Creates the parser for the format of the given JTL.
+	 *
+	 * @return The parser or null if the JTL cannot be parsed from its raw bytes, e.g. because it is compressed.
+	 */
+	JtlBufferParser createParser(final FileChannel channel, final SampleHandler handler, final StringDictionary dictionary, final SampleFilter filter)
+			throws IOException {
+		final ByteBuffer headBuffer = channel.map(MapMode.READ_ONLY, 0, Math.min(channel.size(), HEAD_LENGTH));
+		final byte[] head = new byte[headBuffer.remaining()];
+		headBuffer.get(head);
+		return createParser(head, handler, dictionary, filter);
+	}
+
+	/**
+	 * Creates the parser for the format of the JTL starting with the given bytes.
+	 *
+	 * @return The parser or null if the JTL cannot be parsed from its raw bytes, e.g. because it is compressed.
+	 */
+	JtlBufferParser createParser(final byte[] head, final SampleHandler handler, final StringDictionary dictionary, final SampleFilter filter)
+			throws IOException {
+		if (JtlDecompressor.isCompressed(head)) {
+			return null;
+		}
+		if (!jtlReader.isXml(new ByteArrayInputStream(head))) {
+			return new JtlCsvParser(handler, dictionary, filter);
+		}
+		return JtlReader.isUtf8(head) ? new JtlXmlScanner(handler, dictionary, filter) : null;
+	}
+
+	/**
+	 * Maps the given range of the file window by window and passes the windows to the parser. A window starts with the first byte the parser did not consume
+	 * from the previous window.
+	 *
+	 * @param channel The channel of the file.
+	 * @param start The position of the first byte to parse.
+	 * @param end The position after the last byte to parse.
+	 * @param parser The parser.
+	 * @param endOfInput True if the range is the end of the parser's input.
+	 * @throws IOException If mapping the file fails.
+	 */
+	static void parse(final FileChannel channel, final long start, final long end, final JtlBufferParser parser, final boolean endOfInput) throws IOException {
+		long offset = start;
+		while (true) {
+			final long length = Math.min(end - offset, MAX_WINDOW_SIZE);
+			final boolean lastWindow = offset + length == end;
+			final MappedByteBuffer window = channel.map(MapMode.READ_ONLY, offset, length);
+			parser.parse(window, lastWindow && endOfInput);
+			if (lastWindow) {
+				if (window.hasRemaining()) {
+					throw new JtlReaderException("The range of the JTL ends within a sample at byte " + (offset + window.position()) + ".");
+				}
+				return;
+			}
+			if (window.position() == 0) {
+				throw new JtlReaderException("A single sample of the JTL exceeds " + MAX_WINDOW_SIZE + " bytes.");
+			}
+			offset += window.position();
+		}
+	}
+}
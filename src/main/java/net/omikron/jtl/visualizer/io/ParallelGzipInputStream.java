@@ -0,0 +1,245 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Decompresses a gzip file consisting of several members, e.g. concatenated gzip files, on several threads. Gzip members are
+ * independent of each other, so the file is split into ranges starting with a gzip header and every range is decompressed by a thread of its own. The
+ * decompressed ranges are returned in file order.
+ *
+ * <p>
+ * Range starts are found by searching the compressed bytes for gzip headers, so a range may start with bytes which only look like a header. A decompressed
+ * range is only used if it starts exactly where the members of the previous range end, otherwise the members are decompressed on the reading thread until
+ * the ranges are in sync again. Ranges containing a single large member are decompressed on the reading thread as well, so a file consisting of a single
+ * member is streamed like by the {@link java.util.zip.GZIPInputStream}.
+ * </p>
+ */
+class ParallelGzipInputStream extends InputStream {
+
+	/** Members are grouped into ranges of at least this compressed size */
+	private static final long			CHUNK_SIZE				= 1024L * 1024L;
+	/** Larger ranges are not decompressed into memory but streamed */
+	private static final long			MAX_BUFFERED_CHUNK_SIZE	= 16L * CHUNK_SIZE;
+	/** Number of ranges decompressed ahead per thread */
+	private static final int			CHUNKS_AHEAD_PER_THREAD	= 2;
+	private static final int			BUFFER_SIZE				= 64 * 1024;
+
+	private final RandomAccessFile		file;
+	private final FileChannel			channel;
+	private final int					numThreads;
+	private final long[]				boundaries;
+	private final Future<Chunk>[]		chunks;
+
+	private ExecutorService				executor				= null;
+	/** Index of the next range to read */
+	private int							nextChunk				= 0;
+	/** Index of the next range to decompress */
+	private int							nextSubmit				= 0;
+	/** Position after the last member which has been read */
+	private long						position				= 0;
+	private InputStream					current					= null;
+	private GzipMemberInputStream		currentMembers			= null;
+
+	/**
+	 * @param gzipFile The gzip file.
+	 * @param numThreads The maximum number of threads decompressing the file.
+	 * @throws IOException If the file cannot be read.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	ParallelGzipInputStream(final File gzipFile, final int numThreads) throws IOException {
+		super();
+		this.file = new RandomAccessFile(gzipFile, "r");
+		this.channel = file.getChannel();
+		this.numThreads = numThreads;
+		try {
+			this.boundaries = getBoundaries();
+		} catch (final IOException e) {
+			IOUtils.closeQuietly(file);
+			throw e;
+		}
+		this.chunks = new Future[boundaries.length - 1];
+	}
+
+	@Override
+	public int read() throws IOException {
+		final byte[] single = new byte[1];
+		return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+	}
+
+	@Override
+	public int read(final byte[] b, final int off, final int len) throws IOException {
+		while (true) {
+			if (current != null) {
+				final int read = current.read(b, off, len);
+				if (read >= 0) {
+					return read;
+				}
+				if (currentMembers != null) {
+					position = currentMembers.getPosition();
+					currentMembers = null;
+				}
+				current = null;
+			}
+			if (nextChunk == chunks.length) {
+				return -1;
+			}
+			if (boundaries[nextChunk] == position && !isStreamed(nextChunk)) {
+				submitChunks();
+				try {
+					final Chunk chunk = chunks[nextChunk].get();
+					chunks[nextChunk] = null;
+					nextChunk++;
+					current = new ByteArrayInputStream(chunk.data);
+					position = chunk.end;
+					continue;
+				} catch (final ExecutionException e) {
+					// the range did not start with a member, an error is reported again below if the data is actually corrupt
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Decompressing the gzip file was interrupted.");
+				}
+			}
+			// the range is too large to be buffered or the previous range ended in another position than the range starts, so the members are decompressed
+			// on the reading thread from the end of the previous range on
+			if (chunks[nextChunk] != null) {
+				chunks[nextChunk].cancel(false);
+				chunks[nextChunk] = null;
+			}
+			currentMembers = new GzipMemberInputStream(channel, position, boundaries[nextChunk + 1]);
+			current = currentMembers;
+			nextChunk++;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		if (currentMembers != null) {
+			currentMembers.close();
+		}
+		file.close();
+	}
+
+	/**
+	 * Starts decompressing the ranges which are read next.
+	 */
+	private void submitChunks() {
+		if (executor == null) {
+			executor = Executors.newFixedThreadPool(Math.min(numThreads, chunks.length));
+		}
+		nextSubmit = Math.max(nextSubmit, nextChunk);
+		final int lastSubmit = Math.min(chunks.length, nextChunk + numThreads * CHUNKS_AHEAD_PER_THREAD);
+		for (; nextSubmit < lastSubmit; nextSubmit++) {
+			if (!isStreamed(nextSubmit)) {
+				chunks[nextSubmit] = executor.submit(new ChunkInflater(boundaries[nextSubmit], boundaries[nextSubmit + 1]));
+			}
+		}
+	}
+
+	private boolean isStreamed(final int chunk) {
+		return boundaries[chunk + 1] - boundaries[chunk] > MAX_BUFFERED_CHUNK_SIZE;
+	}
+
+	/**
+	 * Searches the file for gzip headers and groups the members into ranges of at least {@value #CHUNK_SIZE} bytes.
+	 *
+	 * @return The start positions of the ranges followed by the file size.
+	 */
+	private long[] getBoundaries() throws IOException {
+		final long size = channel.size();
+		final List<Long> boundaryList = new ArrayList<Long>();
+		boundaryList.add(Long.valueOf(0));
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		final byte[] bytes = buffer.array();
+		// the header bytes checked by isHeader overlap the buffers
+		final int overlap = 4;
+		long offset = 0;
+		long lastBoundary = 0;
+		while (offset < size) {
+			buffer.clear();
+			while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+				// fill the buffer
+			}
+			final int length = buffer.position();
+			final int searchEnd = offset + length < size ? length - overlap : length;
+			for (int i = 0; i < searchEnd; i++) {
+				if (bytes[i] == (byte) 0x1F && offset + i - lastBoundary >= CHUNK_SIZE && isHeader(bytes, i, length)) {
+					lastBoundary = offset + i;
+					boundaryList.add(Long.valueOf(lastBoundary));
+				}
+			}
+			offset += searchEnd;
+		}
+		boundaryList.add(Long.valueOf(size));
+
+		final long[] boundaryArray = new long[boundaryList.size()];
+		for (int i = 0; i < boundaryArray.length; i++) {
+			boundaryArray[i] = boundaryList.get(i).longValue();
+		}
+		return boundaryArray;
+	}
+
+	/**
+	 * Tests if the bytes at the given position look like the start of a gzip header, i.e. the magic bytes, the deflate method and no reserved flags.
+	 */
+	private boolean isHeader(final byte[] bytes, final int pos, final int length) {
+		return pos + 3 < length && bytes[pos + 1] == (byte) 0x8B && bytes[pos + 2] == 8 && (bytes[pos + 3] & 0xE0) == 0;
+	}
+
+	/**
+	 * The decompressed members of a range.
+	 */
+	private static class Chunk {
+
+		private final byte[]	data;
+		/** Position after the last member */
+		private final long		end;
+
+		Chunk(final byte[] data, final long end) {
+			super();
+			this.data = data;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Decompresses the members starting in a range of the file.
+	 */
+	private class ChunkInflater implements Callable<Chunk> {
+
+		private final long	start;
+		private final long	end;
+
+		ChunkInflater(final long start, final long end) {
+			super();
+			this.start = start;
+			this.end = end;
+		}
+
+		public Chunk call() throws IOException {
+			final GzipMemberInputStream members = new GzipMemberInputStream(channel, start, end);
+			try {
+				return new Chunk(IOUtils.toByteArray(members), members.getPosition());
+			} finally {
+				members.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,536 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.omikron.jtl.visualizer.exceptions.JtlReaderException;
+import net.omikron.jtl.visualizer.sample.Sample;
+import net.omikron.jtl.visualizer.sample.SampleTable;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Reads large JTL files on several threads. The file is split into byte ranges which are re-synchronised on the start of a sample: in XML JTLs on the next
+ * line starting with a &lt;httpSample&gt; or &lt;sample&gt; tag, in CSV JTLs on the next line break outside of a quoted field. Every range is parsed by a
+ * {@link JtlReader} of its own and the resulting tables are appended in file order, so the samples and their order are identical to reading the file on a
+ * single thread.
+ *
+ * <p>
+ * XML ranges are wrapped in a root element and CSV ranges are prefixed with the header line of the file. If a range cannot be parsed on its own, e.g. because
+ * JMeter was configured to write nested samples without indentation, the file is read again on a single thread. JTLs which are not plain files, too small
+ * to be split or compressed are read by the {@link JtlReader} directly, which decompresses gzip members on the given number of threads.
+ * </p>
+ *
+ * <p>
+ * If memory mapping is enabled, every range is mapped and parsed in place like by the {@link MappedJtlReader}.
+ * </p>
+ */
+public class ParallelJtlReader {
+
+	/** Files are only split into ranges of at least this size */
+	private static final long		MIN_CHUNK_SIZE			= 4L * 1024L * 1024L;
+	/** More ranges than threads balance ranges which take longer to parse */
+	private static final int		CHUNKS_PER_THREAD		= 4;
+	private static final int		BUFFER_SIZE				= 64 * 1024;
+
+	private static final Charset	UTF8					= Charset.forName("UTF-8");
+	private static final byte[]		NO_BYTES				= new byte[0];
+	private static final byte[]		ROOT_START				= "<testResults>".getBytes(UTF8);
+	private static final byte[]		ROOT_END				= "</testResults>".getBytes(UTF8);
+	private static final byte[][]	SAMPLE_TAGS				= {"<httpSample".getBytes(UTF8), "<sample".getBytes(UTF8)};
+	/** Bytes needed to decide if a line break is followed by a sample tag */
+	private static final int		SAMPLE_TAG_LOOKAHEAD	= 1 + SAMPLE_TAGS[0].length + 1;
+	private static final byte		QUOTE					= '"';
+
+	private final int				numThreads;
+	private final JtlReader			jtlReader				= new JtlReader();
+
+	private boolean					memoryMapped			= false;
+	private boolean					cached					= false;
+
+	/**
+	 * Creates a reader which parses a JTL on the given number of threads.
+	 *
+	 * @param numThreads The number of threads, 1 reads the JTL sequentially.
+	 */
+	public ParallelJtlReader(final int numThreads) {
+		super();
+		if (numThreads < 1) {
+			throw new IllegalArgumentException("The number of threads has to be at least 1: " + numThreads);
+		}
+		this.numThreads = numThreads;
+		jtlReader.setNumThreads(numThreads);
+	}
+
+	/**
+	 * @param memoryMapped If true the JTL is memory mapped instead of being read through streams.
+	 */
+	public void setMemoryMapped(final boolean memoryMapped) {
+		this.memoryMapped = memoryMapped;
+	}
+
+	/**
+	 * @param cached If true all samples of a JTL file are kept in a {@link JtlCache} next to it and read from there as long as the JTL is unchanged.
+	 */
+	public void setCached(final boolean cached) {
+		this.cached = cached;
+	}
+
+	/**
+	 * Reads all samples of the given XML or CSV JTL into a column oriented sample table, see
+	 * {@link JtlReader#readSamples(String, String, boolean)}.
+	 *
+	 * @param jtlFileName The file name or URI of the JTL.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @return The samples in the order in which they appear in the JTL.
+	 */
+	public SampleTable readSamples(final String jtlFileName, final String excludeRegExp, final boolean onlyIncludeSuccessful) {
+		final File jtlFile = JtlReader.getFile(jtlFileName);
+		if (cached && jtlFile != null) {
+			final JtlCache cache = new JtlCache();
+			SampleTable samples = cache.read(jtlFile);
+			if (samples == null) {
+				// the cache holds all samples, so it can be used with any filter
+				samples = readSamples(jtlFileName, jtlFile, null, false);
+				cache.write(jtlFile, samples);
+			} else {
+				System.out.println("" + samples.size() + " samples read from cache " + JtlCache.getCacheFile(jtlFile).getName() + ".");
+			}
+			return jtlReader.selectSamples(samples, excludeRegExp, onlyIncludeSuccessful);
+		}
+		return readSamples(jtlFileName, jtlFile, excludeRegExp, onlyIncludeSuccessful);
+	}
+
+	/**
+	 * Reads all samples of the given JTLs, e.g. of several load generators, into one sample table ordered by timestamp. The JTLs are read concurrently, each by
+	 * a reader with its share of the threads, and their tables are merged by {@link SampleTable#mergeByTimestamp(List)}, so no combined JTL is written.
+	 *
+	 * @param jtlFileNames The file names or URIs of the JTLs.
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 * @return The samples of all JTLs ordered by timestamp, samples with equal timestamps in the order of the JTLs.
+	 */
+	public SampleTable readSamples(final List<String> jtlFileNames, final String excludeRegExp, final boolean onlyIncludeSuccessful) {
+		if (jtlFileNames.size() == 1) {
+			return readSamples(jtlFileNames.get(0), excludeRegExp, onlyIncludeSuccessful);
+		}
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(jtlFileNames.size(), numThreads));
+		try {
+			final List<Future<SampleTable>> files = new ArrayList<Future<SampleTable>>();
+			for (final String jtlFileName : jtlFileNames) {
+				final ParallelJtlReader fileReader = new ParallelJtlReader(Math.max(1, numThreads / jtlFileNames.size()));
+				fileReader.setMemoryMapped(memoryMapped);
+				fileReader.setCached(cached);
+				files.add(executor.submit(new Callable<SampleTable>() {
+					public SampleTable call() {
+						return fileReader.readSamples(jtlFileName, excludeRegExp, onlyIncludeSuccessful);
+					}
+				}));
+			}
+			final List<SampleTable> tables = new ArrayList<SampleTable>();
+			for (final Future<SampleTable> file : files) {
+				tables.add(file.get());
+			}
+			final SampleTable samples = SampleTable.mergeByTimestamp(tables);
+			System.out.println("" + samples.size() + " samples of " + jtlFileNames.size() + " JTLs merged.");
+			return samples;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JtlReaderException(e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof JtlReaderException) {
+				throw (JtlReaderException) e.getCause();
+			}
+			throw new JtlReaderException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private SampleTable readSamples(final String jtlFileName, final File jtlFile, final String excludeRegExp, final boolean onlyIncludeSuccessful) {
+		if (numThreads > 1 && jtlFile != null && jtlFile.length() >= 2 * MIN_CHUNK_SIZE) {
+			RandomAccessFile file = null;
+			try {
+				file = new RandomAccessFile(jtlFile, "r");
+				final SampleTable samples = readChunks(file.getChannel(), excludeRegExp, onlyIncludeSuccessful);
+				if (samples != null) {
+					System.out.println("" + samples.size() + " samples read from JTL.");
+					return samples;
+				}
+			} catch (final IOException e) {
+				throw new JtlReaderException(e);
+			} finally {
+				IOUtils.closeQuietly(file);
+			}
+		}
+		if (memoryMapped) {
+			final MappedJtlReader mappedReader = new MappedJtlReader();
+			mappedReader.setNumThreads(numThreads);
+			return mappedReader.readSamples(jtlFileName, excludeRegExp, onlyIncludeSuccessful);
+		}
+		return jtlReader.readSamples(jtlFileName, excludeRegExp, onlyIncludeSuccessful);
+	}
+
+	/**
+	 * @return The samples or null if the JTL cannot be split and has to be read sequentially.
+	 */
+	private SampleTable readChunks(final FileChannel channel, final String excludeRegExp, final boolean onlyIncludeSuccessful) throws IOException {
+		final byte[] head = read(channel, 0, BUFFER_SIZE);
+		if (JtlDecompressor.isCompressed(head)) {
+			// compressed JTLs cannot be split, their members are decompressed in parallel instead
+			return null;
+		}
+		final boolean xml = jtlReader.isXml(new ByteArrayInputStream(head));
+
+		final byte[] chunkPrefix;
+		final long[] boundaries;
+		if (xml) {
+			if (!JtlReader.isUtf8(head)) {
+				return null;
+			}
+			chunkPrefix = ROOT_START;
+			boundaries = getXmlBoundaries(channel);
+		} else {
+			chunkPrefix = getCsvHeader(head);
+			if (chunkPrefix == null) {
+				return null;
+			}
+			boundaries = getCsvBoundaries(channel, chunkPrefix.length);
+		}
+
+		final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			final List<Future<SampleTable>> chunks = new ArrayList<Future<SampleTable>>();
+			final int numChunks = boundaries.length - 1;
+			for (int i = 0; i < numChunks; i++) {
+				final byte[] prefix = i == 0 ? NO_BYTES : chunkPrefix;
+				final byte[] suffix = xml && i < numChunks - 1 ? ROOT_END : NO_BYTES;
+				chunks.add(executor.submit(new ChunkReader(channel, boundaries[i], boundaries[i + 1], prefix, suffix, excludeRegExp, onlyIncludeSuccessful)));
+			}
+			final SampleTable samples = new SampleTable();
+			for (int i = 0; i < numChunks; i++) {
+				samples.append(chunks.get(i).get());
+				// release the chunk's table as soon as it is appended
+				chunks.set(i, null);
+			}
+			samples.trimToSize();
+			return samples;
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JtlReaderException(e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof JtlReaderException) {
+				System.err.println("The JTL could not be read in parallel, it is read by a single thread instead. " + e.getCause().getMessage());
+				return null;
+			}
+			throw new JtlReaderException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Returns the header line of a CSV JTL including its line break. The line is parsed like every other CSV JTL, so it is only a header if the
+	 * {@link JtlCsvParser} does not turn it into a sample.
+	 *
+	 * @return The header line, an empty array if the JTL has no header line or null if the first line cannot be determined.
+	 */
+	private byte[] getCsvHeader(final byte[] head) {
+		int lineEnd = 0;
+		while (lineEnd < head.length && head[lineEnd] != '\n') {
+			lineEnd++;
+		}
+		if (lineEnd == head.length) {
+			return null;
+		}
+		final byte[] firstLine = new byte[lineEnd + 1];
+		System.arraycopy(head, 0, firstLine, 0, firstLine.length);
+		if (new String(firstLine, UTF8).trim().length() == 0) {
+			return null;
+		}
+		final int[] numSamples = new int[1];
+		new JtlCsvParser(new SampleHandler() {
+			public void handleSample(final Sample sample) {
+				numSamples[0]++;
+			}
+		}).parse(ByteBuffer.wrap(firstLine), true);
+		return numSamples[0] == 0 ? firstLine : NO_BYTES;
+	}
+
+	private long[] getNominalBoundaries(final long size) {
+		final int numChunks = (int) Math.max(2, Math.min(numThreads * CHUNKS_PER_THREAD, size / MIN_CHUNK_SIZE));
+		final long[] boundaries = new long[numChunks + 1];
+		for (int i = 0; i <= numChunks; i++) {
+			boundaries[i] = (size * i) / numChunks;
+		}
+		return boundaries;
+	}
+
+	private long[] getXmlBoundaries(final FileChannel channel) throws IOException {
+		final long size = channel.size();
+		final long[] boundaries = getNominalBoundaries(size);
+		for (int i = 1; i < boundaries.length - 1; i++) {
+			boundaries[i] = findSampleStart(channel, Math.max(boundaries[i], boundaries[i - 1]), size);
+		}
+		return removeEmptyChunks(boundaries);
+	}
+
+	/**
+	 * @return The position of the first line starting with a sample tag at or after the given position or the size of the file.
+	 */
+	private long findSampleStart(final FileChannel channel, final long from, final long size) throws IOException {
+		// the line break may be the byte before the position
+		long offset = Math.max(0, from - 1);
+		while (offset < size) {
+			final byte[] buffer = read(channel, offset, BUFFER_SIZE);
+			for (int i = 0; i < buffer.length; i++) {
+				if (buffer[i] == '\n' && isSampleTag(buffer, i + 1)) {
+					return offset + i + 1;
+				}
+			}
+			if (buffer.length < BUFFER_SIZE) {
+				break;
+			}
+			// a tag may cross the end of the buffer
+			offset += buffer.length - SAMPLE_TAG_LOOKAHEAD;
+		}
+		return size;
+	}
+
+	private boolean isSampleTag(final byte[] buffer, final int start) {
+		for (final byte[] tag : SAMPLE_TAGS) {
+			if (start + tag.length < buffer.length) {
+				int i = 0;
+				while (i < tag.length && buffer[start + i] == tag[i]) {
+					i++;
+				}
+				final byte next = buffer[start + tag.length];
+				if (i == tag.length && (next == ' ' || next == '\t' || next == '\r' || next == '\n' || next == '/' || next == '>')) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Line breaks may be part of quoted fields. A position is within a quoted field if an odd number of quotes precedes it, escaped quotes count twice. The
+	 * quotes are counted in parallel before the ranges are re-synchronised.
+	 */
+	private long[] getCsvBoundaries(final FileChannel channel, final int headerLength) throws IOException {
+		final long size = channel.size();
+		final long[] boundaries = getNominalBoundaries(size);
+		final int numChunks = boundaries.length - 1;
+
+		final long[] numQuotes = new long[numChunks];
+		final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		try {
+			final List<Future<Long>> counts = new ArrayList<Future<Long>>();
+			for (int i = 0; i < numChunks; i++) {
+				final long start = boundaries[i];
+				final long end = boundaries[i + 1];
+				counts.add(executor.submit(new Callable<Long>() {
+					public Long call() throws IOException {
+						return Long.valueOf(countQuotes(channel, start, end));
+					}
+				}));
+			}
+			for (int i = 0; i < numChunks; i++) {
+				numQuotes[i] = counts.get(i).get().longValue();
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JtlReaderException(e);
+		} catch (final ExecutionException e) {
+			throw new JtlReaderException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		final long[] resyncedBoundaries = boundaries.clone();
+		long quotesBefore = 0;
+		for (int i = 1; i < numChunks; i++) {
+			quotesBefore += numQuotes[i - 1];
+			final long start = Math.max(Math.max(boundaries[i], resyncedBoundaries[i - 1]), headerLength);
+			// the quotes between the nominal boundary and the start of the scan have to be taken into account as well
+			final boolean inQuotes = ((quotesBefore + countQuotes(channel, boundaries[i], start)) & 1) == 1;
+			resyncedBoundaries[i] = findRecordStart(channel, start, size, inQuotes);
+		}
+		return removeEmptyChunks(resyncedBoundaries);
+	}
+
+	private long countQuotes(final FileChannel channel, final long start, final long end) throws IOException {
+		long numQuotes = 0;
+		for (long offset = start; offset < end; offset += BUFFER_SIZE) {
+			final byte[] buffer = read(channel, offset, (int) Math.min(BUFFER_SIZE, end - offset));
+			for (final byte b : buffer) {
+				if (b == QUOTE) numQuotes++;
+			}
+		}
+		return numQuotes;
+	}
+
+	/**
+	 * @return The position after the first line break outside of a quoted field at or after the given position or the size of the file.
+	 */
+	private long findRecordStart(final FileChannel channel, final long from, final long size, final boolean startsInQuotes) throws IOException {
+		boolean inQuotes = startsInQuotes;
+		for (long offset = from; offset < size; offset += BUFFER_SIZE) {
+			final byte[] buffer = read(channel, offset, BUFFER_SIZE);
+			for (int i = 0; i < buffer.length; i++) {
+				if (buffer[i] == QUOTE) {
+					inQuotes = !inQuotes;
+				} else if (buffer[i] == '\n' && !inQuotes) {
+					return offset + i + 1;
+				}
+			}
+		}
+		return size;
+	}
+
+	private long[] removeEmptyChunks(final long[] boundaries) {
+		final long[] distinctBoundaries = new long[boundaries.length];
+		int numBoundaries = 0;
+		for (final long boundary : boundaries) {
+			if (numBoundaries == 0 || boundary > distinctBoundaries[numBoundaries - 1]) {
+				distinctBoundaries[numBoundaries++] = boundary;
+			}
+		}
+		final long[] result = new long[numBoundaries];
+		System.arraycopy(distinctBoundaries, 0, result, 0, numBoundaries);
+		return result;
+	}
+
+	/**
+	 * Reads up to the given number of bytes at the given position. Positional reads do not change the channel's position, so they can be used by several
+	 * threads at once.
+	 */
+	private static byte[] read(final FileChannel channel, final long position, final int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				break;
+			}
+		}
+		if (buffer.hasRemaining()) {
+			final byte[] bytes = new byte[buffer.position()];
+			System.arraycopy(buffer.array(), 0, bytes, 0, bytes.length);
+			return bytes;
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * Parses the samples of one byte range of the JTL into a table of its own.
+	 */
+	private class ChunkReader implements Callable<SampleTable> {
+
+		private final FileChannel	channel;
+		private final long			start;
+		private final long			end;
+		private final byte[]		prefix;
+		private final byte[]		suffix;
+		private final String		excludeRegExp;
+		private final boolean		onlyIncludeSuccessful;
+
+		ChunkReader(final FileChannel channel, final long start, final long end, final byte[] prefix, final byte[] suffix, final String excludeRegExp,
+				final boolean onlyIncludeSuccessful) {
+			super();
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+			this.prefix = prefix;
+			this.suffix = suffix;
+			this.excludeRegExp = excludeRegExp;
+			this.onlyIncludeSuccessful = onlyIncludeSuccessful;
+		}
+
+		public SampleTable call() throws IOException {
+			if (memoryMapped) {
+				return readMapped();
+			}
+			final InputStream chunk = new SequenceInputStream(new ByteArrayInputStream(prefix), new SequenceInputStream(new FileRangeInputStream(channel,
+					start, end), new ByteArrayInputStream(suffix)));
+			final SampleTable samples = new SampleTable();
+			jtlReader.readSamples(new BufferedInputStream(chunk, BUFFER_SIZE), excludeRegExp, onlyIncludeSuccessful, samples.getAttributeDictionary(),
+					new SampleHandler() {
+						public void handleSample(final Sample sample) {
+							samples.add(sample);
+						}
+					});
+			samples.trimToSize();
+			return samples;
+		}
+
+		private SampleTable readMapped() throws IOException {
+			final SampleTable samples = new SampleTable();
+			final SampleHandler handler = new SampleHandler() {
+				public void handleSample(final Sample sample) {
+					samples.add(sample);
+				}
+			};
+			final JtlBufferParser parser = new MappedJtlReader().createParser(channel, handler, samples.getAttributeDictionary(), new SampleFilter(excludeRegExp,
+					onlyIncludeSuccessful));
+			if (prefix.length > 0) {
+				parser.parse(ByteBuffer.wrap(prefix), false);
+			}
+			MappedJtlReader.parse(channel, start, end, parser, suffix.length == 0);
+			if (suffix.length > 0) {
+				parser.parse(ByteBuffer.wrap(suffix), true);
+			}
+			samples.trimToSize();
+			return samples;
+		}
+	}
+
+	/**
+	 * Streams a byte range of a file using positional reads.
+	 */
+	private static class FileRangeInputStream extends InputStream {
+
+		private final FileChannel	channel;
+		private final long			end;
+		private long				position;
+
+		FileRangeInputStream(final FileChannel channel, final long start, final long end) {
+			super();
+			this.channel = channel;
+			this.position = start;
+			this.end = end;
+		}
+
+		@Override
+		public int read() throws IOException {
+			final byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			if (position >= end) {
+				return -1;
+			}
+			final int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+			if (read > 0) {
+				position += read;
+			}
+			return read;
+		}
+	}
+}
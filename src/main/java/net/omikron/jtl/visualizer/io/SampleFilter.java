@@ -0,0 +1,286 @@
+package net.omikron.jtl.visualizer.io;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import net.omikron.jtl.visualizer.sample.Sample;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Decides which samples of a JTL are included for analysis. The parsers test the success flag and the label of a sample before anything else of it is
+ * decoded, so excluded and unsuccessful samples are skipped without creating a {@link Sample} or looking up its attributes.
+ *
+ * <p>
+ * A label is excluded if the exclusion pattern is found anywhere in it. Every match of most patterns contains one of a few literals, e.g.
+ * <code>Tracking\.ff</code> can only match labels containing <code>Tracking.ff</code>. These literals are extracted from the pattern and searched for
+ * first, so the regular expression is only evaluated for the few labels containing one of them.
+ * </p>
+ */
+public class SampleFilter {
+
+	/** Filter which includes all samples */
+	public static final SampleFilter	ALL	= new SampleFilter(null, false);
+
+	private final Pattern				excludePattern;
+	/** Search for the literals required by the exclusion pattern, null if no literals could be extracted */
+	private final LiteralSearch			excludeLiterals;
+	private final boolean				onlyIncludeSuccessful;
+
+	/**
+	 * @param excludeRegExp Regular expression for URLs of samples which should be excluded, may be null.
+	 * @param onlyIncludeSuccessful If true unsuccessful samples will be skipped.
+	 */
+	public SampleFilter(final String excludeRegExp, final boolean onlyIncludeSuccessful) {
+		super();
+		if (StringUtils.isNotBlank(excludeRegExp)) {
+			this.excludePattern = Pattern.compile(excludeRegExp);
+			final List<String> literals = getRequiredLiterals(excludeRegExp);
+			this.excludeLiterals = literals == null ? null : new LiteralSearch(literals);
+		} else {
+			this.excludePattern = null;
+			this.excludeLiterals = null;
+		}
+		this.onlyIncludeSuccessful = onlyIncludeSuccessful;
+	}
+
+	/**
+	 * @return True if the filter tests the labels of the samples.
+	 */
+	public boolean isExcludingLabels() {
+		return excludePattern != null;
+	}
+
+	/**
+	 * @param success The success flag of a sample.
+	 * @return True if samples with the given success flag are included.
+	 */
+	public boolean includesSuccess(final boolean success) {
+		return success || !onlyIncludeSuccessful;
+	}
+
+	/**
+	 * Tests the URL decoded label against the exclusion pattern.
+	 *
+	 * @param label The label of a sample, may be null.
+	 * @return True if the label does NOT match the exclusion pattern.
+	 */
+	public boolean includesLabel(final String label) {
+		if (excludePattern == null || label == null) {
+			return true;
+		}
+		try {
+			// most labels do not contain escapes, decoding them would only copy them
+			final String url = label.indexOf('%') < 0 && label.indexOf('+') < 0 ? label : URLDecoder.decode(label, "UTF-8");
+			if (excludeLiterals != null && !excludeLiterals.containsAny(url)) {
+				return true;
+			}
+			return !excludePattern.matcher(url).find();
+		} catch (final UnsupportedEncodingException e) {
+			System.err
+					.println("WTF Error: Your system does not support UTF-8 encoding. The url cannot be decoded. Exclusion test cannot be performed. Sample will be included in the analysis. "
+							+ e.getMessage());
+			return true;
+		}
+	}
+
+	/**
+	 * Tests if a sample should be included for analysis. All samples that were successful requests and of which the URL does NOT match the exclude pattern will
+	 * be included.
+	 *
+	 * @param sample The sample to test.
+	 * @return True if the sample stems from a successful request and the URL does not match the exclusion pattern.
+	 */
+	public boolean includes(final Sample sample) {
+		return includesSuccess(sample.isSuccess()) && includesLabel(sample.getLabel());
+	}
+
+	/**
+	 * Extracts literals of which every match of the given regular expression contains at least one, i.e. the longest literal of every alternative or the
+	 * literals of a group within the alternative. The extraction is conservative, as soon as a construct is not understood no literals are returned.
+	 *
+	 * @param regExp The regular expression.
+	 * @return The required literals or null if the expression may match without containing a literal.
+	 */
+	static List<String> getRequiredLiterals(final String regExp) {
+		final List<String> literals = new ArrayList<String>();
+		StringBuilder run = new StringBuilder();
+		// the most selective literals required by the current alternative, i.e. the ones with the longest shortest literal
+		List<String> required = null;
+		int pos = 0;
+		while (pos <= regExp.length()) {
+			final char c = pos < regExp.length() ? regExp.charAt(pos) : '|';
+			if (c == '|') {
+				// end of an alternative
+				required = getMoreSelective(required, run);
+				if (required == null) {
+					return null;
+				}
+				literals.addAll(required);
+				run = new StringBuilder();
+				required = null;
+				pos++;
+				continue;
+			}
+			int next;
+			Character literal = null;
+			List<String> groupLiterals = null;
+			if (c == '\\') {
+				if (pos + 1 >= regExp.length()) {
+					return null;
+				}
+				final char escaped = regExp.charAt(pos + 1);
+				if (!Character.isLetterOrDigit(escaped)) {
+					literal = Character.valueOf(escaped);
+				} else if ("dDsSwWbBAGZz".indexOf(escaped) < 0) {
+					// quotes, back references, code points and properties
+					return null;
+				}
+				next = pos + 2;
+			} else if (c == '(') {
+				final boolean capturing = !regExp.startsWith("(?", pos);
+				final boolean nonCapturing = regExp.startsWith("(?:", pos);
+				if (!capturing && !nonCapturing && !regExp.startsWith("(?=", pos) && !regExp.startsWith("(?!", pos) && !regExp.startsWith("(?<=", pos)
+						&& !regExp.startsWith("(?<!", pos) && !regExp.startsWith("(?>", pos)) {
+					// flags like case insensitivity change the meaning of the literals
+					return null;
+				}
+				next = skipGroup(regExp, pos);
+				if (next >= 0 && (capturing || nonCapturing)) {
+					groupLiterals = getRequiredLiterals(regExp.substring(pos + (capturing ? 1 : 3), next - 1));
+				}
+			} else if (c == '[') {
+				next = skipClass(regExp, pos);
+			} else if (".^$)".indexOf(c) >= 0) {
+				next = pos + 1;
+			} else if (c == '?' || c == '*' || c == '+' || c == '{') {
+				// a quantifier not following a literal, e.g. of a group
+				next = skipQuantifier(regExp, pos);
+			} else {
+				literal = Character.valueOf(c);
+				next = pos + 1;
+			}
+			if (next < 0) {
+				return null;
+			}
+			final int quantifierEnd = skipQuantifier(regExp, next);
+			if (literal != null && quantifierEnd == next) {
+				run.append(literal.charValue());
+			} else {
+				// the run ends, a quantified literal or group may be missing or repeated
+				required = getMoreSelective(required, run);
+				run = new StringBuilder();
+				if (groupLiterals != null && quantifierEnd == next) {
+					required = getMoreSelective(required, groupLiterals);
+				}
+			}
+			pos = quantifierEnd;
+		}
+		return literals;
+	}
+
+	private static List<String> getMoreSelective(final List<String> required, final StringBuilder run) {
+		return run.length() == 0 ? required : getMoreSelective(required, Collections.singletonList(run.toString()));
+	}
+
+	private static List<String> getMoreSelective(final List<String> required, final List<String> candidates) {
+		return required == null || getShortestLength(candidates) > getShortestLength(required) ? candidates : required;
+	}
+
+	private static int getShortestLength(final List<String> literals) {
+		int shortest = Integer.MAX_VALUE;
+		for (final String literal : literals) {
+			shortest = Math.min(shortest, literal.length());
+		}
+		return shortest;
+	}
+
+	/**
+	 * @return The position after the group starting at the given position or -1 if the group is not closed.
+	 */
+	private static int skipGroup(final String regExp, final int start) {
+		int depth = 0;
+		int pos = start;
+		while (pos < regExp.length()) {
+			final char c = regExp.charAt(pos);
+			if (c == '\\') {
+				pos += 2;
+				continue;
+			}
+			if (c == '[') {
+				pos = skipClass(regExp, pos);
+				if (pos < 0) {
+					return -1;
+				}
+				continue;
+			}
+			if (c == '(') {
+				depth++;
+			} else if (c == ')' && --depth == 0) {
+				return pos + 1;
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The position after the character class starting at the given position or -1 if the class is not closed.
+	 */
+	private static int skipClass(final String regExp, final int start) {
+		int depth = 0;
+		int pos = start;
+		while (pos < regExp.length()) {
+			final char c = regExp.charAt(pos);
+			if (c == '\\') {
+				pos += 2;
+				continue;
+			}
+			if (c == '[') {
+				depth++;
+				// a closing bracket directly after the opening one or its negation is a member of the class
+				if (pos + 1 < regExp.length() && regExp.charAt(pos + 1) == '^') {
+					pos++;
+				}
+				if (pos + 1 < regExp.length() && regExp.charAt(pos + 1) == ']') {
+					pos++;
+				}
+			} else if (c == ']' && --depth == 0) {
+				return pos + 1;
+			}
+			pos++;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return The position after the quantifier starting at the given position, the position itself if there is no quantifier there.
+	 */
+	private static int skipQuantifier(final String regExp, final int start) {
+		int pos = start;
+		if (pos >= regExp.length()) {
+			return pos;
+		}
+		final char c = regExp.charAt(pos);
+		if (c == '?' || c == '*' || c == '+') {
+			pos++;
+		} else if (c == '{') {
+			final int end = regExp.indexOf('}', pos);
+			if (end < 0) {
+				return pos;
+			}
+			pos = end + 1;
+		} else {
+			return pos;
+		}
+		// lazy and possessive quantifiers
+		if (pos < regExp.length() && (regExp.charAt(pos) == '?' || regExp.charAt(pos) == '+')) {
+			pos++;
+		}
+		return pos;
+	}
+}
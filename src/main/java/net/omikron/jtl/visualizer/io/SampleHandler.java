@@ -0,0 +1,17 @@
+package net.omikron.jtl.visualizer.io;
+
+import net.omikron.jtl.visualizer.sample.Sample;
+
+/**
+ * Receives the samples of a JTL one at a time while the JTL is being read. Implementations decide which samples are retained, so streaming readers never need
+ * to hold more than the current sample in memory.
+ */
+public interface SampleHandler {
+
+	/**
+	 * Called once for every sample which passed the reader's filters, in the order the samples appear in the JTL.
+	 *
+	 * @param sample The sample read from the JTL.
+	 */
+	void handleSample(Sample sample);
+}
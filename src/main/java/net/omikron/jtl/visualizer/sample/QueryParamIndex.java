@@ -0,0 +1,122 @@
+package net.omikron.jtl.visualizer.sample;
+
+import java.net.URL;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * Index of the query parameters of the sample URLs in a {@link SampleTable}. The query string of every distinct label is split into its parameters once,
+ * parameter names and values are dictionary encoded. Looking up the parameters of a sample is then a matter of following the sample's label id, no string is
+ * split or created.
+ *
+ * <p>
+ * Only parameters of the form <code>name=value</code> with a non empty value are indexed, like <code>param.split("=")</code> yields them. Parameters occurring
+ * several times in a query are indexed in the order of their appearance.
+ * </p>
+ */
+public class QueryParamIndex {
+
+	private static final int[]		NO_PARAMS		= new int[0];
+
+	private final SampleTable		samples;
+
+	private final StringDictionary	nameDictionary	= new StringDictionary();
+	private final StringDictionary	valueDictionary	= new StringDictionary();
+
+	/** Alternating name and value ids of the query parameters, indexed by label id */
+	private final int[][]			params;
+	/** Labels with a non empty query, indexed by label id */
+	private final boolean[]			hasQuery;
+
+	/**
+	 * Builds the index for all samples of the given table. Later sorting the table does not invalidate the index.
+	 *
+	 * @param samples The samples to index.
+	 */
+	public QueryParamIndex(final SampleTable samples) {
+		super();
+		this.samples = samples;
+		final int numLabels = samples.getLabelDictionary().size();
+		params = new int[numLabels][];
+		hasQuery = new boolean[numLabels];
+		for (int labelId = 0; labelId < numLabels; labelId++) {
+			final URL url = samples.getLabelUrl(labelId);
+			final String urlQuery = url == null ? null : url.getQuery();
+			params[labelId] = NO_PARAMS;
+			if (StringUtils.isNotEmpty(urlQuery)) {
+				hasQuery[labelId] = true;
+				params[labelId] = indexQuery(urlQuery);
+			}
+		}
+	}
+
+	private int[] indexQuery(final String urlQuery) {
+		final String[] queryParams = urlQuery.split("&");
+		final int[] ids = new int[queryParams.length * 2];
+		int numIds = 0;
+		for (final String param : queryParams) {
+			final String[] keyValuePair = param.split("=");
+			if (keyValuePair.length >= 2) {
+				ids[numIds++] = nameDictionary.getId(keyValuePair[0]);
+				ids[numIds++] = valueDictionary.getId(keyValuePair[1]);
+			}
+		}
+		final int[] trimmedIds = new int[numIds];
+		System.arraycopy(ids, 0, trimmedIds, 0, numIds);
+		return trimmedIds;
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return True if the sample's URL has a non empty query.
+	 */
+	public boolean hasQuery(final int row) {
+		final int labelId = samples.getLabelId(row);
+		return labelId != StringDictionary.NULL_ID && hasQuery[labelId];
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The number of indexed query parameters of the sample.
+	 */
+	public int getNumParams(final int row) {
+		return getParams(row).length / 2;
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @param i The index of the parameter within the sample's query.
+	 * @return The dictionary id of the parameter's name.
+	 */
+	public int getNameId(final int row, final int i) {
+		return getParams(row)[2 * i];
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @param i The index of the parameter within the sample's query.
+	 * @return The dictionary id of the parameter's value.
+	 */
+	public int getValueId(final int row, final int i) {
+		return getParams(row)[2 * i + 1];
+	}
+
+	/**
+	 * @return The dictionary of the parameter names.
+	 */
+	public StringDictionary getNameDictionary() {
+		return nameDictionary;
+	}
+
+	/**
+	 * @return The dictionary of the parameter values.
+	 */
+	public StringDictionary getValueDictionary() {
+		return valueDictionary;
+	}
+
+	private int[] getParams(final int row) {
+		final int labelId = samples.getLabelId(row);
+		return labelId == StringDictionary.NULL_ID ? NO_PARAMS : params[labelId];
+	}
+}
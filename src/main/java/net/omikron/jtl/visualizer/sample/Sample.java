@@ -1,10 +1,14 @@
 package net.omikron.jtl.visualizer.sample;
 
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.net.URLDecoder;
 import java.util.Comparator;
 import java.util.Date;
 
+import javax.xml.stream.XMLStreamReader;
+
 import org.apache.commons.lang.StringUtils;
 import org.jdom.Element;
 import org.w3c.dom.Node;
@@ -24,20 +28,28 @@ public class Sample {
 	private static final String	CACHE_AGE			= "CACHEAGE";
 	private static final String	TIMEOUT				= "TIMEOUT";
 
+	/** The label, i.e. the requested URL as contained in the JTL */
+	private String				label;
+	/** The label parsed as URL, parsed on first access */
 	private URL					url;
+	/** The URL decoded label, decoded on first access */
+	private String				decodedLabel;
 
 	private boolean				success;
-	private String				responseCode;
-	private String				responseMessage;
+	private int					responseCodeId;
+	private int					responseMessageId;
 
 	private int					responseTime;
 	private Date				startOfRequest;
 
-	private String				threadName;
+	private int					threadNameId;
 
-	private String				dataType;
+	private int					dataTypeId;
 	private int					bytes;
 
+	/** Dictionary holding the values of the response code, response message, thread name and data type ids */
+	private StringDictionary	dictionary;
+
 	/** FACT-Finder specific custom variables */
 	private int					resultCount			= -1;
 	private int					cacheAge			= 0;
@@ -59,16 +71,58 @@ public class Sample {
 	 */
 	public Sample(final URL url, final boolean success, final String responseCode, final String responseMessage, final int responseTime,
 			final Date startOfRequest, final String threadName, final String dataType, final int bytes) {
-		super();
+		this(url, success, responseCode, responseMessage, responseTime, startOfRequest, threadName, dataType, bytes, new StringDictionary());
+	}
+
+	/**
+	 * Constructs a sample object from the given parameters. The string attributes are stored as ids of the given dictionary, samples read from the same JTL
+	 * should share one dictionary.
+	 * 
+	 * @param url
+	 * @param success
+	 * @param responseCode
+	 * @param responseMessage
+	 * @param responseTime
+	 * @param startOfRequest
+	 * @param threadName
+	 * @param dataType
+	 * @param bytes
+	 * @param dictionary The dictionary used to encode the string attributes.
+	 */
+	public Sample(final URL url, final boolean success, final String responseCode, final String responseMessage, final int responseTime,
+			final Date startOfRequest, final String threadName, final String dataType, final int bytes, final StringDictionary dictionary) {
+		this(url == null ? null : url.toString(), success, dictionary.getId(responseCode), dictionary.getId(responseMessage), responseTime, startOfRequest, dictionary.getId(threadName),
+				dictionary.getId(dataType), bytes, dictionary);
 		this.url = url;
+	}
+
+	/**
+	 * Constructs a sample object from already encoded string attributes.
+	 * 
+	 * @param label
+	 * @param success
+	 * @param responseCodeId
+	 * @param responseMessageId
+	 * @param responseTime
+	 * @param startOfRequest
+	 * @param threadNameId
+	 * @param dataTypeId
+	 * @param bytes
+	 * @param dictionary The dictionary the ids belong to.
+	 */
+	Sample(final String label, final boolean success, final int responseCodeId, final int responseMessageId, final int responseTime, final Date startOfRequest,
+			final int threadNameId, final int dataTypeId, final int bytes, final StringDictionary dictionary) {
+		super();
+		this.label = label;
 		this.success = success;
-		this.responseCode = responseCode;
-		this.responseMessage = responseMessage;
+		this.responseCodeId = responseCodeId;
+		this.responseMessageId = responseMessageId;
 		this.responseTime = responseTime;
 		this.startOfRequest = startOfRequest;
-		this.threadName = threadName;
-		this.dataType = dataType;
+		this.threadNameId = threadNameId;
+		this.dataTypeId = dataTypeId;
 		this.bytes = bytes;
+		this.dictionary = dictionary;
 	}
 
 	/**
@@ -84,11 +138,31 @@ public class Sample {
 	 * @param threadName
 	 * @param dataType
 	 * @param bytes
-	 * @throws MalformedURLException
 	 */
 	public Sample(final String url, final boolean success, final String responseCode, final String responseMessage, final int responseTime,
-			final long startOfRequest, final String threadName, final String dataType, final int bytes) throws MalformedURLException {
-		this(new URL(url), success, responseCode, responseMessage, responseTime, new Date(startOfRequest), threadName, dataType, bytes);
+			final long startOfRequest, final String threadName, final String dataType, final int bytes) {
+		this(url, success, responseCode, responseMessage, responseTime, startOfRequest, threadName, dataType, bytes, new StringDictionary());
+	}
+
+	/**
+	 * Constructs a sample object from the given parameters. The string attributes are stored as ids of the given dictionary. The label is kept as it is and
+	 * only parsed into a URL by {@link #getUrl()}.
+	 * 
+	 * @param url
+	 * @param success
+	 * @param responseCode
+	 * @param responseMessage
+	 * @param responseTime
+	 * @param startOfRequest
+	 * @param threadName
+	 * @param dataType
+	 * @param bytes
+	 * @param dictionary The dictionary used to encode the string attributes.
+	 */
+	public Sample(final String url, final boolean success, final String responseCode, final String responseMessage, final int responseTime,
+			final long startOfRequest, final String threadName, final String dataType, final int bytes, final StringDictionary dictionary) {
+		this(url, success, dictionary.getId(responseCode), dictionary.getId(responseMessage), responseTime, new Date(startOfRequest), dictionary
+				.getId(threadName), dictionary.getId(dataType), bytes, dictionary);
 	}
 
 	/**
@@ -103,9 +177,8 @@ public class Sample {
 	 * </code>
 	 * 
 	 * @param sampleElement The XML JDom Element.
-	 * @throws MalformedURLException Thrown in case the label attribute "lb" does not contain a valid URL.
 	 */
-	public Sample(final Element sampleElement) throws MalformedURLException {
+	public Sample(final Element sampleElement) {
 		this(sampleElement.getAttributeValue(LABEL), /**/
 		Boolean.parseBoolean(sampleElement.getAttributeValue(SUCCESS)), /**/
 		sampleElement.getAttributeValue(RESPONSE_CODE), /**/
@@ -149,9 +222,19 @@ public class Sample {
 	 * </code>
 	 * 
 	 * @param sampleNode The XML JDom Element.
-	 * @throws MalformedURLException Thrown in case the label attribute "lb" does not contain a valid URL.
 	 */
-	public Sample(final Node sampleNode) throws MalformedURLException {
+	public Sample(final Node sampleNode) {
+		this(sampleNode, new StringDictionary());
+	}
+
+	/**
+	 * Constructs a sample object by parsing the provided XML DOM node, see {@link #Sample(Node)}. The string attributes are stored as ids of the given
+	 * dictionary.
+	 * 
+	 * @param sampleNode The XML DOM node.
+	 * @param dictionary The dictionary used to encode the string attributes.
+	 */
+	public Sample(final Node sampleNode, final StringDictionary dictionary) {
 		this(sampleNode.getAttributes().getNamedItem(LABEL).getNodeValue(), /**/
 		Boolean.parseBoolean(sampleNode.getAttributes().getNamedItem(SUCCESS).getNodeValue()), /**/
 		sampleNode.getAttributes().getNamedItem(RESPONSE_CODE).getNodeValue(), /**/
@@ -160,7 +243,8 @@ public class Sample {
 		Long.parseLong(sampleNode.getAttributes().getNamedItem(TIMESTAMP).getNodeValue()), /**/
 		sampleNode.getAttributes().getNamedItem(THREAD_NAME).getNodeValue(), /**/
 		sampleNode.getAttributes().getNamedItem(DATA_TYPE).getNodeValue(), /**/
-		Integer.parseInt(sampleNode.getAttributes().getNamedItem(BYTES).getNodeValue()));
+		Integer.parseInt(sampleNode.getAttributes().getNamedItem(BYTES).getNodeValue()), /**/
+		dictionary);
 		Node namedItem = sampleNode.getAttributes().getNamedItem(RESULT_COUNT);
 		if (namedItem != null && StringUtils.isNotEmpty(namedItem.getNodeValue())) {
 			if (namedItem.getNodeValue().equals("leider keine")) {
@@ -188,9 +272,96 @@ public class Sample {
 	}
 
 	/**
-	 * @return The url.
+	 * Constructs a sample object from the attributes of the start element the given StAX reader is currently positioned on. The reader is not advanced.
+	 * 
+	 * <p>
+	 * Expects the same attributes as {@link #Sample(Node)}.
+	 * </p>
+	 * 
+	 * @param sampleReader The StAX reader positioned on a sample start element.
+	 */
+	public Sample(final XMLStreamReader sampleReader) {
+		this(sampleReader, new StringDictionary());
+	}
+
+	/**
+	 * Constructs a sample object from the start element the given StAX reader is currently positioned on, see {@link #Sample(XMLStreamReader)}. The string
+	 * attributes are stored as ids of the given dictionary.
+	 * 
+	 * @param sampleReader The StAX reader positioned on a sample start element.
+	 * @param dictionary The dictionary used to encode the string attributes.
+	 */
+	public Sample(final XMLStreamReader sampleReader, final StringDictionary dictionary) {
+		this(sampleReader.getAttributeValue(null, LABEL), /**/
+		Boolean.parseBoolean(sampleReader.getAttributeValue(null, SUCCESS)), /**/
+		sampleReader.getAttributeValue(null, RESPONSE_CODE), /**/
+		sampleReader.getAttributeValue(null, RESPONSE_MESSAGE), /**/
+		Integer.parseInt(sampleReader.getAttributeValue(null, ELAPSED_TIME)), /**/
+		Long.parseLong(sampleReader.getAttributeValue(null, TIMESTAMP)), /**/
+		sampleReader.getAttributeValue(null, THREAD_NAME), /**/
+		sampleReader.getAttributeValue(null, DATA_TYPE), /**/
+		Integer.parseInt(sampleReader.getAttributeValue(null, BYTES)), /**/
+		dictionary);
+		final String resultCountString = sampleReader.getAttributeValue(null, RESULT_COUNT);
+		if (StringUtils.isNotEmpty(resultCountString)) {
+			if (resultCountString.equals("leider keine")) {
+				this.resultCount = 0;
+			} else {
+				try {
+					this.resultCount = Integer.parseInt(resultCountString);
+				} catch (final NumberFormatException e) {
+					// do nothing...do not set result count
+				}
+			}
+		}
+		final String cacheAgeString = sampleReader.getAttributeValue(null, CACHE_AGE);
+		if (StringUtils.isNotEmpty(cacheAgeString)) {
+			try {
+				this.cacheAge = Integer.parseInt(cacheAgeString);
+			} catch (final NumberFormatException e) {
+				// do nothing...do not set cache age
+			}
+		}
+		final String timeoutString = sampleReader.getAttributeValue(null, TIMEOUT);
+		if (StringUtils.isNotEmpty(timeoutString)) {
+			this.timeOut = Boolean.parseBoolean(timeoutString);
+		}
+	}
+
+	/**
+	 * @return The label, i.e. the requested URL as contained in the JTL.
+	 */
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * Returns the URL decoded label. The label is decoded on the first call only.
+	 * 
+	 * @return The decoded label.
+	 * @throws UnsupportedEncodingException
+	 */
+	public String getDecodedLabel() throws UnsupportedEncodingException {
+		if (decodedLabel == null && label != null) {
+			decodedLabel = URLDecoder.decode(label, "UTF-8");
+		}
+		return decodedLabel;
+	}
+
+	/**
+	 * Returns the label parsed as URL. The label is parsed on the first call only, samples whose URL is never needed do not pay for parsing it.
+	 * 
+	 * @return The url or null if the label is not a valid URL.
 	 */
 	public URL getUrl() {
+		if (url == null && label != null) {
+			try {
+				url = new URL(label);
+			} catch (final MalformedURLException e) {
+				// not every label is a URL, e.g. transaction controllers
+				return null;
+			}
+		}
 		return url;
 	}
 
@@ -199,14 +370,17 @@ public class Sample {
 	 */
 	public void setUrl(final URL url) {
 		this.url = url;
+		this.label = url == null ? null : url.toString();
+		this.decodedLabel = null;
 	}
 
 	/**
 	 * @param url The url to set.
-	 * @throws MalformedURLException
 	 */
-	public void setUrl(final String url) throws MalformedURLException {
-		this.url = new URL(url);
+	public void setUrl(final String url) {
+		this.label = url;
+		this.url = null;
+		this.decodedLabel = null;
 	}
 
 	/**
@@ -227,28 +401,42 @@ public class Sample {
 	 * @return The responseCode.
 	 */
 	public String getResponseCode() {
-		return responseCode;
+		return dictionary.getValue(responseCodeId);
+	}
+
+	/**
+	 * @return The dictionary id of the responseCode.
+	 */
+	public int getResponseCodeId() {
+		return responseCodeId;
 	}
 
 	/**
 	 * @param responseCode The responseCode to set.
 	 */
 	public void setResponseCode(final String responseCode) {
-		this.responseCode = responseCode;
+		this.responseCodeId = dictionary.getId(responseCode);
 	}
 
 	/**
 	 * @return The responseMessage.
 	 */
 	public String getResponseMessage() {
-		return responseMessage;
+		return dictionary.getValue(responseMessageId);
+	}
+
+	/**
+	 * @return The dictionary id of the responseMessage.
+	 */
+	public int getResponseMessageId() {
+		return responseMessageId;
 	}
 
 	/**
 	 * @param responseMessage The responseMessage to set.
 	 */
 	public void setResponseMessage(final String responseMessage) {
-		this.responseMessage = responseMessage;
+		this.responseMessageId = dictionary.getId(responseMessage);
 	}
 
 	/**
@@ -290,28 +478,42 @@ public class Sample {
 	 * @return The threadName.
 	 */
 	public String getThreadName() {
-		return threadName;
+		return dictionary.getValue(threadNameId);
+	}
+
+	/**
+	 * @return The dictionary id of the threadName.
+	 */
+	public int getThreadNameId() {
+		return threadNameId;
 	}
 
 	/**
 	 * @param threadName The threadName to set.
 	 */
 	public void setThreadName(final String threadName) {
-		this.threadName = threadName;
+		this.threadNameId = dictionary.getId(threadName);
 	}
 
 	/**
 	 * @return The dataType.
 	 */
 	public String getDataType() {
-		return dataType;
+		return dictionary.getValue(dataTypeId);
+	}
+
+	/**
+	 * @return The dictionary id of the dataType.
+	 */
+	public int getDataTypeId() {
+		return dataTypeId;
 	}
 
 	/**
 	 * @param dataType The dataType to set.
 	 */
 	public void setDataType(final String dataType) {
-		this.dataType = dataType;
+		this.dataTypeId = dictionary.getId(dataType);
 	}
 
 	/**
@@ -370,22 +572,33 @@ public class Sample {
 		this.timeOut = timeOut;
 	}
 
+	/**
+	 * @return The dictionary of the response code, response message, thread name and data type ids.
+	 */
+	public StringDictionary getDictionary() {
+		return dictionary;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + bytes;
-		result = prime * result + ((dataType == null) ? 0 : dataType.hashCode());
-		result = prime * result + ((responseCode == null) ? 0 : responseCode.hashCode());
-		result = prime * result + ((responseMessage == null) ? 0 : responseMessage.hashCode());
+		result = prime * result + hashCode(getDataType());
+		result = prime * result + hashCode(getResponseCode());
+		result = prime * result + hashCode(getResponseMessage());
 		result = prime * result + responseTime;
 		result = prime * result + ((startOfRequest == null) ? 0 : startOfRequest.hashCode());
 		result = prime * result + (success ? 1231 : 1237);
-		result = prime * result + ((threadName == null) ? 0 : threadName.hashCode());
-		result = prime * result + ((url == null) ? 0 : url.hashCode());
+		result = prime * result + hashCode(getThreadName());
+		result = prime * result + hashCode(label);
 		return result;
 	}
 
+	private static int hashCode(final String value) {
+		return value == null ? 0 : value.hashCode();
+	}
+
 	@Override
 	public boolean equals(final Object obj) {
 		if (this == obj) return true;
@@ -393,33 +606,32 @@ public class Sample {
 		if (getClass() != obj.getClass()) return false;
 		final Sample other = (Sample) obj;
 		if (bytes != other.bytes) return false;
-		if (dataType == null) {
-			if (other.dataType != null) return false;
-		} else if (!dataType.equals(other.dataType)) return false;
-		if (responseCode == null) {
-			if (other.responseCode != null) return false;
-		} else if (!responseCode.equals(other.responseCode)) return false;
-		if (responseMessage == null) {
-			if (other.responseMessage != null) return false;
-		} else if (!responseMessage.equals(other.responseMessage)) return false;
 		if (responseTime != other.responseTime) return false;
+		if (success != other.success) return false;
+		if (dictionary == other.dictionary) {
+			// ids of the same dictionary are equal iff the values are equal
+			if (dataTypeId != other.dataTypeId) return false;
+			if (responseCodeId != other.responseCodeId) return false;
+			if (responseMessageId != other.responseMessageId) return false;
+			if (threadNameId != other.threadNameId) return false;
+		} else {
+			if (!StringUtils.equals(getDataType(), other.getDataType())) return false;
+			if (!StringUtils.equals(getResponseCode(), other.getResponseCode())) return false;
+			if (!StringUtils.equals(getResponseMessage(), other.getResponseMessage())) return false;
+			if (!StringUtils.equals(getThreadName(), other.getThreadName())) return false;
+		}
 		if (startOfRequest == null) {
 			if (other.startOfRequest != null) return false;
 		} else if (!startOfRequest.equals(other.startOfRequest)) return false;
-		if (success != other.success) return false;
-		if (threadName == null) {
-			if (other.threadName != null) return false;
-		} else if (!threadName.equals(other.threadName)) return false;
-		if (url == null) {
-			if (other.url != null) return false;
-		} else if (!url.equals(other.url)) return false;
+		if (!StringUtils.equals(label, other.label)) return false;
 		return true;
 	}
 
 	@Override
 	public String toString() {
-		return "Sample [url=" + url + ", success=" + success + ", responseCode=" + responseCode + ", responseMessage=" + responseMessage + ", responseTime="
-				+ responseTime + ", startOfRequest=" + startOfRequest + ", threadName=" + threadName + ", dataType=" + dataType + ", bytes=" + bytes + "]";
+		return "Sample [url=" + label + ", success=" + success + ", responseCode=" + getResponseCode() + ", responseMessage=" + getResponseMessage()
+				+ ", responseTime=" + responseTime + ", startOfRequest=" + startOfRequest + ", threadName=" + getThreadName() + ", dataType=" + getDataType()
+				+ ", bytes=" + bytes + "]";
 	}
 
 	public static final Comparator<Sample>	ORDER_BY_START_TIME_ASC		= new Comparator<Sample>() {
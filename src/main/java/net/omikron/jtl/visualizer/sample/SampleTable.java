@@ -0,0 +1,810 @@
+package net.omikron.jtl.visualizer.sample;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Column oriented storage of samples. Each sample attribute is kept in a primitive array, repeated string attributes are dictionary encoded. Compared to a
+ * list of {@link Sample} objects this needs a fraction of the heap and allows cache friendly scans over single attributes.
+ *
+ * <p>
+ * The table implements {@link java.util.List} for convenience. {@link #get(int)} creates a {@link Sample} view of a row on every call, so performance
+ * critical code should use the column accessors like {@link #getResponseTime(int)} instead. The table cannot be modified except by appending samples.
+ * </p>
+ */
+public class SampleTable extends AbstractList<Sample> {
+
+	private static final int		INITIAL_CAPACITY	= 1024;
+
+	private static final int		COLUMNS_MAGIC		= 0x4A544C43;
+	private static final int		COLUMNS_VERSION		= 1;
+	/** Columns are written through a buffer of this size */
+	private static final int		WRITE_BUFFER_SIZE	= 1024 * 1024;
+	/** Bytes written per row for the int columns and the timestamps, the bit columns come on top */
+	private static final int		BYTES_PER_ROW		= 9 * 4 + 8;
+	private static final Charset	UTF8				= Charset.forName("UTF-8");
+
+	private int						size				= 0;
+
+	private int[]					responseTimes;
+	private long[]					timestamps;
+	private int[]					bytes;
+	private final BitSet			success				= new BitSet();
+
+	private int[]					labels;
+	private int[]					threadNames;
+	private int[]					responseCodes;
+	private int[]					responseMessages;
+	private int[]					dataTypes;
+
+	/** FACT-Finder specific custom variables */
+	private int[]					resultCounts;
+	private int[]					cacheAges;
+	private final BitSet			timeOuts			= new BitSet();
+
+	private final StringDictionary	labelDictionary		= new StringDictionary();
+	private final StringDictionary	attributeDictionary	= new StringDictionary();
+
+	/** URLs parsed from the labels, indexed by label id */
+	private transient URL[]			urls				= new URL[0];
+	/** Ids of the labels which are no valid URLs, so they are not parsed again */
+	private transient BitSet		invalidUrls			= new BitSet();
+
+	/**
+	 * Constructs an empty table.
+	 */
+	public SampleTable() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * Constructs an empty table with the given initial capacity.
+	 *
+	 * @param initialCapacity The number of samples which can be added before the columns have to grow.
+	 */
+	public SampleTable(final int initialCapacity) {
+		super();
+		final int capacity = Math.max(1, initialCapacity);
+		responseTimes = new int[capacity];
+		timestamps = new long[capacity];
+		bytes = new int[capacity];
+		labels = new int[capacity];
+		threadNames = new int[capacity];
+		responseCodes = new int[capacity];
+		responseMessages = new int[capacity];
+		dataTypes = new int[capacity];
+		resultCounts = new int[capacity];
+		cacheAges = new int[capacity];
+	}
+
+	/**
+	 * Constructs a table holding the given samples.
+	 *
+	 * @param samples The samples to add.
+	 */
+	public SampleTable(final Collection<Sample> samples) {
+		this(samples.size());
+		addAll(samples);
+	}
+
+	/**
+	 * Appends the given sample as a new row.
+	 *
+	 * @param sample The sample to append.
+	 * @return Always true.
+	 */
+	@Override
+	public boolean add(final Sample sample) {
+		ensureCapacity(size + 1);
+		final int row = size;
+		responseTimes[row] = sample.getResponseTime();
+		timestamps[row] = sample.getStartOfRequest().getTime();
+		bytes[row] = sample.getBytes();
+		success.set(row, sample.isSuccess());
+		labels[row] = labelDictionary.getId(sample.getLabel());
+		if (sample.getDictionary() == attributeDictionary) {
+			// samples read into this table already carry ids of the attribute dictionary
+			threadNames[row] = sample.getThreadNameId();
+			responseCodes[row] = sample.getResponseCodeId();
+			responseMessages[row] = sample.getResponseMessageId();
+			dataTypes[row] = sample.getDataTypeId();
+		} else {
+			threadNames[row] = attributeDictionary.getId(sample.getThreadName());
+			responseCodes[row] = attributeDictionary.getId(sample.getResponseCode());
+			responseMessages[row] = attributeDictionary.getId(sample.getResponseMessage());
+			dataTypes[row] = attributeDictionary.getId(sample.getDataType());
+		}
+		resultCounts[row] = sample.getResultCount();
+		cacheAges[row] = sample.getCacheAge();
+		timeOuts.set(row, sample.isTimeOut());
+		size++;
+		modCount++;
+		return true;
+	}
+
+	/**
+	 * Appends all rows of the other table. The ids of the other table's dictionaries are translated once per distinct value, so appending tables which were
+	 * read from consecutive parts of a JTL yields the same ids as reading the whole JTL into one table.
+	 *
+	 * @param other The table whose rows are appended, it is not modified.
+	 */
+	public void append(final SampleTable other) {
+		final int otherSize = other.size;
+		ensureCapacity(size + otherSize);
+		System.arraycopy(other.responseTimes, 0, responseTimes, size, otherSize);
+		System.arraycopy(other.timestamps, 0, timestamps, size, otherSize);
+		System.arraycopy(other.bytes, 0, bytes, size, otherSize);
+		System.arraycopy(other.resultCounts, 0, resultCounts, size, otherSize);
+		System.arraycopy(other.cacheAges, 0, cacheAges, size, otherSize);
+
+		final int[] labelIds = translateIds(other.labelDictionary, labelDictionary);
+		final int[] attributeIds = translateIds(other.attributeDictionary, attributeDictionary);
+		for (int i = 0; i < otherSize; i++) {
+			final int row = size + i;
+			success.set(row, other.success.get(i));
+			timeOuts.set(row, other.timeOuts.get(i));
+			labels[row] = translateId(labelIds, other.labels[i]);
+			threadNames[row] = translateId(attributeIds, other.threadNames[i]);
+			responseCodes[row] = translateId(attributeIds, other.responseCodes[i]);
+			responseMessages[row] = translateId(attributeIds, other.responseMessages[i]);
+			dataTypes[row] = translateId(attributeIds, other.dataTypes[i]);
+		}
+		size += otherSize;
+		modCount++;
+	}
+
+	/**
+	 * Merges the given tables into one table ordered by timestamp, e.g. the tables of the JTLs of several load generators. The next rows of all tables are kept
+	 * in a heap (k-way merge), so rows with equal timestamps keep the order of the tables. JMeter writes samples when they end, so the rows of a table are
+	 * sorted by their timestamp first if they are not in order already.
+	 *
+	 * @param tables The tables to merge, they are not modified.
+	 * @return The merged table.
+	 */
+	public static SampleTable mergeByTimestamp(final List<SampleTable> tables) {
+		int mergedSize = 0;
+		for (final SampleTable table : tables) {
+			mergedSize += table.size;
+		}
+		final SampleTable merged = new SampleTable(mergedSize);
+		final int numTables = tables.size();
+		// the rows of table i are appended from starts[i] to starts[i + 1]
+		final int[] starts = new int[numTables + 1];
+		for (int i = 0; i < numTables; i++) {
+			starts[i] = merged.size;
+			merged.append(tables.get(i));
+		}
+		starts[numTables] = merged.size;
+
+		final int[] rows = new int[mergedSize];
+		for (int row = 0; row < mergedSize; row++) {
+			rows[row] = row;
+		}
+		for (int i = 0; i < numTables; i++) {
+			if (!merged.isSortedByTimestamp(starts[i], starts[i + 1])) {
+				merged.sortByTimestamp(rows, starts[i], starts[i + 1], new int[starts[i + 1] - starts[i]]);
+			}
+		}
+
+		// next[i] is the index in rows of the next row of table i
+		final int[] next = Arrays.copyOf(starts, numTables);
+		final int[] heap = new int[numTables];
+		int heapSize = 0;
+		for (int i = 0; i < numTables; i++) {
+			if (next[i] < starts[i + 1]) {
+				heap[heapSize++] = i;
+			}
+		}
+		for (int i = heapSize / 2 - 1; i >= 0; i--) {
+			merged.siftDown(heap, heapSize, i, rows, next);
+		}
+		final int[] order = new int[mergedSize];
+		for (int i = 0; i < mergedSize; i++) {
+			final int table = heap[0];
+			order[i] = rows[next[table]++];
+			if (next[table] == starts[table + 1]) {
+				heap[0] = heap[--heapSize];
+			}
+			merged.siftDown(heap, heapSize, 0, rows, next);
+		}
+		merged.permute(order);
+		return merged;
+	}
+
+	private boolean isSortedByTimestamp(final int from, final int to) {
+		for (int row = from + 1; row < to; row++) {
+			if (timestamps[row] < timestamps[row - 1]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Sorts the given range of rows by their timestamp (stable merge sort).
+	 */
+	private void sortByTimestamp(final int[] rows, final int from, final int to, final int[] buffer) {
+		if (to - from < 2) {
+			return;
+		}
+		final int middle = (from + to) >>> 1;
+		sortByTimestamp(rows, from, middle, buffer);
+		sortByTimestamp(rows, middle, to, buffer);
+		if (timestamps[rows[middle - 1]] <= timestamps[rows[middle]]) {
+			return;
+		}
+		System.arraycopy(rows, from, buffer, 0, middle - from);
+		int left = 0;
+		int right = middle;
+		int target = from;
+		while (left < middle - from && right < to) {
+			rows[target++] = timestamps[rows[right]] < timestamps[buffer[left]] ? rows[right++] : buffer[left++];
+		}
+		System.arraycopy(buffer, left, rows, target, middle - from - left);
+	}
+
+	/**
+	 * Restores the heap property below the given heap index. Tables are ordered by the timestamp of their next row and by their index.
+	 */
+	private void siftDown(final int[] heap, final int heapSize, final int index, final int[] rows, final int[] next) {
+		int parent = index;
+		while (true) {
+			final int left = 2 * parent + 1;
+			if (left >= heapSize) {
+				return;
+			}
+			int child = left;
+			if (left + 1 < heapSize && isBefore(heap[left + 1], heap[left], rows, next)) {
+				child = left + 1;
+			}
+			if (!isBefore(heap[child], heap[parent], rows, next)) {
+				return;
+			}
+			final int swap = heap[parent];
+			heap[parent] = heap[child];
+			heap[child] = swap;
+			parent = child;
+		}
+	}
+
+	private boolean isBefore(final int table, final int otherTable, final int[] rows, final int[] next) {
+		final long timestamp = timestamps[rows[next[table]]];
+		final long otherTimestamp = timestamps[rows[next[otherTable]]];
+		return timestamp < otherTimestamp || (timestamp == otherTimestamp && table < otherTable);
+	}
+
+	/**
+	 * Creates a table of the given rows. The dictionaries of the new table only contain the values of these rows in the order of their first occurrence, so
+	 * the table is identical to one the selected samples were added to.
+	 *
+	 * @param rows The rows to select.
+	 * @return The new table.
+	 */
+	public SampleTable select(final BitSet rows) {
+		final SampleTable selected = new SampleTable(rows.cardinality());
+		final int[] labelIds = newIdTranslation(labelDictionary);
+		final int[] attributeIds = newIdTranslation(attributeDictionary);
+		for (int row = rows.nextSetBit(0); row >= 0 && row < size; row = rows.nextSetBit(row + 1)) {
+			final int target = selected.size;
+			selected.responseTimes[target] = responseTimes[row];
+			selected.timestamps[target] = timestamps[row];
+			selected.bytes[target] = bytes[row];
+			selected.success.set(target, success.get(row));
+			selected.labels[target] = translateId(labelIds, labelDictionary, labels[row], selected.labelDictionary);
+			selected.threadNames[target] = translateId(attributeIds, attributeDictionary, threadNames[row], selected.attributeDictionary);
+			selected.responseCodes[target] = translateId(attributeIds, attributeDictionary, responseCodes[row], selected.attributeDictionary);
+			selected.responseMessages[target] = translateId(attributeIds, attributeDictionary, responseMessages[row], selected.attributeDictionary);
+			selected.dataTypes[target] = translateId(attributeIds, attributeDictionary, dataTypes[row], selected.attributeDictionary);
+			selected.resultCounts[target] = resultCounts[row];
+			selected.cacheAges[target] = cacheAges[row];
+			selected.timeOuts.set(target, timeOuts.get(row));
+			selected.size++;
+		}
+		selected.trimToSize();
+		return selected;
+	}
+
+	private static int[] newIdTranslation(final StringDictionary from) {
+		final int[] ids = new int[from.size()];
+		Arrays.fill(ids, StringDictionary.NULL_ID);
+		return ids;
+	}
+
+	/**
+	 * Translates an id into the target dictionary, the value is added to the target dictionary on its first occurrence. The values of the source dictionary
+	 * are distinct, so they need not be looked up in the target dictionary.
+	 */
+	private static int translateId(final int[] ids, final StringDictionary from, final int id, final StringDictionary to) {
+		if (id == StringDictionary.NULL_ID) {
+			return id;
+		}
+		if (ids[id] == StringDictionary.NULL_ID) {
+			ids[id] = to.addDistinct(from.getValue(id));
+		}
+		return ids[id];
+	}
+
+	private static int[] translateIds(final StringDictionary from, final StringDictionary to) {
+		final int[] ids = new int[from.size()];
+		for (int id = 0; id < ids.length; id++) {
+			ids[id] = to.getId(from.getValue(id));
+		}
+		return ids;
+	}
+
+	private static int translateId(final int[] ids, final int id) {
+		return id == StringDictionary.NULL_ID ? id : ids[id];
+	}
+
+	/**
+	 * Creates a {@link Sample} view of the given row. The returned sample is a copy, changes to it are not reflected in the table.
+	 *
+	 * @param row The row of the sample.
+	 * @return The sample.
+	 */
+	@Override
+	public Sample get(final int row) {
+		checkRow(row);
+		final Sample sample = new Sample(getLabel(row), isSuccess(row), responseCodes[row], responseMessages[row], responseTimes[row], new Date(timestamps[row]),
+				threadNames[row], dataTypes[row], bytes[row], attributeDictionary);
+		sample.setResultCount(resultCounts[row]);
+		sample.setCacheAge(cacheAges[row]);
+		sample.setTimeOut(timeOuts.get(row));
+		return sample;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The response time of the sample in ms.
+	 */
+	public int getResponseTime(final int row) {
+		checkRow(row);
+		return responseTimes[row];
+	}
+
+	/**
+	 * @return A copy of the response time column.
+	 */
+	public int[] getResponseTimes() {
+		return Arrays.copyOf(responseTimes, size);
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The start of the request as milliseconds since the epoch.
+	 */
+	public long getTimestamp(final int row) {
+		checkRow(row);
+		return timestamps[row];
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The number of bytes received.
+	 */
+	public int getBytes(final int row) {
+		checkRow(row);
+		return bytes[row];
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return True if the request was successful.
+	 */
+	public boolean isSuccess(final int row) {
+		checkRow(row);
+		return success.get(row);
+	}
+
+	/**
+	 * @return The number of successful samples.
+	 */
+	public int getNumSuccessful() {
+		return success.cardinality();
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The dictionary id of the sample's label.
+	 */
+	public int getLabelId(final int row) {
+		checkRow(row);
+		return labels[row];
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The label, i.e. the requested URL as contained in the JTL.
+	 */
+	public String getLabel(final int row) {
+		return labelDictionary.getValue(getLabelId(row));
+	}
+
+	/**
+	 * Returns the URL of the given row. URLs are only parsed once per distinct label.
+	 *
+	 * @param row The row of the sample.
+	 * @return The URL or null if the label is not a valid URL.
+	 */
+	public URL getUrl(final int row) {
+		return getLabelUrl(getLabelId(row));
+	}
+
+	/**
+	 * Returns the URL of the label with the given id. URLs are only parsed once per distinct label.
+	 *
+	 * @param labelId The dictionary id of the label.
+	 * @return The URL or null if the label is not a valid URL.
+	 */
+	public URL getLabelUrl(final int labelId) {
+		if (labelId == StringDictionary.NULL_ID || invalidUrls.get(labelId)) {
+			return null;
+		}
+		if (labelId >= urls.length) {
+			urls = Arrays.copyOf(urls, Math.max(labelDictionary.size(), urls.length * 2));
+		}
+		URL url = urls[labelId];
+		if (url == null) {
+			try {
+				url = new URL(labelDictionary.getValue(labelId));
+				urls[labelId] = url;
+			} catch (final MalformedURLException e) {
+				// not every label is a URL, e.g. transaction controllers
+				invalidUrls.set(labelId);
+				return null;
+			}
+		}
+		return url;
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The dictionary id of the thread name.
+	 */
+	public int getThreadNameId(final int row) {
+		checkRow(row);
+		return threadNames[row];
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The thread name.
+	 */
+	public String getThreadName(final int row) {
+		return attributeDictionary.getValue(getThreadNameId(row));
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The dictionary id of the response code.
+	 */
+	public int getResponseCodeId(final int row) {
+		checkRow(row);
+		return responseCodes[row];
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The response code.
+	 */
+	public String getResponseCode(final int row) {
+		return attributeDictionary.getValue(getResponseCodeId(row));
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The response message.
+	 */
+	public String getResponseMessage(final int row) {
+		checkRow(row);
+		return attributeDictionary.getValue(responseMessages[row]);
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The data type.
+	 */
+	public String getDataType(final int row) {
+		checkRow(row);
+		return attributeDictionary.getValue(dataTypes[row]);
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The result count or -1 if the sample did not contain a result count.
+	 */
+	public int getResultCount(final int row) {
+		checkRow(row);
+		return resultCounts[row];
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return The cache age.
+	 */
+	public int getCacheAge(final int row) {
+		checkRow(row);
+		return cacheAges[row];
+	}
+
+	/**
+	 * @param row The row of the sample.
+	 * @return True if the request timed out.
+	 */
+	public boolean isTimeOut(final int row) {
+		checkRow(row);
+		return timeOuts.get(row);
+	}
+
+	/**
+	 * @return The dictionary of the labels.
+	 */
+	public StringDictionary getLabelDictionary() {
+		return labelDictionary;
+	}
+
+	/**
+	 * Returns the dictionary shared by the thread name, response code, response message and data type columns. Samples encoded with this dictionary are added
+	 * without any lookups, so readers should use it for the samples they read into this table.
+	 *
+	 * @return The dictionary of the attribute columns.
+	 */
+	public StringDictionary getAttributeDictionary() {
+		return attributeDictionary;
+	}
+
+	/**
+	 * Writes the dictionaries and columns of this table in a binary format which is read by {@link #readFrom(ByteBuffer)} without any parsing. Every column
+	 * is written as one block of little endian numbers.
+	 *
+	 * @param channel The channel to write to, it is not closed.
+	 * @throws IOException If writing fails.
+	 */
+	public void writeTo(final WritableByteChannel channel) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(COLUMNS_MAGIC);
+		buffer.putInt(COLUMNS_VERSION);
+		buffer.putInt(size);
+		writeDictionary(labelDictionary, buffer, channel);
+		writeDictionary(attributeDictionary, buffer, channel);
+		final int[][] intColumns = getIntColumns();
+		for (int i = 0; i < intColumns.length; i++) {
+			writeColumn(intColumns[i], buffer, channel);
+		}
+		writeColumn(timestamps, buffer, channel);
+		writeBits(success, buffer, channel);
+		writeBits(timeOuts, buffer, channel);
+		flush(buffer, channel);
+	}
+
+	/**
+	 * Reads a table written by {@link #writeTo(WritableByteChannel)}. The buffer is usually a memory mapped file, the columns are copied from it in bulk.
+	 *
+	 * @param buffer The buffer to read from, it is read from its current position on.
+	 * @return The table.
+	 * @throws IOException If the buffer does not contain a table.
+	 */
+	public static SampleTable readFrom(final ByteBuffer buffer) throws IOException {
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		try {
+			if (buffer.getInt() != COLUMNS_MAGIC) {
+				throw new IOException("The buffer does not contain a sample table.");
+			}
+			final int version = buffer.getInt();
+			if (version != COLUMNS_VERSION) {
+				throw new IOException("Unsupported sample table version: " + version);
+			}
+			final int size = buffer.getInt();
+			// a corrupt size must not allocate the columns before the buffer runs out
+			if (size < 0 || (long) size * BYTES_PER_ROW > buffer.remaining()) {
+				throw new IOException("Invalid sample table size: " + size);
+			}
+			final SampleTable samples = new SampleTable(size);
+			readDictionary(buffer, samples.labelDictionary);
+			readDictionary(buffer, samples.attributeDictionary);
+			final int[][] intColumns = samples.getIntColumns();
+			for (int i = 0; i < intColumns.length; i++) {
+				buffer.asIntBuffer().get(intColumns[i], 0, size);
+				buffer.position(buffer.position() + 4 * size);
+			}
+			buffer.asLongBuffer().get(samples.timestamps, 0, size);
+			buffer.position(buffer.position() + 8 * size);
+			readBits(buffer, size, samples.success);
+			readBits(buffer, size, samples.timeOuts);
+			samples.size = size;
+			// invalid ids would only fail when the rows are accessed
+			samples.checkIds(samples.labels, samples.labelDictionary);
+			samples.checkIds(samples.threadNames, samples.attributeDictionary);
+			samples.checkIds(samples.responseCodes, samples.attributeDictionary);
+			samples.checkIds(samples.responseMessages, samples.attributeDictionary);
+			samples.checkIds(samples.dataTypes, samples.attributeDictionary);
+			return samples;
+		} catch (final BufferUnderflowException e) {
+			throw new IOException("The sample table is incomplete.");
+		}
+	}
+
+	/**
+	 * @return The int columns in the order in which they are written.
+	 */
+	private int[][] getIntColumns() {
+		return new int[][] { responseTimes, bytes, labels, threadNames, responseCodes, responseMessages, dataTypes, resultCounts, cacheAges };
+	}
+
+	private void checkIds(final int[] column, final StringDictionary dictionary) throws IOException {
+		for (int row = 0; row < size; row++) {
+			if (column[row] < StringDictionary.NULL_ID || column[row] >= dictionary.size()) {
+				throw new IOException("Invalid dictionary id in row " + row + ": " + column[row]);
+			}
+		}
+	}
+
+	private static void writeDictionary(final StringDictionary dictionary, final ByteBuffer buffer, final WritableByteChannel channel) throws IOException {
+		ensureRemaining(4, buffer, channel);
+		buffer.putInt(dictionary.size());
+		for (int id = 0; id < dictionary.size(); id++) {
+			final byte[] value = dictionary.getValue(id).getBytes(UTF8);
+			ensureRemaining(4, buffer, channel);
+			buffer.putInt(value.length);
+			for (int offset = 0; offset < value.length;) {
+				ensureRemaining(1, buffer, channel);
+				final int length = Math.min(buffer.remaining(), value.length - offset);
+				buffer.put(value, offset, length);
+				offset += length;
+			}
+		}
+	}
+
+	private static void readDictionary(final ByteBuffer buffer, final StringDictionary dictionary) throws IOException {
+		final int dictionarySize = buffer.getInt();
+		for (int id = 0; id < dictionarySize; id++) {
+			final int length = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()) {
+				throw new IOException("Invalid length of a dictionary value: " + length);
+			}
+			final byte[] value = new byte[length];
+			buffer.get(value);
+			dictionary.addDistinct(new String(value, UTF8));
+		}
+	}
+
+	private void writeColumn(final int[] column, final ByteBuffer buffer, final WritableByteChannel channel) throws IOException {
+		for (int offset = 0; offset < size;) {
+			ensureRemaining(4, buffer, channel);
+			final int length = Math.min(buffer.remaining() / 4, size - offset);
+			buffer.asIntBuffer().put(column, offset, length);
+			buffer.position(buffer.position() + 4 * length);
+			offset += length;
+		}
+	}
+
+	private void writeColumn(final long[] column, final ByteBuffer buffer, final WritableByteChannel channel) throws IOException {
+		for (int offset = 0; offset < size;) {
+			ensureRemaining(8, buffer, channel);
+			final int length = Math.min(buffer.remaining() / 8, size - offset);
+			buffer.asLongBuffer().put(column, offset, length);
+			buffer.position(buffer.position() + 8 * length);
+			offset += length;
+		}
+	}
+
+	private void writeBits(final BitSet bits, final ByteBuffer buffer, final WritableByteChannel channel) throws IOException {
+		for (int word = 0; word < (size + 63) / 64; word++) {
+			long value = 0;
+			for (int bit = bits.nextSetBit(word * 64); bit >= 0 && bit < Math.min(size, (word + 1) * 64); bit = bits.nextSetBit(bit + 1)) {
+				value |= 1L << (bit & 63);
+			}
+			ensureRemaining(8, buffer, channel);
+			buffer.putLong(value);
+		}
+	}
+
+	private static void readBits(final ByteBuffer buffer, final int size, final BitSet bits) {
+		for (int word = 0; word < (size + 63) / 64; word++) {
+			long value = buffer.getLong();
+			while (value != 0) {
+				final int bit = Long.numberOfTrailingZeros(value);
+				bits.set(word * 64 + bit);
+				value &= value - 1;
+			}
+		}
+	}
+
+	private static void ensureRemaining(final int numBytes, final ByteBuffer buffer, final WritableByteChannel channel) throws IOException {
+		if (buffer.remaining() < numBytes) {
+			flush(buffer, channel);
+		}
+	}
+
+	private static void flush(final ByteBuffer buffer, final WritableByteChannel channel) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Reduces the capacity of all columns to the current size.
+	 */
+	public void trimToSize() {
+		setCapacity(size);
+	}
+
+	private void permute(final int[] order) {
+		responseTimes = permute(responseTimes, order);
+		bytes = permute(bytes, order);
+		labels = permute(labels, order);
+		threadNames = permute(threadNames, order);
+		responseCodes = permute(responseCodes, order);
+		responseMessages = permute(responseMessages, order);
+		dataTypes = permute(dataTypes, order);
+		resultCounts = permute(resultCounts, order);
+		cacheAges = permute(cacheAges, order);
+
+		final long[] permutedTimestamps = new long[timestamps.length];
+		final BitSet permutedSuccess = new BitSet(size);
+		final BitSet permutedTimeOuts = new BitSet(size);
+		for (int i = 0; i < size; i++) {
+			permutedTimestamps[i] = timestamps[order[i]];
+			permutedSuccess.set(i, success.get(order[i]));
+			permutedTimeOuts.set(i, timeOuts.get(order[i]));
+		}
+		timestamps = permutedTimestamps;
+		success.clear();
+		success.or(permutedSuccess);
+		timeOuts.clear();
+		timeOuts.or(permutedTimeOuts);
+		modCount++;
+	}
+
+	private int[] permute(final int[] column, final int[] order) {
+		final int[] permuted = new int[column.length];
+		for (int i = 0; i < size; i++) {
+			permuted[i] = column[order[i]];
+		}
+		return permuted;
+	}
+
+	private void ensureCapacity(final int minCapacity) {
+		if (minCapacity > responseTimes.length) {
+			setCapacity(Math.max(minCapacity, responseTimes.length + (responseTimes.length >> 1)));
+		}
+	}
+
+	private void setCapacity(final int capacity) {
+		responseTimes = Arrays.copyOf(responseTimes, capacity);
+		timestamps = Arrays.copyOf(timestamps, capacity);
+		bytes = Arrays.copyOf(bytes, capacity);
+		labels = Arrays.copyOf(labels, capacity);
+		threadNames = Arrays.copyOf(threadNames, capacity);
+		responseCodes = Arrays.copyOf(responseCodes, capacity);
+		responseMessages = Arrays.copyOf(responseMessages, capacity);
+		dataTypes = Arrays.copyOf(dataTypes, capacity);
+		resultCounts = Arrays.copyOf(resultCounts, capacity);
+		cacheAges = Arrays.copyOf(cacheAges, capacity);
+	}
+
+	private void checkRow(final int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row: " + row + ", Size: " + size);
+		}
+	}
+}
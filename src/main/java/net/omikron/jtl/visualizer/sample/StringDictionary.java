@@ -0,0 +1,72 @@
+package net.omikron.jtl.visualizer.sample;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps strings to small consecutive int ids and back. Columns of repeated string values, e.g. response codes or thread names, only store the ids.
+ */
+public class StringDictionary {
+
+	/** Id used for null values. */
+	public static final int				NULL_ID		= -1;
+
+	private final Map<String, Integer>	ids			= new HashMap<String, Integer>();
+	private final List<String>			values		= new ArrayList<String>();
+	/** Number of values contained in the id map, values added by {@link #addDistinct(String)} are only hashed when an id is looked up */
+	private int							numIndexed	= 0;
+
+	/**
+	 * Returns the id of the given value, the value is added to the dictionary if it is not contained yet.
+	 *
+	 * @param value The value to look up, may be null.
+	 * @return The id of the value or {@link #NULL_ID} for null.
+	 */
+	public int getId(final String value) {
+		if (value == null) {
+			return NULL_ID;
+		}
+		for (; numIndexed < values.size(); numIndexed++) {
+			ids.put(values.get(numIndexed), Integer.valueOf(numIndexed));
+		}
+		Integer id = ids.get(value);
+		if (id == null) {
+			id = Integer.valueOf(values.size());
+			ids.put(value, id);
+			values.add(value);
+			numIndexed++;
+		}
+		return id.intValue();
+	}
+
+	/**
+	 * Adds a value which is known not to be contained in the dictionary yet, e.g. when a dictionary is copied or loaded.
+	 *
+	 * @param value The value to add, must not be null.
+	 * @return The id of the value.
+	 */
+	int addDistinct(final String value) {
+		values.add(value);
+		return values.size() - 1;
+	}
+
+	/**
+	 * @param id The id to look up.
+	 * @return The value with the given id or null for {@link #NULL_ID}.
+	 */
+	public String getValue(final int id) {
+		if (id == NULL_ID) {
+			return null;
+		}
+		return values.get(id);
+	}
+
+	/**
+	 * @return The number of distinct values in the dictionary.
+	 */
+	public int size() {
+		return values.size();
+	}
+}
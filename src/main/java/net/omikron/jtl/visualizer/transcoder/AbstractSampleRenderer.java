@@ -1,16 +1,12 @@
 package net.omikron.jtl.visualizer.transcoder;
 
 import java.text.NumberFormat;
-import java.util.Collections;
-import java.util.List;
 import java.util.Locale;
 
 import net.omikron.jtl.visualizer.histogram.Histogram;
-import net.omikron.jtl.visualizer.sample.Sample;
+import net.omikron.jtl.visualizer.sample.SampleTable;
 
 import org.apache.commons.lang.StringUtils;
-import org.w3c.dom.CDATASection;
-import org.w3c.dom.Element;
 import org.w3c.dom.svg.SVGDocument;
 
 public abstract class AbstractSampleRenderer {
@@ -36,7 +32,7 @@ public abstract class AbstractSampleRenderer {
 	protected static final String			SVG_HEIGHT_ATTRIBUTE	= "height";
 	protected static final String			SVG_VIEW_BOX_ATTRIBUTE	= "viewBox";
 
-	protected final List<Sample>			samples;
+	protected final SampleTable				samples;
 
 	protected String						title;
 	protected String						version;
@@ -47,8 +43,8 @@ public abstract class AbstractSampleRenderer {
 	protected int							xAxisMax				= -1;
 	protected int							yAxisMax				= -1;
 
-	protected transient SVGDocument			svgDocument;
-	protected transient Element				svgRoot;
+	/** Target of the rendered elements, the root element of the SVG is its current element when rendering starts */
+	protected transient SvgWriter			svg;
 
 	protected transient final NumberFormat	numberFormat0Digits;
 	protected transient final NumberFormat	numberFormat2Digits;
@@ -59,10 +55,9 @@ public abstract class AbstractSampleRenderer {
 	 * 
 	 * @param samples
 	 */
-	public AbstractSampleRenderer(final List<Sample> samples) {
+	public AbstractSampleRenderer(final SampleTable samples) {
 		super();
 		this.samples = samples;
-		Collections.sort(samples, Sample.ORDER_BY_RESPONSE_TIME_ASC);
 
 		this.numberFormat0Digits = NumberFormat.getInstance(Locale.US);
 		this.numberFormat0Digits.setMinimumFractionDigits(0);
@@ -74,7 +69,21 @@ public abstract class AbstractSampleRenderer {
 		this.numberFormatPercent.setMinimumFractionDigits(2);
 	}
 
-	public abstract void render(final SVGDocument svgDocument);
+	/**
+	 * Renders the diagram into the given SVG document.
+	 * 
+	 * @param svgDocument The SVG document, the elements are appended to its root element.
+	 */
+	public void render(final SVGDocument svgDocument) {
+		render(new DomSvgWriter(svgDocument));
+	}
+
+	/**
+	 * Renders the diagram. The elements are written in document order, so they can be streamed without building a DOM.
+	 * 
+	 * @param svg The target of the elements, its current element is the root element of the SVG.
+	 */
+	public abstract void render(final SvgWriter svg);
 
 	/**
 	 * Sets yAxisMax
@@ -193,106 +202,86 @@ public abstract class AbstractSampleRenderer {
 	protected abstract String getEmptyMsg();
 
 	protected void renderEmptyMsg() {
-		svgRoot.appendChild(getText(getEmptyMsg(), CANVAS_WIDTH / 2, CANVAS_HEIGHT / 2, TEXT_STYLE_P, "middle"));
+		renderText(getEmptyMsg(), CANVAS_WIDTH / 2, CANVAS_HEIGHT / 2, TEXT_STYLE_P, "middle");
 	}
 
 	protected void addCSS() {
-		final Element cssElement = svgDocument.createElement("style");
-		cssElement.setAttribute("type", "text/css");
+		svg.startElement("style");
+		svg.attribute("type", "text/css");
 		final StringBuilder css = new StringBuilder();
 		css.append("\ntext {\n  ");
 		css.append(FONT_DEF);
 		css.append("\n}\n");
-		final CDATASection cssData = svgDocument.createCDATASection(css.toString());
-		cssElement.appendChild(cssData);
-		svgRoot.appendChild(cssElement);
+		svg.cdata(css.toString());
+		svg.endElement();
 	}
 
 	protected void addMarkers() {
-		final Element markerTriangle = svgDocument.createElement("marker");
-		markerTriangle.setAttribute("id", "arrowHeadTriangle");
-		markerTriangle.setAttribute("viewBox", "0 0 10 10");
-		markerTriangle.setAttribute("refX", "0");
-		markerTriangle.setAttribute("refY", "5");
-		markerTriangle.setAttribute("markerUnits", "strokeWidth");
-		markerTriangle.setAttribute("markerWidth", "10");
-		markerTriangle.setAttribute("markerHeight", "10");
-		markerTriangle.setAttribute("orient", "auto");
-
-		final Element patTriangle = svgDocument.createElement("path");
-		patTriangle.setAttribute("d", "M 0 0 L 10 5 L 0 10 z");
-
-		markerTriangle.appendChild(patTriangle);
-		svgRoot.appendChild(markerTriangle);
-
-		final Element markerDagger = svgDocument.createElement("marker");
-		markerDagger.setAttribute("id", "arrowHeadDagger");
-		markerDagger.setAttribute("viewBox", "0 0 10 10");
-		markerDagger.setAttribute("refX", "10");
-		markerDagger.setAttribute("refY", "5");
-		markerDagger.setAttribute("markerUnits", "strokeWidth");
-		markerDagger.setAttribute("markerWidth", "10");
-		markerDagger.setAttribute("markerHeight", "10");
-		markerDagger.setAttribute("orient", "auto");
-
-		final Element pathDagger = svgDocument.createElement("path");
-		pathDagger.setAttribute("d", "M 0 0 L 10 5 L 0 10");
-		pathDagger.setAttribute("style", "fill:none;stroke:black;stroke-width:1.0;");
-
-		markerDagger.appendChild(pathDagger);
-		svgRoot.appendChild(markerDagger);
+		svg.startElement("marker");
+		svg.attribute("id", "arrowHeadTriangle");
+		svg.attribute("viewBox", "0 0 10 10");
+		svg.attribute("refX", "0");
+		svg.attribute("refY", "5");
+		svg.attribute("markerUnits", "strokeWidth");
+		svg.attribute("markerWidth", "10");
+		svg.attribute("markerHeight", "10");
+		svg.attribute("orient", "auto");
+
+		svg.startElement("path");
+		svg.attribute("d", "M 0 0 L 10 5 L 0 10 z");
+		svg.endElement();
+
+		svg.endElement();
+
+		svg.startElement("marker");
+		svg.attribute("id", "arrowHeadDagger");
+		svg.attribute("viewBox", "0 0 10 10");
+		svg.attribute("refX", "10");
+		svg.attribute("refY", "5");
+		svg.attribute("markerUnits", "strokeWidth");
+		svg.attribute("markerWidth", "10");
+		svg.attribute("markerHeight", "10");
+		svg.attribute("orient", "auto");
+
+		svg.startElement("path");
+		svg.attribute("d", "M 0 0 L 10 5 L 0 10");
+		svg.attribute("style", "fill:none;stroke:black;stroke-width:1.0;");
+		svg.endElement();
+
+		svg.endElement();
 	}
 
 	protected void renderFrame(final String title) {
-		final Element bg = svgDocument.createElement("g");
-		bg.setAttribute("id", "background");
+		startGroup("background");
 
-		bg.appendChild(getRectangle(OFFSET_X, OFFSET_Y, CANVAS_WIDTH - 1, CANVAS_HEIGHT - 1, "fill: white; stroke: black; stroke-width: 1.0"));
-		bg.appendChild(getText(title, CANVAS_WIDTH / 2, CANVAS_MARGIN / 3, TEXT_STYLE_H1, "middle"));
+		renderRectangle(OFFSET_X, OFFSET_Y, CANVAS_WIDTH - 1, CANVAS_HEIGHT - 1, "fill: white; stroke: black; stroke-width: 1.0");
+		renderText(title, CANVAS_WIDTH / 2, CANVAS_MARGIN / 3, TEXT_STYLE_H1, "middle");
 
-		svgRoot.appendChild(bg);
+		endGroup();
 	}
 
+	/**
+	 * Sets the size of the SVG, has to be called before anything else is rendered.
+	 */
 	protected void setDimensions() {
-		svgRoot.setAttribute(SVG_WIDTH_ATTRIBUTE, Integer.toString(CANVAS_WIDTH));
-		svgRoot.setAttribute(SVG_HEIGHT_ATTRIBUTE, Integer.toString(CANVAS_HEIGHT));
-		svgRoot.setAttribute(SVG_VIEW_BOX_ATTRIBUTE, String.valueOf(OFFSET_X) + ' ' + OFFSET_Y + ' ' + CANVAS_WIDTH + ' ' + CANVAS_HEIGHT);
+		svg.attribute(SVG_WIDTH_ATTRIBUTE, Integer.toString(CANVAS_WIDTH));
+		svg.attribute(SVG_HEIGHT_ATTRIBUTE, Integer.toString(CANVAS_HEIGHT));
+		svg.attribute(SVG_VIEW_BOX_ATTRIBUTE, String.valueOf(OFFSET_X) + ' ' + OFFSET_Y + ' ' + CANVAS_WIDTH + ' ' + CANVAS_HEIGHT);
 	}
 
 	protected void calculateDescriptiveStats(final Histogram histogram) {
 		long startOfFirstRequest = Long.MAX_VALUE;
 		long endOfLastRequest = Long.MIN_VALUE;
 
-		final int min = 0;
-		final int max = samples.size() - 1;
-		final int quartLow = (max - min) / 4;
-		final int median = (max - min) / 2;
-		final int quartUp = ((max - min) * 3) / 4;
-		final int quantil95 = ((max - min) * 95) / 100;
-
-		histogram.setMax(samples.get(max).getResponseTime());
-
-		int total = 0;
-
 		for (int i = 0; i < samples.size(); i++) {
-			final Sample sample = samples.get(i);
-			final int curResponseTime = sample.getResponseTime();
-			total += curResponseTime;
-
-			if (i == min) histogram.setMin(curResponseTime);
-			if (i == quartLow) histogram.setQuartLow(curResponseTime);
-			if (i == median) histogram.setMedian(curResponseTime);
-			if (i == quartUp) histogram.setQuartUp(curResponseTime);
-			if (i == quantil95) histogram.setQuantil95(curResponseTime);
-			if (i == max) histogram.setMax(curResponseTime);
-
-			final long timestamp = sample.getStartOfRequest().getTime();
-			final int responseTime = sample.getResponseTime();
+			final int curResponseTime = samples.getResponseTime(i);
+			final long timestamp = samples.getTimestamp(i);
 			if (timestamp < startOfFirstRequest) startOfFirstRequest = timestamp;
-			if (timestamp + responseTime > endOfLastRequest) endOfLastRequest = timestamp + responseTime;
+			if (timestamp + curResponseTime > endOfLastRequest) endOfLastRequest = timestamp + curResponseTime;
 		}
 
-		histogram.setAverage(total / samples.size());
+		// the ranks are selected from a copy of the response times, the samples themselves are never sorted
+		histogram.setDescriptiveStats(samples.getResponseTimes());
 
 		histogram.setStartOfFirstRequest(startOfFirstRequest);
 		histogram.setEndOfLastRequest(endOfLastRequest);
@@ -323,79 +312,117 @@ public abstract class AbstractSampleRenderer {
 		return (int) Math.max(1, (maxValue / optimalNumber) / minStep) * minStep;
 	}
 
-	protected Element getText(final String text, final double x, final double y, final String style, final String textAnchor) {
-		final Element textElement = svgDocument.createElement("text");
-		textElement.setAttribute("x", Double.toString(x));
-		textElement.setAttribute("y", Double.toString(y));
+	/**
+	 * Starts a group, the following elements are rendered into it until {@link #endGroup()} is called.
+	 * 
+	 * @param id The id of the group, may be null.
+	 */
+	protected void startGroup(final String id) {
+		svg.startElement("g");
+		if (id != null) {
+			svg.attribute("id", id);
+		}
+	}
+
+	protected void endGroup() {
+		svg.endElement();
+	}
+
+	protected void renderText(final String text, final double x, final double y, final String style, final String textAnchor) {
+		renderText(text, x, y, style, textAnchor, null);
+	}
+
+	protected void renderText(final String text, final double x, final double y, final String style, final String textAnchor, final String transform) {
+		svg.startElement("text");
+		svg.attribute("x", Double.toString(x));
+		svg.attribute("y", Double.toString(y));
 		if (StringUtils.isNotEmpty(style)) {
-			textElement.setAttribute("style", style);
+			svg.attribute("style", style);
 		}
 		if (StringUtils.isNotEmpty(textAnchor)) {
-			textElement.setAttribute("text-anchor", textAnchor);
+			svg.attribute("text-anchor", textAnchor);
 		}
-		textElement.appendChild(svgDocument.createTextNode(text));
-		return textElement;
+		if (StringUtils.isNotEmpty(transform)) {
+			svg.attribute("transform", transform);
+		}
+		svg.characters(text);
+		svg.endElement();
 	}
 
-	protected Element getRectangle(final double x, final double y, final double width, final double height, final String style) {
-		final Element rectangle = svgDocument.createElement("rect");
-		rectangle.setAttribute("x", Double.toString(x));
-		rectangle.setAttribute("y", Double.toString(y));
-		rectangle.setAttribute("width", Double.toString(width));
-		rectangle.setAttribute("height", Double.toString(height));
+	protected void renderRectangle(final double x, final double y, final double width, final double height, final String style) {
+		svg.startElement("rect");
+		svg.attribute("x", Double.toString(x));
+		svg.attribute("y", Double.toString(y));
+		svg.attribute("width", Double.toString(width));
+		svg.attribute("height", Double.toString(height));
 		if (StringUtils.isNotEmpty(style)) {
-			rectangle.setAttribute("style", style);
+			svg.attribute("style", style);
 		}
-		return rectangle;
+		svg.endElement();
 	}
 
-	protected Element getCircle(final double cx, final double cy, final double r, final String style) {
-		final Element circle = svgDocument.createElement("circle");
-		circle.setAttribute("cx", Double.toString(cx));
-		circle.setAttribute("cy", Double.toString(cy));
-		circle.setAttribute("r", Double.toString(r));
+	/**
+	 * @param tooltip The text shown when hovering over the circle, may be null.
+	 */
+	protected void renderCircle(final double cx, final double cy, final double r, final String style, final String fill, final String tooltip) {
+		svg.startElement("circle");
+		svg.attribute("cx", Double.toString(cx));
+		svg.attribute("cy", Double.toString(cy));
+		svg.attribute("r", Double.toString(r));
 		if (StringUtils.isNotEmpty(style)) {
-			circle.setAttribute("style", style);
+			svg.attribute("style", style);
+		}
+		if (StringUtils.isNotEmpty(fill)) {
+			svg.attribute("fill", fill);
+		}
+		if (tooltip != null) {
+			svg.startElement("title");
+			svg.characters(tooltip);
+			svg.endElement();
 		}
-		return circle;
+		svg.endElement();
 	}
 
-	protected Element getArrow(final double x1, final double y1, final double x2, final double y2, final String fill, final String stroke,
+	protected void renderArrow(final double x1, final double y1, final double x2, final double y2, final String fill, final String stroke,
 			final double strokeWidth) {
-		final Element arrow = getLine(x1, y1, x2, y2, fill, stroke, strokeWidth);
-		arrow.setAttribute("marker-end", "url(#arrowHeadDagger");
-		return arrow;
+		startLine(x1, y1, x2, y2, fill, stroke, strokeWidth);
+		svg.attribute("marker-end", "url(#arrowHeadDagger)");
+		svg.endElement();
 	}
 
-	protected Element getLine(final double x1, final double y1, final double x2, final double y2, final String fill, final String stroke,
+	protected void renderLine(final double x1, final double y1, final double x2, final double y2, final String fill, final String stroke,
 			final double strokeWidth) {
-		final Element line = svgDocument.createElement("line");
-		line.setAttribute("x1", Double.toString(x1));
-		line.setAttribute("y1", Double.toString(y1));
-		line.setAttribute("x2", Double.toString(x2));
-		line.setAttribute("y2", Double.toString(y2));
+		startLine(x1, y1, x2, y2, fill, stroke, strokeWidth);
+		svg.endElement();
+	}
+
+	private void startLine(final double x1, final double y1, final double x2, final double y2, final String fill, final String stroke,
+			final double strokeWidth) {
+		svg.startElement("line");
+		svg.attribute("x1", Double.toString(x1));
+		svg.attribute("y1", Double.toString(y1));
+		svg.attribute("x2", Double.toString(x2));
+		svg.attribute("y2", Double.toString(y2));
 		if (StringUtils.isNotEmpty(fill)) {
-			line.setAttribute("fill", fill);
+			svg.attribute("fill", fill);
 		}
 		if (StringUtils.isNotEmpty(stroke)) {
-			line.setAttribute("stroke", stroke);
+			svg.attribute("stroke", stroke);
 		}
 		if (strokeWidth > 0.0) {
-			line.setAttribute("stroke-width", Double.toString(strokeWidth));
+			svg.attribute("stroke-width", Double.toString(strokeWidth));
 		}
-		return line;
 	}
 
-	protected Element getPath(final String pathData, final String stroke, final String style) {
-		final Element path = svgDocument.createElement("path");
-		path.setAttribute("d", pathData);
+	protected void renderPath(final String pathData, final String stroke, final String style) {
+		svg.startElement("path");
+		svg.attribute("d", pathData);
 		if (StringUtils.isNotEmpty(stroke)) {
-			path.setAttribute("stroke", stroke);
+			svg.attribute("stroke", stroke);
 		}
 		if (StringUtils.isNotEmpty(style)) {
-			path.setAttribute("style", style);
+			svg.attribute("style", style);
 		}
-
-		return path;
+		svg.endElement();
 	}
 }
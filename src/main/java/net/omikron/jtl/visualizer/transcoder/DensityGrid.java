@@ -0,0 +1,167 @@
+package net.omikron.jtl.visualizer.transcoder;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import org.apache.batik.util.Base64EncoderStream;
+
+/**
+ * Counts the data points of a scatter plot per pixel of the canvas. The density is rendered as an image of the size of the canvas, so the size of the SVG
+ * does not depend on the number of samples. Of the outliers, which are still rendered as single data points, only the one with the longest response time is
+ * kept per pixel.
+ */
+final class DensityGrid {
+
+	private static final String	PNG_DATA_URI_PREFIX		= "data:image/png;base64,";
+	/** Opacity of a pixel containing a single data point, so single points are still visible next to dense areas */
+	private static final double	MIN_OPACITY				= 0.2;
+
+	private final int			width;
+	private final int			height;
+	private final int[]			counts;
+	private int					maxCount				= 0;
+
+	/** Index of the outlier kept for every pixel, -1 if the pixel does not contain an outlier */
+	private final int[]			outlierIndexes;
+	private double[]			outlierXs				= new double[16];
+	private double[]			outlierYs				= new double[16];
+	private int[]				outlierRows				= new int[16];
+	private int[]				outlierResponseTimes	= new int[16];
+	private int					numOutliers				= 0;
+
+	/**
+	 * @param width The width of the canvas in pixels.
+	 * @param height The height of the canvas in pixels.
+	 */
+	DensityGrid(final int width, final int height) {
+		super();
+		this.width = width;
+		this.height = height;
+		this.counts = new int[width * height];
+		this.outlierIndexes = new int[width * height];
+		Arrays.fill(outlierIndexes, -1);
+	}
+
+	/**
+	 * @param x The x coordinate on the canvas.
+	 * @param y The y coordinate on the canvas.
+	 * @return The index of the pixel containing the coordinates or -1 if they are outside of the canvas.
+	 */
+	int getPixel(final double x, final double y) {
+		if (!(x >= 0.0 && x < width && y >= 0.0 && y < height)) {
+			return -1;
+		}
+		return (int) y * width + (int) x;
+	}
+
+	/**
+	 * Counts a data point in the given pixel.
+	 *
+	 * @param pixel The index of the pixel, see {@link #getPixel(double, double)}.
+	 */
+	void add(final int pixel) {
+		final int count = ++counts[pixel];
+		if (count > maxCount) {
+			maxCount = count;
+		}
+	}
+
+	/**
+	 * Keeps an outlier in the given pixel unless the pixel already contains an outlier with a longer response time.
+	 *
+	 * @param pixel The index of the pixel, see {@link #getPixel(double, double)}.
+	 * @param x The x coordinate of the outlier on the canvas.
+	 * @param y The y coordinate of the outlier on the canvas.
+	 * @param row The row of the outlier in the sample table.
+	 * @param responseTime The response time of the outlier.
+	 */
+	void addOutlier(final int pixel, final double x, final double y, final int row, final int responseTime) {
+		int index = outlierIndexes[pixel];
+		if (index < 0) {
+			if (numOutliers == outlierRows.length) {
+				final int capacity = numOutliers * 2;
+				outlierXs = Arrays.copyOf(outlierXs, capacity);
+				outlierYs = Arrays.copyOf(outlierYs, capacity);
+				outlierRows = Arrays.copyOf(outlierRows, capacity);
+				outlierResponseTimes = Arrays.copyOf(outlierResponseTimes, capacity);
+			}
+			index = numOutliers++;
+			outlierIndexes[pixel] = index;
+		} else if (outlierResponseTimes[index] >= responseTime) {
+			return;
+		}
+		outlierXs[index] = x;
+		outlierYs[index] = y;
+		outlierRows[index] = row;
+		outlierResponseTimes[index] = responseTime;
+	}
+
+	/**
+	 * @return The number of outliers kept, at most one per pixel.
+	 */
+	int getNumOutliers() {
+		return numOutliers;
+	}
+
+	double getOutlierX(final int index) {
+		return outlierXs[index];
+	}
+
+	double getOutlierY(final int index) {
+		return outlierYs[index];
+	}
+
+	int getOutlierRow(final int index) {
+		return outlierRows[index];
+	}
+
+	/**
+	 * @return The largest number of data points in a single pixel.
+	 */
+	int getMaxCount() {
+		return maxCount;
+	}
+
+	/**
+	 * Creates an image in which the opacity of every pixel grows with the logarithm of its number of data points, so sparse areas remain visible next to
+	 * dense ones. Pixels without data points are transparent.
+	 *
+	 * @param color The color of the data points.
+	 */
+	BufferedImage toImage(final Color color) {
+		final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		final int rgb = color.getRGB() & 0xFFFFFF;
+		// a single data point gets the minimum opacity, the densest pixel is opaque
+		final double logRange = Math.log(1.0 + maxCount) - Math.log(2.0);
+		final int[] argb = new int[counts.length];
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				final double density = logRange > 0.0 ? (Math.log(1.0 + counts[i]) - Math.log(2.0)) / logRange : 1.0;
+				final double opacity = MIN_OPACITY + (1.0 - MIN_OPACITY) * density;
+				argb[i] = (int) Math.round(opacity * 255.0) << 24 | rgb;
+			}
+		}
+		image.setRGB(0, 0, width, height, argb, 0, width);
+		return image;
+	}
+
+	/**
+	 * @param color The color of the data points.
+	 * @return The image of {@link #toImage(Color)} as PNG in a data URI, which can be referenced by an SVG image element.
+	 */
+	String toPngDataUri(final Color color) throws IOException {
+		final ByteArrayOutputStream uri = new ByteArrayOutputStream();
+		uri.write(PNG_DATA_URI_PREFIX.getBytes("US-ASCII"));
+		final OutputStream base64 = new Base64EncoderStream(uri);
+		ImageIO.write(toImage(color), "png", base64);
+		base64.close();
+		// the encoder breaks lines, which would have to be escaped within an attribute
+		return uri.toString("US-ASCII").replace("\n", "");
+	}
+}
@@ -1,39 +1,53 @@
 package net.omikron.jtl.visualizer.transcoder;
 
-import java.util.List;
-
 import net.omikron.jtl.visualizer.JtlResponseReport;
 import net.omikron.jtl.visualizer.histogram.Histogram;
-import net.omikron.jtl.visualizer.sample.Sample;
-
-import org.w3c.dom.svg.SVGDocument;
+import net.omikron.jtl.visualizer.sample.SampleTable;
 
 public class DescriptiveStatisticsPrinter extends AbstractSampleRenderer {
 
-	public DescriptiveStatisticsPrinter(final List<Sample> samples) {
+	/* Statistics calculated while streaming the JTL, used instead of the samples */
+	private final Histogram	descriptiveStats;
+	private final long		numSamples;
+
+	public DescriptiveStatisticsPrinter(final SampleTable samples) {
 		super(samples);
+		this.descriptiveStats = null;
+		this.numSamples = 0;
+	}
+
+	/**
+	 * Constructs a printer which prints statistics calculated while streaming the JTL, so the samples never have to be held in memory.
+	 * 
+	 * @param descriptiveStats The descriptive statistics and the time span of the samples.
+	 * @param numSamples The number of samples the statistics have been calculated from.
+	 */
+	public DescriptiveStatisticsPrinter(final Histogram descriptiveStats, final long numSamples) {
+		super(null);
+		this.descriptiveStats = descriptiveStats;
+		this.numSamples = numSamples;
 	}
 
 	@Override
-	public void render(final SVGDocument svgDocument) {
-		this.svgDocument = svgDocument;
-		this.svgRoot = svgDocument.getDocumentElement();
+	public void render(final SvgWriter svg) {
+		this.svg = svg;
 
 		renderFrame(title);
 
-		if (samples != null && !samples.isEmpty()) {
+		if (descriptiveStats != null && numSamples > 0) {
+			printDescriptiveStats(descriptiveStats, numSamples);
+		} else if (samples != null && !samples.isEmpty()) {
 			final Histogram histogram = new Histogram();
 			calculateDescriptiveStats(histogram);
-			printDescriptiveStats(histogram);
+			printDescriptiveStats(histogram, samples.size());
 		} else {
 			printEmptyMessage();
 		}
 	}
 
-	private void printDescriptiveStats(final Histogram h) {
+	private void printDescriptiveStats(final Histogram h, final long numSamples) {
 		final StringBuilder s = new StringBuilder();
 
-		final int numSamples = samples.size();
 		final long duration = h.getEndOfLastRequest() - h.getStartOfFirstRequest();
 
 		s.append("Samples: ");
@@ -57,12 +71,12 @@ public class DescriptiveStatisticsPrinter extends AbstractSampleRenderer {
 		s.append(h.getMax());
 
 		final String descriptiveStats = s.toString();
-		svgRoot.appendChild(getText(descriptiveStats, CANVAS_WIDTH / 2, CANVAS_HEIGHT / 2, TEXT_STYLE_P, "middle"));
+		renderText(descriptiveStats, CANVAS_WIDTH / 2, CANVAS_HEIGHT / 2, TEXT_STYLE_P, "middle");
 		System.out.println(descriptiveStats);
 	}
 
 	private void printEmptyMessage() {
-		svgRoot.appendChild(getText(getEmptyMsg(), CANVAS_WIDTH / 2, CANVAS_HEIGHT / 2, TEXT_STYLE_P, "middle"));
+		renderText(getEmptyMsg(), CANVAS_WIDTH / 2, CANVAS_HEIGHT / 2, TEXT_STYLE_P, "middle");
 		System.out.println(getEmptyMsg());
 	}
 
@@ -0,0 +1,54 @@
+package net.omikron.jtl.visualizer.transcoder;
+
+import org.apache.batik.util.XMLConstants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Appends the rendered elements to the root element of an SVG document.
+ */
+public class DomSvgWriter implements SvgWriter {
+
+	private final Document	svgDocument;
+	private Element			current;
+
+	/**
+	 * @param svgDocument The SVG document, e.g. created by the SVGDOMImplementation.
+	 */
+	public DomSvgWriter(final Document svgDocument) {
+		super();
+		this.svgDocument = svgDocument;
+		this.current = svgDocument.getDocumentElement();
+	}
+
+	public void startElement(final String name) {
+		final Element element = svgDocument.createElement(name);
+		current.appendChild(element);
+		current = element;
+	}
+
+	public void attribute(final String name, final String value) {
+		if (name.startsWith(XMLConstants.XLINK_PREFIX + ':')) {
+			current.setAttributeNS(XMLConstants.XLINK_NAMESPACE_URI, name, value);
+		} else {
+			current.setAttribute(name, value);
+		}
+	}
+
+	public void characters(final String text) {
+		current.appendChild(svgDocument.createTextNode(text));
+	}
+
+	public void cdata(final String data) {
+		current.appendChild(svgDocument.createCDATASection(data));
+	}
+
+	public void endElement() {
+		final Node parent = current.getParentNode();
+		if (!(parent instanceof Element)) {
+			throw new IllegalStateException("The root element cannot be ended.");
+		}
+		current = (Element) parent;
+	}
+}
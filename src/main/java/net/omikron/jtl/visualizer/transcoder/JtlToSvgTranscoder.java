@@ -1,32 +1,46 @@
 package net.omikron.jtl.visualizer.transcoder;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.net.URISyntaxException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Source;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerConfigurationException;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.TransformerFactoryConfigurationError;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
 
+import net.omikron.jtl.visualizer.exceptions.JtlReaderException;
+import net.omikron.jtl.visualizer.histogram.Histogram;
+import net.omikron.jtl.visualizer.histogram.LatencyRecorder;
+import net.omikron.jtl.visualizer.io.JtlCheckpoint;
+import net.omikron.jtl.visualizer.io.JtlFiles;
+import net.omikron.jtl.visualizer.io.JtlFollower;
 import net.omikron.jtl.visualizer.io.JtlReader;
+import net.omikron.jtl.visualizer.io.MappedJtlReader;
+import net.omikron.jtl.visualizer.io.ParallelJtlReader;
+import net.omikron.jtl.visualizer.io.SampleHandler;
 import net.omikron.jtl.visualizer.sample.Sample;
+import net.omikron.jtl.visualizer.sample.SampleTable;
 import net.omikron.jtl.visualizer.transcoder.SampleHistogramRenderer.DiagramType;
 
-import org.apache.batik.dom.svg.SVGDOMImplementation;
 import org.apache.batik.transcoder.DefaultErrorHandler;
 import org.apache.batik.transcoder.ErrorHandler;
 import org.apache.batik.transcoder.Transcoder;
@@ -37,13 +51,13 @@ import org.apache.batik.transcoder.TranscodingHints;
 import org.apache.batik.transcoder.TranscodingHints.Key;
 import org.apache.batik.transcoder.keys.BooleanKey;
 import org.apache.batik.transcoder.keys.StringKey;
-import org.w3c.dom.DOMImplementation;
 import org.w3c.dom.Document;
-import org.w3c.dom.svg.SVGDocument;
 import org.xml.sax.SAXException;
 
 public class JtlToSvgTranscoder implements Transcoder {
 
+	public static final String					FORMAT_SVG				= "svg";
+
 	public static final TranscodingHints.Key	KEY_NUM_BINS			= new StringKey();
 	public static final TranscodingHints.Key	KEY_EXCLUDES			= new StringKey();
 	public static final TranscodingHints.Key	KEY_TITLE				= new StringKey();
@@ -58,10 +72,24 @@ public class JtlToSvgTranscoder implements Transcoder {
 	public static final TranscodingHints.Key	KEY_LOG_SCALE_Y			= new BooleanKey();
 	public static final TranscodingHints.Key	KEY_RELATIVE_DATA_LABEL	= new BooleanKey();
 	public static final TranscodingHints.Key	KEY_RESULT_COUNT		= new BooleanKey();
+	public static final TranscodingHints.Key	KEY_DENSITY				= new BooleanKey();
+	public static final TranscodingHints.Key	KEY_DECIMATE			= new BooleanKey();
+	public static final TranscodingHints.Key	KEY_SIGNIFICANT_DIGITS	= new StringKey();
+	public static final TranscodingHints.Key	KEY_THREADS				= new StringKey();
+	public static final TranscodingHints.Key	KEY_MEMORY_MAPPED		= new BooleanKey();
+	public static final TranscodingHints.Key	KEY_CACHE				= new BooleanKey();
+	public static final TranscodingHints.Key	KEY_STATE_FILE			= new StringKey();
+	/** Format of the output, {@link #FORMAT_SVG} or one of the formats of the {@link RasterImageTranscoder}, SVG if not set */
+	public static final TranscodingHints.Key	KEY_FORMAT				= new StringKey();
+	/** URIs of further JTLs, e.g. of other load generators, whose samples are merged with the samples of the input by timestamp */
+	public static final TranscodingHints.Key	KEY_MERGED_JTLS			= new StringListKey();
 	public static final TranscodingHints.Key	KEY_VERSION				= new StringKey();	;
 	public static final TranscodingHints.Key	KEY_BUILD_NR			= new StringKey();	;
 
-	private static final int					INDENT_AMOUNT			= 4;
+	private static final Charset				UTF8					= Charset.forName("UTF-8");
+	private static final int					WRITE_BUFFER_SIZE		= 64 * 1024;
+	/** Number of times a JTL which is truncated or replaced while reading it incrementally is read */
+	private static final int					MAX_READ_ATTEMPTS		= 3;
 
 	private TranscodingHints					hints;
 
@@ -107,16 +135,349 @@ public class JtlToSvgTranscoder implements Transcoder {
 	}
 
 	public void transcode(final TranscoderInput input, final TranscoderOutput output) throws TranscoderException {
-		List<Sample> samples = null;
 		try {
-			final JtlReader jtlReader = new JtlReader();
-			samples = jtlReader.readSamples(loadDocument(input), (String) hints.get(KEY_EXCLUDES), true);
-			renderAndSaveSVG(samples, output);
+			final AbstractSampleRenderer renderer;
+			if (hints.containsKey(KEY_STATE_FILE) && hints.containsKey(KEY_MERGED_JTLS)) {
+				throw new TranscoderException("Merged JTLs cannot be analysed incrementally.");
+			}
+			if (hints.containsKey(KEY_STATE_FILE) && input.getDocument() == null && input.getInputStream() == null) {
+				// only the samples appended since the previous run are read
+				final File stateFile = new File((String) hints.get(KEY_STATE_FILE));
+				renderer = readIncrementally(input, stateFile, JtlCheckpoint.read(stateFile, input.getURI(), getCheckpointSettings()));
+			} else if (isDiagramType("stats") && input.getDocument() == null && !isCached()) {
+				// descriptive statistics do not need the samples themselves, so they are calculated while streaming the JTL
+				renderer = recordDescriptiveStats(input);
+			} else {
+				renderer = createRenderer(loadSamples(input));
+			}
+			setRenderHints(renderer);
+			renderAndSave(renderer, output);
+		} catch (final Exception e) {
+			throw new TranscoderException(e);
+		}
+	}
+
+	/**
+	 * Reads the samples of the given input once, so several diagrams can be rendered from them by {@link #transcode(SampleTable, TranscoderOutput)}.
+	 *
+	 * @param input The transcoder input.
+	 * @return The samples which passed the configured exclusion filter.
+	 * @throws TranscoderException If the JTL cannot be read.
+	 */
+	public SampleTable readSamples(final TranscoderInput input) throws TranscoderException {
+		try {
+			return loadSamples(input);
 		} catch (final Exception e) {
 			throw new TranscoderException(e);
 		}
 	}
 
+	/**
+	 * Renders a diagram of samples which have been read before. The renderers do not modify the samples, so they can be shared by several diagrams.
+	 *
+	 * @param samples The samples, e.g. read by {@link #readSamples(TranscoderInput)}.
+	 * @param output The transcoder output.
+	 * @throws TranscoderException If rendering fails.
+	 */
+	public void transcode(final SampleTable samples, final TranscoderOutput output) throws TranscoderException {
+		try {
+			final AbstractSampleRenderer renderer = createRenderer(samples);
+			setRenderHints(renderer);
+			renderAndSave(renderer, output);
+		} catch (final Exception e) {
+			throw new TranscoderException(e);
+		}
+	}
+
+	/**
+	 * Reads the samples from the given input. Unless the input already holds a DOM, the JTL provided by the input's stream or URI is streamed with a pull
+	 * parser instead of being loaded into a DOM first.
+	 * 
+	 * @param input The transcoder input.
+	 * @return The samples which passed the configured exclusion filter.
+	 */
+	protected SampleTable loadSamples(final TranscoderInput input) throws ParserConfigurationException, SAXException, IOException {
+		final JtlReader jtlReader = new JtlReader();
+		final String excludeRegExp = (String) hints.get(KEY_EXCLUDES);
+		if (input.getDocument() != null) {
+			return jtlReader.readSamples(loadDocument(input), excludeRegExp, true);
+		}
+		if (input.getInputStream() != null) {
+			final SampleTable samples = new SampleTable();
+			jtlReader.readSamples(input.getInputStream(), excludeRegExp, true, samples.getAttributeDictionary(), new SampleHandler() {
+				public void handleSample(final Sample sample) {
+					samples.add(sample);
+				}
+			});
+			samples.trimToSize();
+			return samples;
+		}
+		final ParallelJtlReader parallelReader = new ParallelJtlReader(getNumThreads());
+		parallelReader.setMemoryMapped(isMemoryMapped());
+		parallelReader.setCached(isCached());
+		return parallelReader.readSamples(getJtlUris(input), excludeRegExp, true);
+	}
+
+	/**
+	 * @return The URI of the input followed by the URIs of the JTLs merged with it.
+	 */
+	@SuppressWarnings("unchecked")
+	private List<String> getJtlUris(final TranscoderInput input) {
+		final List<String> jtlUris = new ArrayList<String>();
+		jtlUris.add(input.getURI());
+		if (hints.containsKey(KEY_MERGED_JTLS)) {
+			jtlUris.addAll((List<String>) hints.get(KEY_MERGED_JTLS));
+		}
+		return jtlUris;
+	}
+
+	private boolean isMemoryMapped() {
+		return hints.containsKey(KEY_MEMORY_MAPPED) && ((Boolean) hints.get(KEY_MEMORY_MAPPED)).booleanValue();
+	}
+
+	private boolean isCached() {
+		return hints.containsKey(KEY_CACHE) && ((Boolean) hints.get(KEY_CACHE)).booleanValue();
+	}
+
+	/**
+	 * @return The number of threads used to read a JTL file, by default the number of available processors.
+	 */
+	private int getNumThreads() {
+		if (hints.containsKey(KEY_THREADS)) {
+			final String numThreadsString = (String) hints.get(KEY_THREADS);
+			try {
+				final int numThreads = Integer.parseInt(numThreadsString);
+				if (numThreads > 0) {
+					return numThreads;
+				}
+				System.err.println("Given number of threads has to be at least 1: " + numThreadsString);
+			} catch (final NumberFormatException e) {
+				System.err.println("Given number of threads is not a number: " + numThreadsString);
+			}
+		}
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Streams the JTL provided by the input's stream or URI and records the response times of all samples which pass the configured exclusion filter. Only the
+	 * response times are kept in memory, or a {@link LatencyRecorder} of fixed size if a number of significant digits is configured.
+	 * 
+	 * @param input The transcoder input.
+	 * @return A printer for the descriptive statistics of the recorded response times.
+	 */
+	protected DescriptiveStatisticsPrinter recordDescriptiveStats(final TranscoderInput input) {
+		final String excludeRegExp = (String) hints.get(KEY_EXCLUDES);
+		if (input.getInputStream() == null && hints.containsKey(KEY_MERGED_JTLS)) {
+			return recordDescriptiveStats(getJtlUris(input), excludeRegExp);
+		}
+		final DescriptiveStatsRecorder recorder = createStatsRecorder();
+
+		final JtlReader jtlReader = new JtlReader();
+		if (input.getInputStream() != null) {
+			jtlReader.readSamples(input.getInputStream(), excludeRegExp, true, recorder);
+		} else if (isMemoryMapped()) {
+			new MappedJtlReader().readSamples(input.getURI(), excludeRegExp, true, recorder);
+		} else {
+			jtlReader.readSamples(input.getURI(), excludeRegExp, true, recorder);
+		}
+		System.out.println("" + recorder.getNumSamples() + " samples read from JTL.");
+		return recorder.createPrinter();
+	}
+
+	/**
+	 * Streams the given JTLs concurrently, each into a recorder of its own, and merges the recorders afterwards. The order of the samples does not matter for
+	 * descriptive statistics, so the samples need not be merged by timestamp.
+	 */
+	private DescriptiveStatisticsPrinter recordDescriptiveStats(final List<String> jtlUris, final String excludeRegExp) {
+		final ExecutorService executor = Executors.newFixedThreadPool(Math.min(jtlUris.size(), getNumThreads()));
+		try {
+			final List<Future<DescriptiveStatsRecorder>> files = new ArrayList<Future<DescriptiveStatsRecorder>>();
+			for (final String jtlUri : jtlUris) {
+				final DescriptiveStatsRecorder fileRecorder = createStatsRecorder();
+				files.add(executor.submit(new Callable<DescriptiveStatsRecorder>() {
+					public DescriptiveStatsRecorder call() {
+						if (isMemoryMapped()) {
+							new MappedJtlReader().readSamples(jtlUri, excludeRegExp, true, fileRecorder);
+						} else {
+							new JtlReader().readSamples(jtlUri, excludeRegExp, true, fileRecorder);
+						}
+						return fileRecorder;
+					}
+				}));
+			}
+			final DescriptiveStatsRecorder recorder = createStatsRecorder();
+			for (final Future<DescriptiveStatsRecorder> file : files) {
+				recorder.merge(file.get());
+			}
+			System.out.println("" + recorder.getNumSamples() + " samples read from " + jtlUris.size() + " JTLs.");
+			return recorder.createPrinter();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new JtlReaderException(e);
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof JtlReaderException) {
+				throw (JtlReaderException) e.getCause();
+			}
+			throw new JtlReaderException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads the JTL file of the given input from the position of the given checkpoint on and merges the appended samples with the samples or response times
+	 * of the checkpoint. A new checkpoint is stored in the given state file afterwards, so the next run only reads the samples appended in the meantime. If
+	 * the checkpoint cannot be resumed or the JTL is truncated or replaced while reading it, it is read from the start again, at most
+	 * {@value #MAX_READ_ATTEMPTS} times in total.
+	 * 
+	 * @param input The transcoder input, has to provide the URI of a local JTL file.
+	 * @param stateFile The file storing the checkpoint.
+	 * @param checkpoint The checkpoint of the previous run or null if the JTL has to be read from the start.
+	 * @return The renderer of all samples read up to now.
+	 * @throws TranscoderException If the JTL keeps changing while reading it.
+	 */
+	protected AbstractSampleRenderer readIncrementally(final TranscoderInput input, final File stateFile, final JtlCheckpoint checkpoint)
+			throws IOException, TranscoderException {
+		JtlCheckpoint start = checkpoint;
+		for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+			final AbstractSampleRenderer renderer = readFromCheckpoint(input, stateFile, start);
+			if (renderer != null) {
+				return renderer;
+			}
+			start = null;
+		}
+		throw new TranscoderException("The JTL " + input.getURI() + " has been truncated or replaced during " + MAX_READ_ATTEMPTS + " attempts to read it.");
+	}
+
+	/**
+	 * Makes a single attempt of {@link #readIncrementally(TranscoderInput, File, JtlCheckpoint)}.
+	 * 
+	 * @return The renderer of all samples read up to now or null if the JTL has to be read from the start again.
+	 */
+	private AbstractSampleRenderer readFromCheckpoint(final TranscoderInput input, final File stateFile, final JtlCheckpoint checkpoint) throws IOException {
+		final SampleTable samples;
+		final DescriptiveStatsRecorder recorder;
+		if (isRecordingLatencies()) {
+			samples = new SampleTable();
+			recorder = checkpoint != null ? new DescriptiveStatsRecorder(checkpoint.getResponseTimes(), checkpoint.getStartOfFirstRequest(),
+					checkpoint.getEndOfLastRequest()) : new DescriptiveStatsRecorder(createLatencyRecorder());
+		} else {
+			samples = checkpoint != null ? checkpoint.getSamples() : new SampleTable();
+			recorder = null;
+		}
+		final long numStoredSamples = recorder != null ? recorder.getNumSamples() : samples.size();
+		final SampleHandler handler = recorder != null ? recorder : new SampleHandler() {
+			public void handleSample(final Sample sample) {
+				samples.add(sample);
+			}
+		};
+
+		final JtlFollower follower = new JtlFollower(input.getURI(), (String) hints.get(KEY_EXCLUDES), true, samples.getAttributeDictionary(), handler);
+		try {
+			if (checkpoint != null && !follower.resume(checkpoint.getPosition())) {
+				System.out.println("The JTL cannot be resumed at the position of the state " + stateFile.getName() + ", it is read from the start.");
+				return null;
+			}
+			if (!follower.poll()) {
+				System.out.println("The JTL has been truncated or replaced while reading it, it is read from the start.");
+				return null;
+			}
+			final long numSamples = recorder != null ? recorder.getNumSamples() : samples.size();
+			System.out.println("" + numSamples + " samples read from JTL, " + (numSamples - numStoredSamples) + " of them appended since the last run.");
+
+			final JtlCheckpoint newCheckpoint = recorder != null ? recorder.createCheckpoint(follower.getPosition()) : new JtlCheckpoint(
+					follower.getPosition(), samples);
+			newCheckpoint.write(stateFile, follower.getJtlFile(), getCheckpointSettings());
+		} finally {
+			follower.close();
+		}
+		return recorder != null ? recorder.createPrinter() : createRenderer(samples);
+	}
+
+	/**
+	 * @return The settings which affect the state stored in a checkpoint, a checkpoint stored with other settings cannot be resumed.
+	 */
+	private String getCheckpointSettings() {
+		final String state = isRecordingLatencies() ? "responseTimes " + hints.get(KEY_SIGNIFICANT_DIGITS) : "samples";
+		return state + "\n" + hints.get(KEY_EXCLUDES);
+	}
+
+	/**
+	 * Follows the JTL file of the given input while JMeter appends samples to it and renders the diagram to the given file whenever new samples have been
+	 * read. Only the appended bytes are parsed on every refresh, the samples or, for descriptive statistics, the recorded response times are kept in memory. If
+	 * the JTL is truncated or replaced it is followed from the start again. Returns when the thread is interrupted.
+	 * 
+	 * @param input The transcoder input, has to provide the URI of a local JTL file.
+	 * @param outputFile The SVG file which is replaced on every refresh.
+	 * @param refreshInterval The time between two refreshes in ms.
+	 * @throws TranscoderException If the JTL cannot be followed or rendering fails.
+	 */
+	public void follow(final TranscoderInput input, final File outputFile, final long refreshInterval) throws TranscoderException {
+		if (hints.containsKey(KEY_MERGED_JTLS)) {
+			throw new TranscoderException("Merged JTLs cannot be followed.");
+		}
+		final String excludeRegExp = (String) hints.get(KEY_EXCLUDES);
+		try {
+			while (true) {
+				final SampleTable samples = new SampleTable();
+				final DescriptiveStatsRecorder recorder = isRecordingLatencies() ? new DescriptiveStatsRecorder(createLatencyRecorder()) : null;
+				final SampleHandler handler = recorder != null ? recorder : new SampleHandler() {
+					public void handleSample(final Sample sample) {
+						samples.add(sample);
+					}
+				};
+				final JtlFollower follower = new JtlFollower(input.getURI(), excludeRegExp, true, samples.getAttributeDictionary(), handler);
+				try {
+					long numRendered = -1;
+					while (follower.poll()) {
+						final long numSamples = recorder != null ? recorder.getNumSamples() : samples.size();
+						if (numSamples != numRendered) {
+							final AbstractSampleRenderer renderer = recorder != null ? recorder.createPrinter() : createRenderer(samples);
+							setRenderHints(renderer);
+							renderAndReplace(renderer, outputFile);
+							numRendered = numSamples;
+							System.out.println("" + numSamples + " samples of " + follower.getJtlFile().getName() + " rendered to " + outputFile + ".");
+						}
+						Thread.sleep(refreshInterval);
+					}
+				} finally {
+					follower.close();
+				}
+				System.out.println("The JTL has been truncated or replaced, it is followed from the start.");
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (final Exception e) {
+			throw new TranscoderException(e);
+		}
+	}
+
+	/**
+	 * @return True if descriptive statistics are calculated from a {@link LatencyRecorder} of the configured precision instead of the exact response times.
+	 */
+	private boolean isRecordingLatencies() {
+		return isDiagramType("stats") && hints.containsKey(KEY_SIGNIFICANT_DIGITS);
+	}
+
+	private DescriptiveStatsRecorder createStatsRecorder() {
+		return isRecordingLatencies() ? new DescriptiveStatsRecorder(createLatencyRecorder()) : new DescriptiveStatsRecorder();
+	}
+
+	private LatencyRecorder createLatencyRecorder() {
+		if (hints.containsKey(KEY_SIGNIFICANT_DIGITS)) {
+			final String significantDigitsString = (String) hints.get(KEY_SIGNIFICANT_DIGITS);
+			try {
+				final int significantDigits = Integer.parseInt(significantDigitsString);
+				return new LatencyRecorder(LatencyRecorder.DEFAULT_HIGHEST_VALUE, significantDigits);
+			} catch (final NumberFormatException e) {
+				System.err.println("Given number of significant digits is not a number: " + significantDigitsString);
+			} catch (final IllegalArgumentException e) {
+				System.err.println(e.getMessage());
+			}
+		}
+		return new LatencyRecorder();
+	}
+
 	protected Document loadDocument(final TranscoderInput input) throws ParserConfigurationException, SAXException, IOException {
 		Document document = input.getDocument();
 		if (document == null) {
@@ -127,40 +488,75 @@ public class JtlToSvgTranscoder implements Transcoder {
 		return document;
 	}
 
-	private void renderAndSaveSVG(final List<Sample> samples, final TranscoderOutput output) throws TranscoderException, TransformerException,
-			URISyntaxException, IOException {
-		// Use SVGDOMImplementation to generate SVG content
-		final String svgNS = SVGDOMImplementation.SVG_NAMESPACE_URI;
-		final DOMImplementation impl = SVGDOMImplementation.getDOMImplementation();
-		final Document svgDocument = impl.createDocument(svgNS, "svg", null);
+	private boolean isDiagramType(final String diagramType) {
+		return hints.containsKey(KEY_DIAGRAM_TYPE) && diagramType.equals(hints.get(KEY_DIAGRAM_TYPE));
+	}
 
-		final AbstractSampleRenderer renderer;
-		if (hints.containsKey(KEY_DIAGRAM_TYPE) && "stats".equals(hints.get(KEY_DIAGRAM_TYPE))) {
-			renderer = new DescriptiveStatisticsPrinter(samples);
-		} else if (hints.containsKey(KEY_DIAGRAM_TYPE) && "scatter".equals(hints.get(KEY_DIAGRAM_TYPE))) {
-			renderer = new SampleScatterRenderer(samples);
+	private AbstractSampleRenderer createRenderer(final SampleTable samples) {
+		if (isRecordingLatencies()) {
+			final DescriptiveStatsRecorder recorder = createStatsRecorder();
+			for (int row = 0; row < samples.size(); row++) {
+				recorder.record(samples.getResponseTime(row), samples.getTimestamp(row));
+			}
+			return recorder.createPrinter();
+		} else if (isDiagramType("stats")) {
+			return new DescriptiveStatisticsPrinter(samples);
+		} else if (isDiagramType("scatter")) {
+			return new SampleScatterRenderer(samples);
 		} else {
-			renderer = new SampleHistogramRenderer(samples);
+			return new SampleHistogramRenderer(samples);
 		}
-		setRenderHints(renderer);
-
-		renderer.render((SVGDocument) svgDocument);
-
-		final Source xmlInput = new DOMSource(svgDocument);
-
-		final StreamResult xmlOutput = new StreamResult(output.getOutputStream());
+	}
 
-		final Transformer transformer = setupTransformer();
+	/**
+	 * Renders the diagram into the given output in the configured format. An image is rasterised from the SVG kept in memory, no temporary SVG file is
+	 * written.
+	 */
+	private void renderAndSave(final AbstractSampleRenderer renderer, final TranscoderOutput output) throws IOException, TranscoderException {
+		final String format = hints.containsKey(KEY_FORMAT) ? (String) hints.get(KEY_FORMAT) : FORMAT_SVG;
+		if (FORMAT_SVG.equals(format) || output.getDocument() != null) {
+			renderAndSaveSVG(renderer, output);
+			return;
+		}
+		final RasterImageTranscoder imageTranscoder = new RasterImageTranscoder(format);
+		final ByteArrayOutputStream svg = new ByteArrayOutputStream();
+		renderAndSaveSVG(renderer, new TranscoderOutput(svg));
+		imageTranscoder.transcode(new TranscoderInput(new ByteArrayInputStream(svg.toByteArray())), output);
+	}
 
-		transformer.transform(xmlInput, xmlOutput);
+	/**
+	 * Renders the diagram into the given output. Unless the output holds a DOM, the elements are streamed to it while they are rendered, so no DOM of the
+	 * whole diagram is built.
+	 */
+	private void renderAndSaveSVG(final AbstractSampleRenderer renderer, final TranscoderOutput output) throws IOException {
+		if (output.getDocument() != null) {
+			renderer.render(new DomSvgWriter(output.getDocument()));
+			return;
+		}
+		final Writer writer;
+		if (output.getWriter() != null) {
+			writer = output.getWriter();
+		} else {
+			writer = new BufferedWriter(new OutputStreamWriter(output.getOutputStream(), UTF8), WRITE_BUFFER_SIZE);
+		}
+		final StreamingSvgWriter svg = new StreamingSvgWriter(writer);
+		renderer.render(svg);
+		svg.endDocument();
 	}
 
-	protected Transformer setupTransformer() throws TransformerFactoryConfigurationError, TransformerConfigurationException {
-		final TransformerFactory transformerFactory = TransformerFactory.newInstance();
-		final Transformer transformer = transformerFactory.newTransformer();
-		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-		transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", Integer.toString(INDENT_AMOUNT));
-		return transformer;
+	/**
+	 * Renders the diagram into a temporary file which replaces the given file afterwards, so viewers refreshing the file never see an incomplete SVG. See
+	 * {@link JtlFiles#replace(File, File)} for the platforms on which the file may briefly be missing.
+	 */
+	private void renderAndReplace(final AbstractSampleRenderer renderer, final File outputFile) throws IOException, TranscoderException {
+		final File tempFile = new File(outputFile.getPath() + ".tmp");
+		final OutputStream ostream = new FileOutputStream(tempFile);
+		try {
+			renderAndSave(renderer, new TranscoderOutput(ostream));
+		} finally {
+			ostream.close();
+		}
+		JtlFiles.replace(tempFile, outputFile);
 	}
 
 	private void setRenderHints(final AbstractSampleRenderer renderer) {
@@ -256,6 +652,108 @@ public class JtlToSvgTranscoder implements Transcoder {
 			if (hints.containsKey(KEY_RESULT_COUNT)) {
 				scatterRenderer.setPlotResultCount(((Boolean) hints.get(KEY_RESULT_COUNT)).booleanValue());
 			}
+			if (hints.containsKey(KEY_DENSITY)) {
+				scatterRenderer.setUseDensity(((Boolean) hints.get(KEY_DENSITY)).booleanValue());
+			}
+			if (hints.containsKey(KEY_DECIMATE)) {
+				scatterRenderer.setUseDecimation(((Boolean) hints.get(KEY_DECIMATE)).booleanValue());
+			}
+		}
+	}
+
+	/**
+	 * Records the response times and the time span of the samples, so descriptive statistics can be printed without holding the samples in memory. The
+	 * response times are either kept exactly, which needs 4 bytes per sample, or counted by a {@link LatencyRecorder} of fixed size.
+	 */
+	private static class DescriptiveStatsRecorder implements SampleHandler {
+
+		/** Null if the response times are kept exactly */
+		private final LatencyRecorder	responseTimes;
+		private int[]					exactResponseTimes;
+		private int						numExactResponseTimes;
+		private long					startOfFirstRequest;
+		private long					endOfLastRequest;
+
+		/**
+		 * Creates a recorder which keeps the response times exactly.
+		 */
+		DescriptiveStatsRecorder() {
+			this(null, Long.MAX_VALUE, Long.MIN_VALUE);
+			this.exactResponseTimes = new int[1024];
+		}
+
+		DescriptiveStatsRecorder(final LatencyRecorder responseTimes) {
+			this(responseTimes, Long.MAX_VALUE, Long.MIN_VALUE);
+		}
+
+		DescriptiveStatsRecorder(final LatencyRecorder responseTimes, final long startOfFirstRequest, final long endOfLastRequest) {
+			super();
+			this.responseTimes = responseTimes;
+			this.startOfFirstRequest = startOfFirstRequest;
+			this.endOfLastRequest = endOfLastRequest;
+		}
+
+		public void handleSample(final Sample sample) {
+			record(sample.getResponseTime(), sample.getStartOfRequest().getTime());
+		}
+
+		void record(final int responseTime, final long timestamp) {
+			if (responseTimes != null) {
+				responseTimes.record(responseTime);
+			} else {
+				if (numExactResponseTimes == exactResponseTimes.length) {
+					exactResponseTimes = Arrays.copyOf(exactResponseTimes, numExactResponseTimes + (numExactResponseTimes >> 1));
+				}
+				exactResponseTimes[numExactResponseTimes++] = responseTime;
+			}
+			if (timestamp < startOfFirstRequest) startOfFirstRequest = timestamp;
+			if (timestamp + responseTime > endOfLastRequest) endOfLastRequest = timestamp + responseTime;
+		}
+
+		long getNumSamples() {
+			return responseTimes != null ? responseTimes.getTotalCount() : numExactResponseTimes;
+		}
+
+		void merge(final DescriptiveStatsRecorder other) {
+			if (responseTimes != null) {
+				responseTimes.merge(other.responseTimes);
+			} else {
+				exactResponseTimes = Arrays.copyOf(exactResponseTimes, numExactResponseTimes + other.numExactResponseTimes);
+				System.arraycopy(other.exactResponseTimes, 0, exactResponseTimes, numExactResponseTimes, other.numExactResponseTimes);
+				numExactResponseTimes += other.numExactResponseTimes;
+			}
+			if (other.startOfFirstRequest < startOfFirstRequest) startOfFirstRequest = other.startOfFirstRequest;
+			if (other.endOfLastRequest > endOfLastRequest) endOfLastRequest = other.endOfLastRequest;
+		}
+
+		DescriptiveStatisticsPrinter createPrinter() {
+			final Histogram histogram = new Histogram();
+			final long numSamples = getNumSamples();
+			if (numSamples > 0) {
+				if (responseTimes != null) {
+					histogram.setDescriptiveStats(responseTimes);
+				} else {
+					histogram.setDescriptiveStats(Arrays.copyOf(exactResponseTimes, numExactResponseTimes));
+				}
+				histogram.setStartOfFirstRequest(startOfFirstRequest);
+				histogram.setEndOfLastRequest(endOfLastRequest);
+			}
+			return new DescriptiveStatisticsPrinter(histogram, numSamples);
+		}
+
+		JtlCheckpoint createCheckpoint(final long position) {
+			return new JtlCheckpoint(position, responseTimes, startOfFirstRequest, endOfLastRequest);
+		}
+	}
+
+	/**
+	 * Key of a hint whose value is a list of strings.
+	 */
+	private static class StringListKey extends TranscodingHints.Key {
+
+		@Override
+		public boolean isCompatibleValue(final Object value) {
+			return value instanceof List;
 		}
 	}
 }
@@ -0,0 +1,125 @@
+package net.omikron.jtl.visualizer.transcoder;
+
+import java.util.Arrays;
+
+/**
+ * Keeps a single data point per pixel of the canvas, so the number of data points of a scatter plot is limited by the size of the canvas instead of the
+ * number of samples. Of the data points whose centers fall into the same pixel the one with the largest radius is kept, it covers the others as far as
+ * possible. The outliers with tooltips are all kept.
+ */
+final class PointDecimator {
+
+	private final int		width;
+	private final int		height;
+
+	/** Index of the data point kept for every pixel, -1 if the pixel does not contain a data point */
+	private final int[]		pointIndexes;
+	private double[]		xs				= new double[16];
+	private double[]		ys				= new double[16];
+	private double[]		radii			= new double[16];
+	private int				numPoints		= 0;
+
+	private double[]		outlierXs		= new double[16];
+	private double[]		outlierYs		= new double[16];
+	private int[]			outlierRows		= new int[16];
+	private int				numOutliers		= 0;
+
+	/**
+	 * @param width The width of the canvas in pixels.
+	 * @param height The height of the canvas in pixels.
+	 */
+	PointDecimator(final int width, final int height) {
+		super();
+		this.width = width;
+		this.height = height;
+		this.pointIndexes = new int[width * height];
+		Arrays.fill(pointIndexes, -1);
+	}
+
+	/**
+	 * Keeps a data point unless the pixel of its center already contains a data point with a larger radius.
+	 *
+	 * @param x The x coordinate of the center on the canvas.
+	 * @param y The y coordinate of the center on the canvas.
+	 * @param r The radius.
+	 * @return False if the center is outside of the canvas, the data point is not kept then.
+	 */
+	boolean add(final double x, final double y, final double r) {
+		if (!(x >= 0.0 && x < width && y >= 0.0 && y < height)) {
+			return false;
+		}
+		final int pixel = (int) y * width + (int) x;
+		int index = pointIndexes[pixel];
+		if (index < 0) {
+			if (numPoints == xs.length) {
+				final int capacity = numPoints * 2;
+				xs = Arrays.copyOf(xs, capacity);
+				ys = Arrays.copyOf(ys, capacity);
+				radii = Arrays.copyOf(radii, capacity);
+			}
+			index = numPoints++;
+			pointIndexes[pixel] = index;
+		} else if (radii[index] >= r) {
+			return true;
+		}
+		xs[index] = x;
+		ys[index] = y;
+		radii[index] = r;
+		return true;
+	}
+
+	/**
+	 * Keeps an outlier, outliers are never dropped.
+	 *
+	 * @param x The x coordinate of the center on the canvas.
+	 * @param y The y coordinate of the center on the canvas.
+	 * @param row The row of the outlier in the sample table.
+	 */
+	void addOutlier(final double x, final double y, final int row) {
+		if (numOutliers == outlierRows.length) {
+			final int capacity = numOutliers * 2;
+			outlierXs = Arrays.copyOf(outlierXs, capacity);
+			outlierYs = Arrays.copyOf(outlierYs, capacity);
+			outlierRows = Arrays.copyOf(outlierRows, capacity);
+		}
+		outlierXs[numOutliers] = x;
+		outlierYs[numOutliers] = y;
+		outlierRows[numOutliers] = row;
+		numOutliers++;
+	}
+
+	/**
+	 * @return The number of data points kept, at most one per pixel, in the order in which their pixels were first hit.
+	 */
+	int getNumPoints() {
+		return numPoints;
+	}
+
+	double getX(final int index) {
+		return xs[index];
+	}
+
+	double getY(final int index) {
+		return ys[index];
+	}
+
+	double getRadius(final int index) {
+		return radii[index];
+	}
+
+	int getNumOutliers() {
+		return numOutliers;
+	}
+
+	double getOutlierX(final int index) {
+		return outlierXs[index];
+	}
+
+	double getOutlierY(final int index) {
+		return outlierYs[index];
+	}
+
+	int getOutlierRow(final int index) {
+		return outlierRows[index];
+	}
+}
@@ -0,0 +1,120 @@
+package net.omikron.jtl.visualizer.transcoder;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.RedRable;
+import org.apache.batik.ext.awt.image.rendered.Any2sRGBRed;
+import org.apache.batik.ext.awt.image.rendered.FormatRed;
+import org.apache.batik.ext.awt.image.spi.ErrorConstants;
+import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
+import org.apache.batik.ext.awt.image.spi.MagicNumberRegistryEntry;
+import org.apache.batik.transcoder.TranscoderException;
+import org.apache.batik.transcoder.TranscoderOutput;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+import org.apache.batik.util.ParsedURL;
+
+/**
+ * Rasterises an SVG with Batik and writes the image as PNG or JPEG with the image writers of the JRE. Batik's own PNGTranscoder and JPEGTranscoder need the
+ * codecs of batik-codec, which is not a dependency. For the same reason PNG images embedded in the SVG, e.g. of a density plot, are read with the image
+ * readers of the JRE.
+ */
+public class RasterImageTranscoder extends ImageTranscoder {
+
+	public static final String	FORMAT_PNG		= "png";
+	public static final String	FORMAT_JPEG		= "jpg";
+
+	private static final float	JPEG_QUALITY	= 0.9f;
+
+	private final String		format;
+
+	static {
+		ImageTagRegistry.getRegistry().register(new PngRegistryEntry());
+	}
+
+	/**
+	 * @param format The format of the image, {@link #FORMAT_PNG} or {@link #FORMAT_JPEG}.
+	 */
+	public RasterImageTranscoder(final String format) {
+		super();
+		if (!FORMAT_PNG.equals(format) && !FORMAT_JPEG.equals(format)) {
+			throw new IllegalArgumentException("Unsupported image format: " + format);
+		}
+		this.format = format;
+		if (FORMAT_JPEG.equals(format)) {
+			// JPEG has no transparency
+			addTranscodingHint(KEY_BACKGROUND_COLOR, Color.WHITE);
+		}
+	}
+
+	@Override
+	public BufferedImage createImage(final int width, final int height) {
+		return new BufferedImage(width, height, FORMAT_JPEG.equals(format) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+	}
+
+	@Override
+	public void writeImage(final BufferedImage image, final TranscoderOutput output) throws TranscoderException {
+		if (output.getOutputStream() == null) {
+			throw new TranscoderException("Images can only be written to an output stream.");
+		}
+		final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+		if (!writers.hasNext()) {
+			throw new TranscoderException("No image writer is available for " + format + ".");
+		}
+		final ImageWriter writer = writers.next();
+		try {
+			final ImageOutputStream stream = ImageIO.createImageOutputStream(output.getOutputStream());
+			try {
+				writer.setOutput(stream);
+				final ImageWriteParam param = writer.getDefaultWriteParam();
+				if (FORMAT_JPEG.equals(format)) {
+					param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+					param.setCompressionQuality(JPEG_QUALITY);
+				}
+				writer.write(null, new IIOImage(image, null, null), param);
+			} finally {
+				stream.close();
+			}
+		} catch (final IOException e) {
+			throw new TranscoderException(e);
+		} finally {
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * Reads the PNG images referenced by an SVG with the image readers of the JRE.
+	 */
+	private static class PngRegistryEntry extends MagicNumberRegistryEntry {
+
+		private static final byte[]	SIGNATURE	= {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+		PngRegistryEntry() {
+			super("PNG", "png", "image/png", 0, SIGNATURE);
+		}
+
+		public Filter handleStream(final InputStream inputStream, final ParsedURL origURL, final boolean needRawData) {
+			final String url = origURL != null ? origURL.toString() : null;
+			try {
+				final BufferedImage image = ImageIO.read(inputStream);
+				if (image != null) {
+					return new RedRable(new FormatRed(new Any2sRGBRed(GraphicsUtil.wrap(image)), GraphicsUtil.sRGB_Unpre));
+				}
+				return ImageTagRegistry.getBrokenLinkImage(this, ErrorConstants.ERR_URL_FORMAT_UNREADABLE, new Object[] {"PNG", url});
+			} catch (final IOException e) {
+				return ImageTagRegistry.getBrokenLinkImage(this, ErrorConstants.ERR_STREAM_UNREADABLE, new Object[] {url, e.getMessage()});
+			}
+		}
+	}
+}
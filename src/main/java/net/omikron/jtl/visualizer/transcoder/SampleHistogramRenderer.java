@@ -5,8 +5,10 @@ import java.net.URLDecoder;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -16,14 +18,15 @@ import java.util.TreeMap;
 import java.util.TreeSet;
 
 import net.omikron.jtl.visualizer.histogram.Bin;
+import net.omikron.jtl.visualizer.histogram.BinBounds;
 import net.omikron.jtl.visualizer.histogram.BinList;
 import net.omikron.jtl.visualizer.histogram.Histogram;
-import net.omikron.jtl.visualizer.sample.Sample;
+import net.omikron.jtl.visualizer.sample.QueryParamIndex;
+import net.omikron.jtl.visualizer.sample.SampleTable;
+import net.omikron.jtl.visualizer.sample.StringDictionary;
 import net.omikron.util.NaturalOrderComparator;
 
 import org.apache.commons.lang.StringUtils;
-import org.w3c.dom.Element;
-import org.w3c.dom.svg.SVGDocument;
 
 public class SampleHistogramRenderer extends AbstractSampleRenderer {
 
@@ -74,6 +77,8 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 	private static final int		LEGEND_Y								= DESCRIPTION_Y + DESCRIPTION_HEIGHT + CANVAS_MARGIN / 4;
 	private static final int		LEGEND_MAXIMAL_LINESIZE					= 20;
 
+	private static final int[]		NO_SEGMENTS								= new int[0];
+
 	/* Variables used to configure the behavior of this renderer (with default values) */
 	private int						numBins									= DEFAULT_NUMBER_OF_BINS;
 	private DiagramType				diagramType								= DEFAULT_DIAGRAM_TYPE;
@@ -83,12 +88,16 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 	private boolean					useRelativeDataLabel					= false;
 	private boolean					useXAxisDoubleUpQuart					= false;
 
+	/* Query parameters of the samples and derived values, created on first use */
+	private QueryParamIndex			queryParamIndex							= null;
+	private int[]					numQueryWords							= null;
+
 	/**
 	 * Constructs a sample painter which creates a histogram from the provided samples.
 	 * 
 	 * @param samples
 	 */
-	public SampleHistogramRenderer(final List<Sample> samples) {
+	public SampleHistogramRenderer(final SampleTable samples) {
 		super(samples);
 		this.title = DEFAULT_TITLE;
 		this.version = DEFAULT_VERSION;
@@ -101,14 +110,10 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 	 * @param svgGraphics The SVG Graphics 2D object to paint on.
 	 */
 	@Override
-	public void render(final SVGDocument svgDocument) {
-		this.svgDocument = svgDocument;
-		this.svgRoot = svgDocument.getDocumentElement();
-
-		addCSS();
-		addMarkers();
+	public void render(final SvgWriter svg) {
+		this.svg = svg;
 
-		renderFrame(title);
+		setDimensions();
 
 		if (samples != null && !samples.isEmpty()) {
 			final Histogram histogram = new Histogram();
@@ -147,17 +152,23 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 			} else {
 				yUpperBound = histogram.getMaxFrequency();
 			}
-			renderCoordinateSystem(histogram, lowerBound, yUpperBound, useLogScaleYAxis);
+			// the gradients of the bins are defined before everything else
 			final List<String> colors = setupColors(histogram, segmentParamName);
+			addCSS();
+			addMarkers();
+			renderFrame(title);
+
+			renderCoordinateSystem(histogram, lowerBound, yUpperBound, useLogScaleYAxis);
 			renderHistogram(histogram, useLogScaleYAxis, yUpperBound, orderedSegments, colors);
 			renderLegend(histogram, segmentParamName, orderedSegments, colors);
 			renderDescriptiveStatistics(histogram);
 			renderBuildinfo(histogram);
 		} else {
+			addCSS();
+			addMarkers();
+			renderFrame(title);
 			renderEmptyMsg();
 		}
-
-		setDimensions();
 	}
 
 	/**
@@ -262,7 +273,7 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 		final Map<String, BinList> bins = histogram.getBins();
 		int numBinLists = bins.size();
 		final List<String> colors = new ArrayList<String>(numBinLists);
-		final Element defs = svgDocument.createElement("defs");
+		svg.startElement("defs");
 		String color;
 
 		final boolean isHeatmap = areSegmentsOrdered(segmentParamName);
@@ -282,12 +293,12 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 				color = COLOR_PALETTE_FACT_FINDER[i % COLOR_PALETTE_FACT_FINDER.length];
 			}
 			colors.add(color);
-			defs.appendChild(getGradient(color, i));
+			renderGradient(color, i);
 
 			i++;
 		}
 
-		svgRoot.insertBefore(defs, svgRoot.getFirstChild());
+		svg.endElement();
 
 		return colors;
 	}
@@ -327,24 +338,25 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 				&& (segmentParamName.equals(SEGMENT_PARAM_OPTION_NUM_FILTERS) || segmentParamName.equals(SEGMENT_PARAM_OPTION_NUM_QUERY_WORDS));
 	}
 
-	private Element getGradient(final String color, final int i) {
-		final Element gradient = svgDocument.createElement("radialGradient");
-		gradient.setAttribute("id", "verticalGradient" + i);
-		gradient.setAttribute("cx", "100%");
-		gradient.setAttribute("cy", "100%");
-		gradient.setAttribute("r", "100%");
-		gradient.setAttribute("fx", "80%");
-		gradient.setAttribute("fy", "80%");
-
-		final Element stop1 = svgDocument.createElement("stop");
-		stop1.setAttribute("offset", "0%");
-		stop1.setAttribute("style", "stop-color:" + color + ";stop-opacity:0.4");
-		gradient.appendChild(stop1);
-		final Element stop2 = svgDocument.createElement("stop");
-		stop2.setAttribute("offset", "100%");
-		stop2.setAttribute("style", "stop-color:" + color + ";stop-opacity:0.8");
-		gradient.appendChild(stop2);
-		return gradient;
+	private void renderGradient(final String color, final int i) {
+		svg.startElement("radialGradient");
+		svg.attribute("id", "verticalGradient" + i);
+		svg.attribute("cx", "100%");
+		svg.attribute("cy", "100%");
+		svg.attribute("r", "100%");
+		svg.attribute("fx", "80%");
+		svg.attribute("fy", "80%");
+
+		svg.startElement("stop");
+		svg.attribute("offset", "0%");
+		svg.attribute("style", "stop-color:" + color + ";stop-opacity:0.4");
+		svg.endElement();
+		svg.startElement("stop");
+		svg.attribute("offset", "100%");
+		svg.attribute("style", "stop-color:" + color + ";stop-opacity:0.8");
+		svg.endElement();
+
+		svg.endElement();
 	}
 
 	private void renderBuildinfo(final Histogram histogram) {
@@ -353,26 +365,25 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 		final int x = BUILDINFO_X;
 		final int y = BUILDINFO_Y;
 
-		final Element stats = svgDocument.createElement("g");
-		stats.setAttribute("id", "buildinfo");
+		startGroup("buildinfo");
 
-		stats.appendChild(getRectangle(x, y, width, height, "fill: white; opacity: 0.5; stroke: black; stroke-width: 1.0"));
+		renderRectangle(x, y, width, height, "fill: white; opacity: 0.5; stroke: black; stroke-width: 1.0");
 
 		final int xLeft = x + width / 2 + 10;
 		final int xRight = x + width - 25;
 
-		stats.appendChild(getText("Test Data Version:", xLeft, y + 20, TEXT_STYLE_P, "end"));
-		stats.appendChild(getText(this.getVersion(), xRight, y + 20, TEXT_STYLE_P, "end"));
+		renderText("Test Data Version:", xLeft, y + 20, TEXT_STYLE_P, "end");
+		renderText(this.getVersion(), xRight, y + 20, TEXT_STYLE_P, "end");
 
-		stats.appendChild(getText("Build Date:", xLeft, y + 40, TEXT_STYLE_P, "end"));
-		stats.appendChild(getText(this.getDate(), xRight, y + 40, TEXT_STYLE_P, "end"));
+		renderText("Build Date:", xLeft, y + 40, TEXT_STYLE_P, "end");
+		renderText(this.getDate(), xRight, y + 40, TEXT_STYLE_P, "end");
 
 		/*
 		 * If you add or remove elements and now need more or less space change BUILDINFO_USED_HEIGHT to shrink or expand the Box around the Description. It
 		 * should be equal to the y-Coordinate of your lowest Text.
 		 */
 
-		svgRoot.appendChild(stats);
+		endGroup();
 	}
 
 	private void renderDescriptiveStatistics(final Histogram histogram) {
@@ -381,49 +392,48 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 		final int x = DESCRIPTION_X;
 		final int y = DESCRIPTION_Y;
 
-		final Element stats = svgDocument.createElement("g");
-		stats.setAttribute("id", "statistics");
+		startGroup("statistics");
 
-		stats.appendChild(getRectangle(x, y, width, height, "fill: white; opacity: 0.5; stroke: black; stroke-width: 1.0"));
+		renderRectangle(x, y, width, height, "fill: white; opacity: 0.5; stroke: black; stroke-width: 1.0");
 
 		final int xLeft = x + width / 2 + 10;
 		final int xRight = x + width - 25;
 
-		stats.appendChild(getText("Requests:", xLeft, y + 20, TEXT_STYLE_P, "end"));
-		stats.appendChild(getText(numberFormat0Digits.format(samples.size()), xRight, y + 20, TEXT_STYLE_P, "end"));
+		renderText("Requests:", xLeft, y + 20, TEXT_STYLE_P, "end");
+		renderText(numberFormat0Digits.format(samples.size()), xRight, y + 20, TEXT_STYLE_P, "end");
 
 		final double throughput = (double) (samples.size() * 1000) / (histogram.getEndOfLastRequest() - histogram.getStartOfFirstRequest());
-		stats.appendChild(getText("Throughput:", xLeft, y + 40, TEXT_STYLE_P, "end"));
-		stats.appendChild(getText(numberFormat2Digits.format(throughput) + " rps", xRight, y + 40, TEXT_STYLE_P, "end"));
+		renderText("Throughput:", xLeft, y + 40, TEXT_STYLE_P, "end");
+		renderText(numberFormat2Digits.format(throughput) + " rps", xRight, y + 40, TEXT_STYLE_P, "end");
 
 		final int max = histogram.getMax();
 		final int quartUp = histogram.getQuartUp();
 		final int median = histogram.getMedian();
 		final int quartLow = histogram.getQuartLow();
 		final int min = histogram.getMin();
-		stats.appendChild(getText("Response times:", xLeft, y + 70, TEXT_STYLE_P, "end"));
+		renderText("Response times:", xLeft, y + 70, TEXT_STYLE_P, "end");
 
-		stats.appendChild(getText("Minimum:", xLeft, y + 90, TEXT_STYLE_P, "end"));
-		stats.appendChild(getText(numberFormat0Digits.format(min) + " ms", xRight, y + 90, TEXT_STYLE_P, "end"));
+		renderText("Minimum:", xLeft, y + 90, TEXT_STYLE_P, "end");
+		renderText(numberFormat0Digits.format(min) + " ms", xRight, y + 90, TEXT_STYLE_P, "end");
 
-		stats.appendChild(getText("Lower quartile:", xLeft, y + 110, TEXT_STYLE_P, "end"));
-		stats.appendChild(getText(numberFormat0Digits.format(quartLow) + " ms", xRight, y + 110, TEXT_STYLE_P, "end"));
+		renderText("Lower quartile:", xLeft, y + 110, TEXT_STYLE_P, "end");
+		renderText(numberFormat0Digits.format(quartLow) + " ms", xRight, y + 110, TEXT_STYLE_P, "end");
 
-		stats.appendChild(getText("Median:", xLeft, y + 130, TEXT_STYLE_P, "end"));
-		stats.appendChild(getText(numberFormat0Digits.format(median) + " ms", xRight, y + 130, TEXT_STYLE_P, "end"));
+		renderText("Median:", xLeft, y + 130, TEXT_STYLE_P, "end");
+		renderText(numberFormat0Digits.format(median) + " ms", xRight, y + 130, TEXT_STYLE_P, "end");
 
-		stats.appendChild(getText("Upper quartile:", xLeft, y + 150, TEXT_STYLE_P, "end"));
-		stats.appendChild(getText(numberFormat0Digits.format(quartUp) + " ms", xRight, y + 150, TEXT_STYLE_P, "end"));
+		renderText("Upper quartile:", xLeft, y + 150, TEXT_STYLE_P, "end");
+		renderText(numberFormat0Digits.format(quartUp) + " ms", xRight, y + 150, TEXT_STYLE_P, "end");
 
-		stats.appendChild(getText("Maximum:", xLeft, y + 170, TEXT_STYLE_P, "end"));
-		stats.appendChild(getText(numberFormat0Digits.format(max) + " ms", xRight, y + 170, TEXT_STYLE_P, "end"));
+		renderText("Maximum:", xLeft, y + 170, TEXT_STYLE_P, "end");
+		renderText(numberFormat0Digits.format(max) + " ms", xRight, y + 170, TEXT_STYLE_P, "end");
 
 		/*
 		 * If you add or remove elements and now need more or less space change DESCRIPTION_USED_HEIGHT to shrink or expand the Box around the Description. It
 		 * should be equal to the y-Coordinate of your lowest Text.
 		 */
 
-		svgRoot.appendChild(stats);
+		endGroup();
 	}
 
 	private void renderLegend(final Histogram histogram, final String segmentParam, final List<String> orderedSegments, final List<String> colors) {
@@ -433,20 +443,38 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 			final int x = LEGEND_X;
 			final int y = LEGEND_Y;
 
-			final Element legend = svgDocument.createElement("g");
+			// the frame and the scale of the legend depend on its height, so the labels of the segments are wrapped first
+			final List<List<String>> segmentLabels = new ArrayList<List<String>>(orderedSegments.size());
+			int numLines = 2;
+			for (final String segment : orderedSegments) {
+				final List<String> segmentLabel = getLegendLabel(segmentParam, segment);
+				segmentLabels.add(segmentLabel);
+				numLines += segmentLabel.size();
+			}
+			final int height = dy * (numLines + 1);
+
+			startGroup("legend");
+			if (height > CANVAS_HEIGHT / 2) {
+				final double scale = CANVAS_HEIGHT / 2.0 / height;
+				final double scalePivotX = x + width;
+				final double scalePivotY = y;
+				svg.attribute("transform", "translate(" + (-scalePivotX * (scale - 1)) + ", " + (-scalePivotY * (scale - 1)) + ") scale(" + scale + ")");
+			}
+
+			renderRectangle(x, y, width, height, "fill: white; opacity: 0.5; stroke: black; stroke-width: 1.0");
 
-			// legend.appendChild(getText("Legend", x + 20, y + dy + 10, TEXT_STYLE_P, "start"));
+			// renderText("Legend", x + 20, y + dy + 10, TEXT_STYLE_P, "start");
 			if (StringUtils.isNotEmpty(segmentParam)) {
 				if (SEGMENT_PARAM_OPTION_NUM_QUERY_WORDS.equals(segmentParam)) {
-					legend.appendChild(getText("# words in", x + width / 4 + 20, y + dy + 4, TEXT_STYLE_T, "start"));
-					legend.appendChild(getText("search query", x + width / 4 + 20, y + dy + 14, TEXT_STYLE_T, "start"));
+					renderText("# words in", x + width / 4 + 20, y + dy + 4, TEXT_STYLE_T, "start");
+					renderText("search query", x + width / 4 + 20, y + dy + 14, TEXT_STYLE_T, "start");
 				} else if (SEGMENT_PARAM_OPTION_NUM_FILTERS.equals(segmentParam)) {
-					legend.appendChild(getText("# filters", x + width / 4 + 20, y + dy + 10, TEXT_STYLE_P, "start"));
+					renderText("# filters", x + width / 4 + 20, y + dy + 10, TEXT_STYLE_P, "start");
 				} else {
-					legend.appendChild(getText(segmentParam, x + width / 4 + 20, y + dy + 10, TEXT_STYLE_P, "start"));
+					renderText(segmentParam, x + width / 4 + 20, y + dy + 10, TEXT_STYLE_P, "start");
 				}
 			}
-			legend.appendChild(getText("#", x + width - 20, y + dy + 10, TEXT_STYLE_P, "end"));
+			renderText("#", x + width - 20, y + dy + 10, TEXT_STYLE_P, "end");
 
 			/* counts the segment we are currently working on */
 			int segmentNr = 0;
@@ -456,72 +484,71 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 			for (final String segment : orderedSegments) {
 				final int color = segmentNr % colors.size();
 				// color of bins
-				legend.appendChild(getRectangle(x + 20, y + line * dy + 2, width / 4 - 20, 16, "fill: url(#verticalGradient" + color + "); stroke-width: 0.5"));
+				renderRectangle(x + 20, y + line * dy + 2, width / 4 - 20, 16, "fill: url(#verticalGradient" + color + "); stroke-width: 0.5");
 
 				// name of bins
-				String segmentLabel;
-				if (SEGMENT_PARAM_OPTION_NUM_QUERY_WORDS.equals(segmentParam)) {
-					segmentLabel = segment.replaceAll(Histogram.NO_SEGMENT_PARAM, "no query");
-				} else if (SEGMENT_PARAM_OPTION_NUM_FILTERS.equals(segmentParam)) {
-					segmentLabel = segment.replaceAll(Histogram.NO_SEGMENT_PARAM, "no filters");
-				} else {
-					segmentLabel = segment.replaceAll(Histogram.NO_SEGMENT_PARAM, "other");
-				}
-
-				while (segmentLabel.length() > LEGEND_MAXIMAL_LINESIZE) {
-					final int lastSpacePosition = segmentLabel.substring(0, LEGEND_MAXIMAL_LINESIZE).lastIndexOf(" ");
-					if (lastSpacePosition <= 0) {
-						// not dividable
-						break;
-					}
-					legend.appendChild(getText(segmentLabel.substring(0, lastSpacePosition), x + width / 4 + 20, y + line * dy + 16, TEXT_STYLE_P, "start"));
-					segmentLabel = segmentLabel.substring(lastSpacePosition);
+				final List<String> segmentLabel = segmentLabels.get(segmentNr);
+				for (int i = 0; i < segmentLabel.size() - 1; i++) {
+					renderText(segmentLabel.get(i), x + width / 4 + 20, y + line * dy + 16, TEXT_STYLE_P, "start");
 					line++;
 				}
-
-				legend.appendChild(getText(segmentLabel, x + width / 4 + 20, y + line * dy + 16, TEXT_STYLE_P, "start"));
+				renderText(segmentLabel.get(segmentLabel.size() - 1), x + width / 4 + 20, y + line * dy + 16, TEXT_STYLE_P, "start");
 
 				// total number of bin frequencies
 				final int totalFrequency = histogram.getBins().get(segment).getTotalFrequency();
-				legend.appendChild(getText(numberFormat0Digits.format(totalFrequency), x + width - 20, y + line * dy + 16, TEXT_STYLE_P, "end"));
+				renderText(numberFormat0Digits.format(totalFrequency), x + width - 20, y + line * dy + 16, TEXT_STYLE_P, "end");
 
 				segmentNr++;
 				line++;
 			}
 
-			final int height = dy * (line + 1);
-
-			legend.setAttribute("id", "legend");
-			if (height > CANVAS_HEIGHT / 2) {
-				final double scale = CANVAS_HEIGHT / 2.0 / height;
-				final double scalePivotX = x + width;
-				final double scalePivotY = y;
-				legend.setAttribute("transform", "translate(" + (-scalePivotX * (scale - 1)) + ", " + (-scalePivotY * (scale - 1)) + ") scale(" + scale + ")");
-			}
+			endGroup();
+		}
+	}
 
-			legend.insertBefore((getRectangle(x, y, width, height, "fill: white; opacity: 0.5; stroke: black; stroke-width: 1.0")), legend.getFirstChild());
+	/**
+	 * @return The lines of the legend label of the given segment, long labels are wrapped at spaces.
+	 */
+	private List<String> getLegendLabel(final String segmentParam, final String segment) {
+		String segmentLabel;
+		if (SEGMENT_PARAM_OPTION_NUM_QUERY_WORDS.equals(segmentParam)) {
+			segmentLabel = segment.replaceAll(Histogram.NO_SEGMENT_PARAM, "no query");
+		} else if (SEGMENT_PARAM_OPTION_NUM_FILTERS.equals(segmentParam)) {
+			segmentLabel = segment.replaceAll(Histogram.NO_SEGMENT_PARAM, "no filters");
+		} else {
+			segmentLabel = segment.replaceAll(Histogram.NO_SEGMENT_PARAM, "other");
+		}
 
-			svgRoot.appendChild(legend);
+		final List<String> lines = new ArrayList<String>();
+		while (segmentLabel.length() > LEGEND_MAXIMAL_LINESIZE) {
+			final int lastSpacePosition = segmentLabel.substring(0, LEGEND_MAXIMAL_LINESIZE).lastIndexOf(" ");
+			if (lastSpacePosition <= 0) {
+				// not dividable
+				break;
+			}
+			lines.add(segmentLabel.substring(0, lastSpacePosition));
+			segmentLabel = segmentLabel.substring(lastSpacePosition);
 		}
+		lines.add(segmentLabel);
+		return lines;
 	}
 
 	private void renderCoordinateSystem(final Histogram histogram, final int lowerBound, final int yAxisMax, final boolean useLogScaleYAxis) {
-		svgRoot.appendChild(renderXAxis(histogram, lowerBound));
-		svgRoot.appendChild(renderYAxis(histogram, useLogScaleYAxis, yAxisMax));
+		renderXAxis(histogram, lowerBound);
+		renderYAxis(histogram, useLogScaleYAxis, yAxisMax);
 	}
 
-	private Element renderXAxis(final Histogram histogram, final int lowerBound) {
+	private void renderXAxis(final Histogram histogram, final int lowerBound) {
 		final int margin = CANVAS_MARGIN / 2;
 		final double sx = OFFSET_X + margin - BAR_SEP / 2;
 		final double sy = CANVAS_HEIGHT - margin;
 
-		final Element xAxis = svgDocument.createElement("g");
-		xAxis.setAttribute("id", "xAxis");
-		xAxis.appendChild(getArrow(	OFFSET_X + margin - OFFSET_AXIS, CANVAS_HEIGHT - margin + OFFSET_AXIS, CANVAS_WIDTH - margin + OFFSET_AXIS + 18,
-									CANVAS_HEIGHT - margin + OFFSET_AXIS, null, "black", 1.0));
-		xAxis.appendChild(getText("response", CANVAS_WIDTH - margin + OFFSET_AXIS - 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 16, TEXT_STYLE_T, "start"));
-		xAxis.appendChild(getText("time", CANVAS_WIDTH - margin + OFFSET_AXIS - 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 26, TEXT_STYLE_T, "start"));
-		xAxis.appendChild(getText("in ms", CANVAS_WIDTH - margin + OFFSET_AXIS - 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 36, TEXT_STYLE_T, "start"));
+		startGroup("xAxis");
+		renderArrow(	OFFSET_X + margin - OFFSET_AXIS, CANVAS_HEIGHT - margin + OFFSET_AXIS, CANVAS_WIDTH - margin + OFFSET_AXIS + 18,
+									CANVAS_HEIGHT - margin + OFFSET_AXIS, null, "black", 1.0);
+		renderText("response", CANVAS_WIDTH - margin + OFFSET_AXIS - 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 16, TEXT_STYLE_T, "start");
+		renderText("time", CANVAS_WIDTH - margin + OFFSET_AXIS - 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 26, TEXT_STYLE_T, "start");
+		renderText("in ms", CANVAS_WIDTH - margin + OFFSET_AXIS - 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 36, TEXT_STYLE_T, "start");
 
 		final Iterator<BinList> binsIterator = histogram.getBins().values().iterator();
 		if (binsIterator.hasNext()) {
@@ -536,34 +563,31 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 				minXValue = lowerBound;
 			}
 
-			xAxis.appendChild(getLine(sx, sy + OFFSET_AXIS, sx, sy + 2 * OFFSET_AXIS, null, "black", 0.5));
-			Element label = getText(numberFormat0Digits.format(minXValue), sx - step / 8, (sy + 4 * OFFSET_AXIS), TEXT_STYLE_T, "end");
-			label.setAttribute("transform", "rotate(-45 " + (sx - step / 8) + "," + (sy + 4 * OFFSET_AXIS) + ")");
-			xAxis.appendChild(label);
+			renderLine(sx, sy + OFFSET_AXIS, sx, sy + 2 * OFFSET_AXIS, null, "black", 0.5);
+			renderText(	numberFormat0Digits.format(minXValue), sx - step / 8, (sy + 4 * OFFSET_AXIS), TEXT_STYLE_T, "end", "rotate(-45 " + (sx - step / 8) + ","
+								+ (sy + 4 * OFFSET_AXIS) + ")");
 
 			for (int i = 0; i < bins.getNumBins(); i++) {
 				final Bin bin = bins.getBin(i);
 				final double x = sx + (i + 1) * step;
 
-				xAxis.appendChild(getLine(x, sy + OFFSET_AXIS, x, sy + 2 * OFFSET_AXIS, null, "black", 0.5));
-				label = getText(numberFormat0Digits.format(bin.getBound()), x - step / 8, (sy + 4 * OFFSET_AXIS), TEXT_STYLE_T, "end");
-				label.setAttribute("transform", "rotate(-45 " + (x - step / 8) + "," + (sy + 4 * OFFSET_AXIS) + ")");
-				xAxis.appendChild(label);
+				renderLine(x, sy + OFFSET_AXIS, x, sy + 2 * OFFSET_AXIS, null, "black", 0.5);
+				renderText(	numberFormat0Digits.format(bin.getBound()), x - step / 8, (sy + 4 * OFFSET_AXIS), TEXT_STYLE_T, "end", "rotate(-45 " + (x - step / 8)
+									+ "," + (sy + 4 * OFFSET_AXIS) + ")");
 			}
 		}
-		return xAxis;
+		endGroup();
 	}
 
-	private Element renderYAxis(final Histogram histogram, final boolean useLogScaleYAxis, final int yAxisMax) {
+	private void renderYAxis(final Histogram histogram, final boolean useLogScaleYAxis, final int yAxisMax) {
 		final int margin = CANVAS_MARGIN / 2;
 		final double sx = OFFSET_X + margin;
 		final double sy = CANVAS_HEIGHT - margin;
 
-		final Element yAxis = svgDocument.createElement("g");
-		yAxis.setAttribute("id", "yAxis");
-		yAxis.appendChild(getArrow(OFFSET_X + margin - OFFSET_AXIS, CANVAS_HEIGHT - margin + OFFSET_AXIS, OFFSET_X + margin - OFFSET_AXIS, margin - OFFSET_AXIS
-				- 22, null, "black", 1.0));
-		yAxis.appendChild(getText("frequency", OFFSET_X + margin - OFFSET_AXIS, margin - OFFSET_AXIS - 30, TEXT_STYLE_T, "middle"));
+		startGroup("yAxis");
+		renderArrow(OFFSET_X + margin - OFFSET_AXIS, CANVAS_HEIGHT - margin + OFFSET_AXIS, OFFSET_X + margin - OFFSET_AXIS, margin - OFFSET_AXIS
+				- 22, null, "black", 1.0);
+		renderText("frequency", OFFSET_X + margin - OFFSET_AXIS, margin - OFFSET_AXIS - 30, TEXT_STYLE_T, "middle");
 
 		final double maxHeight = (CANVAS_HEIGHT - CANVAS_MARGIN);
 
@@ -576,8 +600,8 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 		} else {
 			curLabelYAxis = 0.0;
 		}
-		yAxis.appendChild(getLine(sx - BAR_SEP - OFFSET_AXIS, sy, sx - BAR_SEP, sy, null, "black", 0.5));
-		yAxis.appendChild(getText(numberFormat0Digits.format(curLabelYAxis), sx - CANVAS_MARGIN / 16 - BAR_SEP / 2 - OFFSET_AXIS, sy + 4, TEXT_STYLE_T, "end"));
+		renderLine(sx - BAR_SEP - OFFSET_AXIS, sy, sx - BAR_SEP, sy, null, "black", 0.5);
+		renderText(numberFormat0Digits.format(curLabelYAxis), sx - CANVAS_MARGIN / 16 - BAR_SEP / 2 - OFFSET_AXIS, sy + 4, TEXT_STYLE_T, "end");
 
 		final double logBase = Math.exp((Math.log(yAxisMax) - Math.log(1.0)) / numYLabels);
 		double y = 0.0;
@@ -589,11 +613,11 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 				curLabelYAxis += stepLabelYAxis;
 				y = sy - curLabelYAxis / yAxisMax * maxHeight;
 			}
-			yAxis.appendChild(getLine(sx - BAR_SEP - OFFSET_AXIS, y, sx - BAR_SEP, y, null, "black", 0.5));
-			yAxis.appendChild(getText(	numberFormat0Digits.format(curLabelYAxis), sx - CANVAS_MARGIN / 16 - BAR_SEP / 2 - OFFSET_AXIS, y + 4, TEXT_STYLE_T,
-										"end"));
+			renderLine(sx - BAR_SEP - OFFSET_AXIS, y, sx - BAR_SEP, y, null, "black", 0.5);
+			renderText(	numberFormat0Digits.format(curLabelYAxis), sx - CANVAS_MARGIN / 16 - BAR_SEP / 2 - OFFSET_AXIS, y + 4, TEXT_STYLE_T,
+										"end");
 		}
-		return yAxis;
+		endGroup();
 	}
 
 	private void renderHistogram(final Histogram histogram, final boolean useLogScaleYAxis, final int yAxisMax, final List<String> orderedSegments,
@@ -611,8 +635,7 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 			final double dTotal = step / 3 * (2.0 / Math.PI * Math.atan(orderedSegments.size() - 1));
 			final double dFrac = (double) numBinList / (double) orderedSegments.size() * dTotal;
 
-			final Element binsElement = svgDocument.createElement("g");
-			binsElement.setAttribute("id", "histogram-" + segment);
+			startGroup("histogram-" + segment);
 
 			final StringBuffer pathData = new StringBuffer();
 
@@ -650,10 +673,10 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 					pathData.append(x + width / 2);
 					pathData.append(' ');
 					pathData.append(y);
-					binsElement.appendChild(getLine(x + width / 2, y - 2, x + width / 2, y + 2, null, colors.get(color), 2));
+					renderLine(x + width / 2, y - 2, x + width / 2, y + 2, null, colors.get(color), 2);
 
 				} else {
-					binsElement.appendChild(getRectangle(x, y, width, height, "fill: url(#verticalGradient" + color + "); stroke-width: 0.5"));
+					renderRectangle(x, y, width, height, "fill: url(#verticalGradient" + color + "); stroke-width: 0.5");
 				}
 
 				String dataPointLabel;
@@ -663,8 +686,8 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 					dataPointLabel = numberFormat0Digits.format(frequency);
 				}
 				if (frequency != 0) {
-					binsElement.appendChild(getText(dataPointLabel, x + (step - dTotal) / 2 - BAR_SEP / 2, Math.max(y - DATA_LABEL_SEP, CANVAS_MARGIN / 2),
-													TEXT_STYLE_T, "middle"));
+					renderText(dataPointLabel, x + (step - dTotal) / 2 - BAR_SEP / 2, Math.max(y - DATA_LABEL_SEP, CANVAS_MARGIN / 2),
+													TEXT_STYLE_T, "middle");
 				}
 
 				prevX = x;
@@ -673,10 +696,10 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 			}
 
 			if (diagramType == DiagramType.LineGraph) {
-				binsElement.appendChild(getPath(pathData.toString(), colors.get(color), LINE_STYLE));
+				renderPath(pathData.toString(), colors.get(color), LINE_STYLE);
 			}
 
-			svgRoot.appendChild(binsElement);
+			endGroup();
 			color = (color + 1) % colors.size();
 			numBinList++;
 		}
@@ -702,119 +725,55 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 			System.out.println("Segment parameter values for segment parameter '" + segmentParam + "' (" + segments.size() + "): " + segments);
 		}
 
-		// create a copy of all samples which will then be used to identify samples which do not belong to a segment
-		final List<Sample> unsegmentedSamples = new ArrayList<Sample>(samples);
-
-		// initialize map
-		final Map<String, BinList> bins = new TreeMap<String, BinList>(new NaturalOrderComparator());
-		for (final String segment : segments) {
-			final BinList binsForSegment = new BinList();
-			bins.put(segment, binsForSegment);
+		final List<String> segmentList = new ArrayList<String>(segments);
+		final SegmentMatcher segmentMatcher = new SegmentMatcher(segmentParam, segmentList);
+		final BinBounds bounds = new BinBounds(histogram.getMin(), histogram.getMax(), lowerBound, upperBound, numBins, useLogScaleXAxis);
+
+		// frequencies of all segments and of the samples not applying to any segment, computed in a single pass over the samples in any order
+		final int[][] frequencies = new int[segmentList.size()][bounds.getNumBins()];
+		final int[] unsegmentedFrequencies = new int[bounds.getNumBins()];
+		int numUnsegmentedSamples = 0;
+		for (int row = 0; row < samples.size(); row++) {
+			final int bin = bounds.getBin(samples.getResponseTime(row));
+			final int[] applyingSegments = segmentMatcher.getSegments(row);
+			if (applyingSegments.length > 0) {
+				for (final int segment : applyingSegments) {
+					frequencies[segment][bin]++;
+				}
+			} else {
+				numUnsegmentedSamples++;
+				unsegmentedFrequencies[bin]++;
+			}
 		}
 
-		for (final String curSegmentParamValue : segments) {
-			String testSegmentParamValue = curSegmentParamValue;
-			if (testSegmentParamValue.endsWith(".*")) {
-				testSegmentParamValue = testSegmentParamValue.substring(0, curSegmentParamValue.length() - 2);
-			}
-			final BinList binsForSegment = calculateBinsForSegment(	testSegmentParamValue, samples, histogram, lowerBound, upperBound, numBins,
-																	useLogScaleXAxis, segmentParam, segments, unsegmentedSamples);
-			bins.put(curSegmentParamValue, binsForSegment);
+		final Map<String, BinList> bins = new TreeMap<String, BinList>(new NaturalOrderComparator());
+		for (int segment = 0; segment < segmentList.size(); segment++) {
+			final String segmentValue = segmentList.get(segment);
+			bins.put(segmentValue, createBinList(bounds, frequencies[segment], segmentValue));
 		}
 		// finally add a set of bins for all samples that are not applying to any segment.
-		if (unsegmentedSamples.size() > 0) {
-			final BinList binsForSegment = calculateBinsForSegment(	Histogram.NO_SEGMENT_PARAM, unsegmentedSamples, histogram, lowerBound, upperBound, numBins,
-																	useLogScaleXAxis, segmentParam, segments, new ArrayList<Sample>());
-			bins.put(Histogram.NO_SEGMENT_PARAM, binsForSegment);
+		if (numUnsegmentedSamples > 0) {
+			bins.put(Histogram.NO_SEGMENT_PARAM, createBinList(bounds, unsegmentedFrequencies, Histogram.NO_SEGMENT_PARAM));
 		}
 
 		histogram.setBins(bins);
 	}
 
-	private BinList calculateBinsForSegment(final String segmentParamValue, final List<Sample> samples, final Histogram histogram, final int lowerBound,
-			final int upperBound, final int initialNumBins, final boolean useLogScaleXAxis, final String segmentParam, final Set<String> segments,
-			final List<Sample> unsegmentedSamples) {
-
+	private BinList createBinList(final BinBounds bounds, final int[] frequencies, final String segmentParamValue) {
 		final BinList binsForSegment = new BinList();
 		int numAppliedSamples = 0;
-		final Iterator<Sample> iterator = samples.iterator();
-
-		int curBound = lowerBound;
-		int startNormalBins = 0;
-		if (histogram.getMin() < lowerBound) {
-			int curFrequency = 0;
-			int lastResponseTime = 0;
-
-			while (iterator.hasNext() && lastResponseTime < curBound) {
-				final Sample curSample = iterator.next();
-				lastResponseTime = curSample.getResponseTime();
-				if (segmentApplies(segmentParamValue, curSample, segmentParam, segments)) {
-					unsegmentedSamples.remove(curSample);
-					numAppliedSamples++;
-					curFrequency++;
-				}
-			}
-			final Bin bin = new Bin(curBound, curFrequency);
-
-			startNormalBins = 1;
-			binsForSegment.addBin(bin);
+		for (int i = 0; i < bounds.getNumBins(); i++) {
+			binsForSegment.addBin(new Bin(bounds.getBound(i), frequencies[i]));
+			numAppliedSamples += frequencies[i];
 		}
-
-		final int numBins = initialNumBins + startNormalBins;
-		for (int i = startNormalBins; i < numBins; i++) {
-			int curFrequency = 0;
-			int lastResponseTime = 0;
-			curBound = getCurrentBound(i, lowerBound, upperBound, numBins, useLogScaleXAxis);
-
-			while (iterator.hasNext() && lastResponseTime < curBound) {
-				final Sample curSample = iterator.next();
-				lastResponseTime = curSample.getResponseTime();
-				if (segmentApplies(segmentParamValue, curSample, segmentParam, segments)) {
-					unsegmentedSamples.remove(curSample);
-					numAppliedSamples++;
-					curFrequency++;
-				}
-			}
-			final Bin bin = new Bin(curBound, curFrequency);
-
-			binsForSegment.addBin(bin);
+		String testSegmentParamValue = segmentParamValue;
+		if (testSegmentParamValue.endsWith(".*")) {
+			testSegmentParamValue = testSegmentParamValue.substring(0, segmentParamValue.length() - 2);
 		}
-
-		if (curBound < histogram.getMax()) {
-			int curFrequency = 0;
-			int lastResponseTime = 0;
-			curBound = histogram.getMax();
-
-			while (iterator.hasNext() && lastResponseTime < curBound) {
-				final Sample curSample = iterator.next();
-				lastResponseTime = curSample.getResponseTime();
-				if (segmentApplies(segmentParamValue, curSample, segmentParam, segments)) {
-					unsegmentedSamples.remove(curSample);
-					numAppliedSamples++;
-					curFrequency++;
-				}
-			}
-			final Bin bin = new Bin(curBound, curFrequency);
-
-			binsForSegment.addBin(bin);
-		}
-		System.out.println("Processed " + numAppliedSamples + " samples for segment parameter value " + segmentParamValue);
+		System.out.println("Processed " + numAppliedSamples + " samples for segment parameter value " + testSegmentParamValue);
 		return binsForSegment;
 	}
 
-	private int getCurrentBound(final int i, final int lowerBound, final int upperBound, final int numBins, final boolean useLogScaleXAxis) {
-		int curBound;
-		if (useLogScaleXAxis) {
-			final int logStart = Math.max(1, lowerBound);
-			final double logBase = Math.exp((Math.log(upperBound) - Math.log(logStart)) / numBins);
-			curBound = (int) Math.floor(logStart * Math.pow(logBase, i + 1));
-		} else {
-			final double boundStep = (double) (upperBound - lowerBound) / (double) numBins;
-			curBound = lowerBound + (int) Math.ceil((i + 1) * boundStep);
-		}
-		return curBound;
-	}
-
 	private void mergeSparseBins(final Histogram histogram, final List<String> ordering, final int sparseBound) {
 		final List<List<String>> groups = new ArrayList<List<String>>();
 		List<String> group = new ArrayList<String>();
@@ -928,89 +887,37 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 		return mergedBinList;
 	}
 
-	private boolean segmentApplies(final String curSegmentParamValue, final Sample curSample, final String segmentParamName,
-			final Set<String> segmentParamValues) {
-		boolean segmentParamApplies = false;
-
-		if (Histogram.NO_SEGMENT_PARAM.equals(curSegmentParamValue)) {
-			segmentParamApplies = true;
-		} else if (SEGMENT_PARAM_OPTION_CACHED.equals(segmentParamName)) {
-			if ((curSample.getCacheAge() > 0 && FF_SEGMENT_PARAM_VALUE_CACHED.equals(curSegmentParamValue))
-					|| (curSample.getCacheAge() == 0 && FF_SEGMENT_PARAM_VALUE_UNCACHED.equals(curSegmentParamValue))) {
-				segmentParamApplies = true;
-			}
-		} else if (SEGMENT_PARAM_OPTION_TIMEOUT.equals(segmentParamName)) {
-			if ((curSample.isTimeOut() && FF_SEGMENT_PARAM_VALUE_TIMEOUT.equals(curSegmentParamValue))
-					|| (!curSample.isTimeOut() && FF_SEGMENT_PARAM_VALUE_COMPLETE.equals(curSegmentParamValue))) {
-				segmentParamApplies = true;
-			}
-		} else {
-			final String urlQuery = curSample.getUrl().getQuery();
-			if (StringUtils.isNotEmpty(urlQuery)) {
-				int numFilters = 0;
-				final String[] params = urlQuery.split("&");
-				for (final String param : params) {
-					final String[] keyValuePair = param.split("=");
-					if (keyValuePair.length >= 2) {
-						final String key = keyValuePair[0];
-						final String value = keyValuePair[1];
-						if (SEGMENT_PARAM_OPTION_NUM_QUERY_WORDS.equals(segmentParamName) && FF_QUERY_PARAMETER_NAME.equals(key)) {
-							final String[] queryWords = getQueryWords(value);
-							if (queryWords.length == Integer.parseInt(curSegmentParamValue)) {
-								segmentParamApplies = true;
-								break;
-							}
-						} else if (SEGMENT_PARAM_OPTION_NUM_FILTERS.equals(segmentParamName) && key.startsWith(FF_FILTER_PARAMETER_PREFIX)) {
-							numFilters++;
-						} else if (segmentParamName.equals(key) && value.startsWith(curSegmentParamValue)) {
-							segmentParamApplies = true;
-							break;
-						}
-					}
-				}
-				if (SEGMENT_PARAM_OPTION_NUM_FILTERS.equals(segmentParamName) && numFilters == Integer.parseInt(curSegmentParamValue)) {
-					segmentParamApplies = true;
-				}
-			}
-		}
-
-		return segmentParamApplies;
-	}
-
 	private Set<String> getSegmentParamValues(final String segmentParamName) {
 		final Set<String> segmentParamValues = new TreeSet<String>(new NaturalOrderComparator());
 		if (StringUtils.isNotEmpty(segmentParamName)) {
-			for (final Sample sample : samples) {
+			for (int row = 0; row < samples.size(); row++) {
 				if (SEGMENT_PARAM_OPTION_CACHED.equals(segmentParamName)) {
-					if (sample.getCacheAge() > 0) {
+					if (samples.getCacheAge(row) > 0) {
 						segmentParamValues.add(FF_SEGMENT_PARAM_VALUE_CACHED);
 					} else {
 						segmentParamValues.add(FF_SEGMENT_PARAM_VALUE_UNCACHED);
 					}
 				} else if (SEGMENT_PARAM_OPTION_TIMEOUT.equals(segmentParamName)) {
-					if (sample.isTimeOut()) {
+					if (samples.isTimeOut(row)) {
 						segmentParamValues.add(FF_SEGMENT_PARAM_VALUE_TIMEOUT);
 					} else {
 						segmentParamValues.add(FF_SEGMENT_PARAM_VALUE_COMPLETE);
 					}
 				} else {
-					final String urlQuery = sample.getUrl().getQuery();
-					if (StringUtils.isNotEmpty(urlQuery)) {
+					final QueryParamIndex queryParams = getQueryParamIndex();
+					if (queryParams.hasQuery(row)) {
+						final StringDictionary names = queryParams.getNameDictionary();
 						int numFilters = 0;
-						final String[] params = urlQuery.split("&");
-						for (final String param : params) {
-							final String[] keyValuePair = param.split("=");
-							if (keyValuePair.length >= 2) {
-								final String key = keyValuePair[0];
-								final String value = keyValuePair[1];
-								if (SEGMENT_PARAM_OPTION_NUM_QUERY_WORDS.equals(segmentParamName) && FF_QUERY_PARAMETER_NAME.equals(key)) {
-									final String[] queryWords = getQueryWords(value);
-									segmentParamValues.add(Integer.toString(queryWords.length));
-								} else if (SEGMENT_PARAM_OPTION_NUM_FILTERS.equals(segmentParamName) && key.startsWith(FF_FILTER_PARAMETER_PREFIX)) {
-									numFilters++;
-								} else if (segmentParamName.equals(key)) {
-									segmentParamValues.add(value);
-								}
+						final int numParams = queryParams.getNumParams(row);
+						for (int i = 0; i < numParams; i++) {
+							final String key = names.getValue(queryParams.getNameId(row, i));
+							final int valueId = queryParams.getValueId(row, i);
+							if (SEGMENT_PARAM_OPTION_NUM_QUERY_WORDS.equals(segmentParamName) && FF_QUERY_PARAMETER_NAME.equals(key)) {
+								segmentParamValues.add(Integer.toString(getNumQueryWords(valueId)));
+							} else if (SEGMENT_PARAM_OPTION_NUM_FILTERS.equals(segmentParamName) && key.startsWith(FF_FILTER_PARAMETER_PREFIX)) {
+								numFilters++;
+							} else if (segmentParamName.equals(key)) {
+								segmentParamValues.add(queryParams.getValueDictionary().getValue(valueId));
 							}
 						}
 						if (SEGMENT_PARAM_OPTION_NUM_FILTERS.equals(segmentParamName)) {
@@ -1023,6 +930,29 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 		return segmentParamValues;
 	}
 
+	/**
+	 * @return The index of the query parameters of the samples, built on first use.
+	 */
+	private QueryParamIndex getQueryParamIndex() {
+		if (queryParamIndex == null) {
+			queryParamIndex = new QueryParamIndex(samples);
+			numQueryWords = new int[queryParamIndex.getValueDictionary().size()];
+			Arrays.fill(numQueryWords, -1);
+		}
+		return queryParamIndex;
+	}
+
+	/**
+	 * @param valueId The dictionary id of a search query parameter value.
+	 * @return The number of words in the search query, computed once per distinct value.
+	 */
+	private int getNumQueryWords(final int valueId) {
+		if (numQueryWords[valueId] < 0) {
+			numQueryWords[valueId] = getQueryWords(queryParamIndex.getValueDictionary().getValue(valueId)).length;
+		}
+		return numQueryWords[valueId];
+	}
+
 	private String[] getQueryWords(final String value) {
 		try {
 			final String ffSearchQuery = URLDecoder.decode(value, "UTF-8").trim();
@@ -1035,6 +965,185 @@ public class SampleHistogramRenderer extends AbstractSampleRenderer {
 		return null;
 	}
 
+	/**
+	 * Determines the segments a sample applies to. Segments defined by query parameters only depend on the sample's label, so they are determined once per
+	 * distinct label and once per distinct parameter value.
+	 */
+	private class SegmentMatcher {
+
+		private final String				segmentParamName;
+		/** Segments by segment value without a trailing ".*" */
+		private final Map<String, int[]>	segmentsByValue		= new HashMap<String, int[]>();
+		/** Segments by numeric segment value, used for the number of filters and query words */
+		private final Map<Integer, int[]>	segmentsByNumber	= new HashMap<Integer, int[]>();
+		/** Distinct lengths of the segment values, the values are matched as prefixes of parameter values */
+		private final int[]					valueLengths;
+		/** Segments applying to every sample */
+		private final int[]					allSegments;
+
+		private int[][]						segmentsByLabelId;
+		private int[][]						segmentsByValueId;
+		private int[]						cachedSegments;
+		private int[]						uncachedSegments;
+		private int[]						timeoutSegments;
+		private int[]						completeSegments;
+
+		public SegmentMatcher(final String segmentParamName, final List<String> segments) {
+			super();
+			this.segmentParamName = segmentParamName;
+			final Map<String, BitSet> valueSegments = new HashMap<String, BitSet>();
+			final Map<Integer, BitSet> numberSegments = new HashMap<Integer, BitSet>();
+			final Set<Integer> lengths = new TreeSet<Integer>();
+			for (int segment = 0; segment < segments.size(); segment++) {
+				String value = segments.get(segment);
+				if (value.endsWith(".*")) {
+					value = value.substring(0, value.length() - 2);
+				}
+				addSegment(valueSegments, value, segment);
+				lengths.add(value.length());
+				try {
+					addSegment(numberSegments, Integer.valueOf(value), segment);
+				} catch (final NumberFormatException e) {
+					// the value can only match parameter values
+				}
+			}
+			for (final Entry<String, BitSet> entry : valueSegments.entrySet()) {
+				segmentsByValue.put(entry.getKey(), toArray(entry.getValue()));
+			}
+			for (final Entry<Integer, BitSet> entry : numberSegments.entrySet()) {
+				segmentsByNumber.put(entry.getKey(), toArray(entry.getValue()));
+			}
+			valueLengths = new int[lengths.size()];
+			int i = 0;
+			for (final Integer length : lengths) {
+				valueLengths[i++] = length;
+			}
+			allSegments = getSegmentsByValue(Histogram.NO_SEGMENT_PARAM);
+		}
+
+		/**
+		 * @param row The row of the sample.
+		 * @return The indices of the segments the sample applies to.
+		 */
+		public int[] getSegments(final int row) {
+			if (SEGMENT_PARAM_OPTION_CACHED.equals(segmentParamName)) {
+				if (cachedSegments == null) {
+					cachedSegments = union(allSegments, getSegmentsByValue(FF_SEGMENT_PARAM_VALUE_CACHED));
+					uncachedSegments = union(allSegments, getSegmentsByValue(FF_SEGMENT_PARAM_VALUE_UNCACHED));
+				}
+				return samples.getCacheAge(row) > 0 ? cachedSegments : samples.getCacheAge(row) == 0 ? uncachedSegments : allSegments;
+			} else if (SEGMENT_PARAM_OPTION_TIMEOUT.equals(segmentParamName)) {
+				if (timeoutSegments == null) {
+					timeoutSegments = union(allSegments, getSegmentsByValue(FF_SEGMENT_PARAM_VALUE_TIMEOUT));
+					completeSegments = union(allSegments, getSegmentsByValue(FF_SEGMENT_PARAM_VALUE_COMPLETE));
+				}
+				return samples.isTimeOut(row) ? timeoutSegments : completeSegments;
+			} else if (segmentParamName == null) {
+				return allSegments;
+			}
+
+			final int labelId = samples.getLabelId(row);
+			if (labelId == StringDictionary.NULL_ID) {
+				return allSegments;
+			}
+			if (segmentsByLabelId == null) {
+				segmentsByLabelId = new int[samples.getLabelDictionary().size()][];
+			}
+			if (segmentsByLabelId[labelId] == null) {
+				segmentsByLabelId[labelId] = getQuerySegments(row);
+			}
+			return segmentsByLabelId[labelId];
+		}
+
+		private int[] getQuerySegments(final int row) {
+			final BitSet segments = new BitSet();
+			add(segments, allSegments);
+			final QueryParamIndex queryParams = getQueryParamIndex();
+			if (queryParams.hasQuery(row)) {
+				final StringDictionary names = queryParams.getNameDictionary();
+				int numFilters = 0;
+				final int numParams = queryParams.getNumParams(row);
+				for (int i = 0; i < numParams; i++) {
+					final String key = names.getValue(queryParams.getNameId(row, i));
+					final int valueId = queryParams.getValueId(row, i);
+					if (SEGMENT_PARAM_OPTION_NUM_QUERY_WORDS.equals(segmentParamName) && FF_QUERY_PARAMETER_NAME.equals(key)) {
+						add(segments, segmentsByNumber.get(getNumQueryWords(valueId)));
+					} else if (SEGMENT_PARAM_OPTION_NUM_FILTERS.equals(segmentParamName) && key.startsWith(FF_FILTER_PARAMETER_PREFIX)) {
+						numFilters++;
+					} else if (segmentParamName.equals(key)) {
+						add(segments, getSegmentsByValueId(valueId));
+					}
+				}
+				if (SEGMENT_PARAM_OPTION_NUM_FILTERS.equals(segmentParamName)) {
+					add(segments, segmentsByNumber.get(numFilters));
+				}
+			}
+			return toArray(segments);
+		}
+
+		/**
+		 * @return The segments whose values are a prefix of the given parameter value.
+		 */
+		private int[] getSegmentsByValueId(final int valueId) {
+			if (segmentsByValueId == null) {
+				segmentsByValueId = new int[getQueryParamIndex().getValueDictionary().size()][];
+			}
+			if (segmentsByValueId[valueId] == null) {
+				final String value = getQueryParamIndex().getValueDictionary().getValue(valueId);
+				final BitSet segments = new BitSet();
+				for (final int length : valueLengths) {
+					if (length > value.length()) {
+						break;
+					}
+					add(segments, segmentsByValue.get(value.substring(0, length)));
+				}
+				segmentsByValueId[valueId] = toArray(segments);
+			}
+			return segmentsByValueId[valueId];
+		}
+
+		private int[] getSegmentsByValue(final String value) {
+			final int[] segments = segmentsByValue.get(value);
+			return segments == null ? NO_SEGMENTS : segments;
+		}
+
+		private <K> void addSegment(final Map<K, BitSet> segmentsByKey, final K key, final int segment) {
+			BitSet segments = segmentsByKey.get(key);
+			if (segments == null) {
+				segments = new BitSet();
+				segmentsByKey.put(key, segments);
+			}
+			segments.set(segment);
+		}
+
+		private void add(final BitSet segments, final int[] segmentsToAdd) {
+			if (segmentsToAdd != null) {
+				for (final int segment : segmentsToAdd) {
+					segments.set(segment);
+				}
+			}
+		}
+
+		private int[] union(final int[] segments1, final int[] segments2) {
+			final BitSet segments = new BitSet();
+			add(segments, segments1);
+			add(segments, segments2);
+			return toArray(segments);
+		}
+
+		private int[] toArray(final BitSet segments) {
+			if (segments.isEmpty()) {
+				return NO_SEGMENTS;
+			}
+			final int[] segmentArray = new int[segments.cardinality()];
+			int i = 0;
+			for (int segment = segments.nextSetBit(0); segment >= 0; segment = segments.nextSetBit(segment + 1)) {
+				segmentArray[i++] = segment;
+			}
+			return segmentArray;
+		}
+	}
+
 	public enum DiagramType {
 		Histogram, LineGraph
 	}
@@ -1,14 +1,13 @@
 package net.omikron.jtl.visualizer.transcoder;
 
+import java.awt.Color;
+import java.io.IOException;
+import java.net.URL;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.List;
 
 import net.omikron.jtl.visualizer.histogram.Histogram;
-import net.omikron.jtl.visualizer.sample.Sample;
-
-import org.w3c.dom.Element;
-import org.w3c.dom.svg.SVGDocument;
+import net.omikron.jtl.visualizer.sample.SampleTable;
 
 public class SampleScatterRenderer extends AbstractSampleRenderer {
 
@@ -22,13 +21,15 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 
 	private boolean							useTooltips				= false;
 	private boolean							plotResultCount			= false;
+	private boolean							useDensity				= false;
+	private boolean							useDecimation			= false;
 
 	/**
 	 * Constructs a sample painter which creates a scatter plot from the provided samples.
 	 * 
 	 * @param samples
 	 */
-	public SampleScatterRenderer(final List<Sample> samples) {
+	public SampleScatterRenderer(final SampleTable samples) {
 		super(samples);
 		this.title = DEFAULT_TITLE;
 		this.timeFormatMMSS = new SimpleDateFormat("mm:ss");
@@ -40,10 +41,10 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 	 * @param svgGraphics The SVG Graphics 2D object to paint on.
 	 */
 	@Override
-	public void render(final SVGDocument svgDocument) {
-		this.svgDocument = svgDocument;
-		this.svgRoot = svgDocument.getDocumentElement();
+	public void render(final SvgWriter svg) {
+		this.svg = svg;
 
+		setDimensions();
 		addCSS();
 		addMarkers();
 
@@ -79,8 +80,6 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 		} else {
 			renderEmptyMsg();
 		}
-
-		setDimensions();
 	}
 
 	/**
@@ -111,6 +110,37 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 		this.plotResultCount = plotResultCount;
 	}
 
+	/**
+	 * @return True if the number of samples per pixel is rendered as an image instead of a data point per sample.
+	 */
+	public boolean isUseDensity() {
+		return useDensity;
+	}
+
+	/**
+	 * @param useDensity If true the number of samples per pixel is rendered as an image instead of a data point per sample, only the outliers, i.e. the
+	 *            samples with response times longer than the 95% quantile, are rendered as data points. The size of the SVG then no longer depends on the
+	 *            number of samples.
+	 */
+	public void setUseDensity(final boolean useDensity) {
+		this.useDensity = useDensity;
+	}
+
+	/**
+	 * @return True if only a single data point is rendered per pixel.
+	 */
+	public boolean isUseDecimation() {
+		return useDecimation;
+	}
+
+	/**
+	 * @param useDecimation If true only a single data point is rendered per pixel, the one with the largest radius, and the outliers with tooltips. Has no
+	 *            effect in density mode.
+	 */
+	public void setUseDecimation(final boolean useDecimation) {
+		this.useDecimation = useDecimation;
+	}
+
 	@Override
 	protected String getEmptyMsg() {
 		return "The JTL did not contain any samples to create a scatter plot from.";
@@ -118,20 +148,19 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 
 	private void renderCoordinateSystem(final int yUpperBound, final long minTimestamp, final long maxTimestamp, final boolean useLogScaleXAxis,
 			final boolean useLogScaleYAxis, final boolean plotResultCount) {
-		svgRoot.appendChild(renderXAxis(minTimestamp, maxTimestamp, useLogScaleXAxis, plotResultCount));
-		svgRoot.appendChild(renderYAxis(yUpperBound, useLogScaleYAxis));
+		renderXAxis(minTimestamp, maxTimestamp, useLogScaleXAxis, plotResultCount);
+		renderYAxis(yUpperBound, useLogScaleYAxis);
 	}
 
-	private Element renderXAxis(final long minTimestamp, final long maxTimestamp, final boolean useLogScaleXAxis, final boolean plotResultCount) {
+	private void renderXAxis(final long minTimestamp, final long maxTimestamp, final boolean useLogScaleXAxis, final boolean plotResultCount) {
 		final int margin = CANVAS_MARGIN / 2;
 		final int maxWidth = (CANVAS_WIDTH - CANVAS_MARGIN) - (useLogScaleXAxis && plotResultCount ? 8 : 0);
 		final double sx = margin + (useLogScaleXAxis && plotResultCount ? 8 : 0);
 		final double sy = CANVAS_HEIGHT - margin + OFFSET_AXIS;
 
-		final Element xAxis = svgDocument.createElement("g");
-		xAxis.setAttribute("id", "xAxis");
-		xAxis.appendChild(getArrow(	OFFSET_X + margin - OFFSET_AXIS, CANVAS_HEIGHT - margin + OFFSET_AXIS, CANVAS_WIDTH - margin + OFFSET_AXIS + 18,
-									CANVAS_HEIGHT - margin + OFFSET_AXIS, null, "black", 1.0));
+		startGroup("xAxis");
+		renderArrow(	OFFSET_X + margin - OFFSET_AXIS, CANVAS_HEIGHT - margin + OFFSET_AXIS, CANVAS_WIDTH - margin + OFFSET_AXIS + 18,
+									CANVAS_HEIGHT - margin + OFFSET_AXIS, null, "black", 1.0);
 
 		final double maxXVal;
 		final long duration = maxTimestamp - minTimestamp;
@@ -141,13 +170,13 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 		if (plotResultCount) {
 			maxXVal = 10000.0;
 			stepLabelXAxis = getStepForAxis(numXLabels, maxXVal, 500);
-			xAxis.appendChild(getText("result", CANVAS_WIDTH - margin + OFFSET_AXIS + 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 16, TEXT_STYLE_T, "start"));
-			xAxis.appendChild(getText("count", CANVAS_WIDTH - margin + OFFSET_AXIS + 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 26, TEXT_STYLE_T, "start"));
+			renderText("result", CANVAS_WIDTH - margin + OFFSET_AXIS + 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 16, TEXT_STYLE_T, "start");
+			renderText("count", CANVAS_WIDTH - margin + OFFSET_AXIS + 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 26, TEXT_STYLE_T, "start");
 		} else {
 			maxXVal = duration / 1000;
 			stepLabelXAxis = getStepForAxis(numXLabels, maxXVal, 10);
-			xAxis.appendChild(getText("time of", CANVAS_WIDTH - margin + OFFSET_AXIS + 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 16, TEXT_STYLE_T, "start"));
-			xAxis.appendChild(getText("request", CANVAS_WIDTH - margin + OFFSET_AXIS + 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 26, TEXT_STYLE_T, "start"));
+			renderText("time of", CANVAS_WIDTH - margin + OFFSET_AXIS + 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 16, TEXT_STYLE_T, "start");
+			renderText("request", CANVAS_WIDTH - margin + OFFSET_AXIS + 4, CANVAS_HEIGHT - margin + OFFSET_AXIS + 26, TEXT_STYLE_T, "start");
 		}
 
 		double curLabelXAxis;
@@ -162,9 +191,9 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 		} else {
 			curLabelXAxisFormatted = timeFormatMMSS.format(curLabelXAxis * 1000);
 		}
-		renderXAxisLabel(sx, sy, curLabelXAxisFormatted, xAxis);
+		renderXAxisLabel(sx, sy, curLabelXAxisFormatted);
 		if (useLogScaleXAxis && plotResultCount) {
-			renderXAxisLabel(sx - 8, sy, numberFormat0Digits.format(0), xAxis);
+			renderXAxisLabel(sx - 8, sy, numberFormat0Digits.format(0));
 		}
 
 		final double logBase = Math.exp((Math.log(maxXVal) - Math.log(1.0)) / numXLabels);
@@ -184,28 +213,25 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 				curLabelXAxisFormatted = timeFormatMMSS.format(curLabelXAxis * 1000);
 			}
 
-			renderXAxisLabel(x, sy, curLabelXAxisFormatted, xAxis);
+			renderXAxisLabel(x, sy, curLabelXAxisFormatted);
 		}
-		return xAxis;
+		endGroup();
 	}
 
-	private void renderXAxisLabel(final double x, final double sy, final String curLabelXAxisFormatted, final Element xAxis) {
-		xAxis.appendChild(getLine(x, sy, x, sy + OFFSET_AXIS, null, "black", 0.5));
-		final Element label = getText(curLabelXAxisFormatted, x, (sy + 3 * OFFSET_AXIS), TEXT_STYLE_T, "end");
-		label.setAttribute("transform", "rotate(-45 " + x + "," + (sy + 3 * OFFSET_AXIS) + ")");
-		xAxis.appendChild(label);
+	private void renderXAxisLabel(final double x, final double sy, final String curLabelXAxisFormatted) {
+		renderLine(x, sy, x, sy + OFFSET_AXIS, null, "black", 0.5);
+		renderText(curLabelXAxisFormatted, x, (sy + 3 * OFFSET_AXIS), TEXT_STYLE_T, "end", "rotate(-45 " + x + "," + (sy + 3 * OFFSET_AXIS) + ")");
 	}
 
-	private Element renderYAxis(final int maxResponseTime, final boolean useLogScaleYAxis) {
+	private void renderYAxis(final int maxResponseTime, final boolean useLogScaleYAxis) {
 		final int margin = CANVAS_MARGIN / 2;
 		final double sx = margin;
 		final double sy = CANVAS_HEIGHT - margin + OFFSET_AXIS;
 
-		final Element yAxis = svgDocument.createElement("g");
-		yAxis.setAttribute("id", "yAxis");
-		yAxis.appendChild(getArrow(OFFSET_X + margin - OFFSET_AXIS, CANVAS_HEIGHT - margin + OFFSET_AXIS, OFFSET_X + margin - OFFSET_AXIS, margin - OFFSET_AXIS
-				- 22, null, "black", 1.0));
-		yAxis.appendChild(getText("response time in ms", OFFSET_X + margin / 2 - OFFSET_AXIS, margin - OFFSET_AXIS - 30, TEXT_STYLE_T, "start"));
+		startGroup("yAxis");
+		renderArrow(OFFSET_X + margin - OFFSET_AXIS, CANVAS_HEIGHT - margin + OFFSET_AXIS, OFFSET_X + margin - OFFSET_AXIS, margin - OFFSET_AXIS
+				- 22, null, "black", 1.0);
+		renderText("response time in ms", OFFSET_X + margin / 2 - OFFSET_AXIS, margin - OFFSET_AXIS - 30, TEXT_STYLE_T, "start");
 
 		final int maxHeight = (CANVAS_HEIGHT - CANVAS_MARGIN);
 		final int numYLabels = getOptimalNumberOfLabelsForAxis(maxResponseTime, 50);
@@ -217,8 +243,8 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 		} else {
 			curLabelYAxis = 0.0;
 		}
-		yAxis.appendChild(getLine(sx - OFFSET_AXIS, sy, sx, sy, null, "black", 0.5));
-		yAxis.appendChild(getText(numberFormat0Digits.format(curLabelYAxis), sx - CANVAS_MARGIN / 16, sy + 3, TEXT_STYLE_T, "end"));
+		renderLine(sx - OFFSET_AXIS, sy, sx, sy, null, "black", 0.5);
+		renderText(numberFormat0Digits.format(curLabelYAxis), sx - CANVAS_MARGIN / 16, sy + 3, TEXT_STYLE_T, "end");
 
 		final double logBase = Math.exp((Math.log(maxResponseTime) - Math.log(1.0)) / numYLabels);
 		double y = 0.0;
@@ -230,13 +256,13 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 				curLabelYAxis += stepLabelYAxis;
 				y = sy - OFFSET_AXIS - curLabelYAxis / maxResponseTime * maxHeight;
 			}
-			yAxis.appendChild(getLine(sx - OFFSET_AXIS, y, sx, y, null, "black", 0.5));
-			yAxis.appendChild(getText(numberFormat0Digits.format(curLabelYAxis), sx - CANVAS_MARGIN / 16, y + 3, TEXT_STYLE_T, "end"));
+			renderLine(sx - OFFSET_AXIS, y, sx, y, null, "black", 0.5);
+			renderText(numberFormat0Digits.format(curLabelYAxis), sx - CANVAS_MARGIN / 16, y + 3, TEXT_STYLE_T, "end");
 		}
-		return yAxis;
+		endGroup();
 	}
 
-	private void renderScatterPlot(final List<Sample> samples, final int yUpperBound, final int quantil95ResponseTime, final long minTimestamp,
+	private void renderScatterPlot(final SampleTable samples, final int yUpperBound, final int quantil95ResponseTime, final long minTimestamp,
 			final long maxTimestamp, final boolean useLogScaleXAxis, final boolean useLogScaleYAxis, final boolean useTooltips, final boolean plotResultCount) {
 		final double maxHeight = (CANVAS_HEIGHT - CANVAS_MARGIN);
 		final double maxWidth = (CANVAS_WIDTH - CANVAS_MARGIN) - (useLogScaleXAxis && plotResultCount ? 8 : 0);
@@ -249,20 +275,24 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 			maxXVal = (maxTimestamp - minTimestamp) / 1000.0;
 		}
 
-		final Element plotElement = svgDocument.createElement("g");
-		plotElement.setAttribute("id", "scatterPlot");
+		final DensityGrid density = useDensity ? new DensityGrid(CANVAS_WIDTH, CANVAS_HEIGHT) : null;
+		final PointDecimator decimator = density == null && useDecimation ? new PointDecimator(CANVAS_WIDTH, CANVAS_HEIGHT) : null;
+		if (density == null) {
+			startGroup("scatterPlot");
+		}
 
-		for (final Sample sample : samples) {
-			final double responseTime = sample.getResponseTime();
+		for (int row = 0; row < samples.size(); row++) {
+			final double responseTime = samples.getResponseTime(row);
+			final int resultCount = samples.getResultCount(row);
 			double xVal;
 			if (plotResultCount) {
-				if (sample.getResultCount() < 0) {
+				if (resultCount < 0) {
 					// Ignore the sample for undefined values
 					continue;
 				}
-				xVal = sample.getResultCount();
+				xVal = resultCount;
 			} else {
-				xVal = (sample.getStartOfRequest().getTime() - minTimestamp) / 1000.0;
+				xVal = (samples.getTimestamp(row) - minTimestamp) / 1000.0;
 			}
 
 			double y;
@@ -283,30 +313,86 @@ public class SampleScatterRenderer extends AbstractSampleRenderer {
 				x = xVal / maxXVal * maxWidth;
 			}
 
-			final double r = Math.max(1.0, 1.0 + Math.min(sample.getResultCount(), 10000.0) / 10000.0 * (MAX_DOT_RADIUS - 1.0));
-			final Element circle = getCircle(sx + x, sy - y, r, STYLE_DATA_POINT);
-
-			if (useTooltips && responseTime >= quantil95ResponseTime) {
-				final Element tooltip = svgDocument.createElement("title");
-				tooltip.setTextContent(getShortenedURL(sample));
-				circle.setAttribute("r", "2.0");
-				circle.setAttribute("fill", STYLE_DATA_POINT_COLOR);
-				circle.appendChild(tooltip);
+			if (density != null) {
+				final int pixel = density.getPixel(sx + x, sy - y);
+				if (pixel < 0) {
+					continue;
+				}
+				if (responseTime >= quantil95ResponseTime) {
+					density.addOutlier(pixel, sx + x, sy - y, row, (int) responseTime);
+				} else {
+					density.add(pixel);
+				}
+			} else if (useTooltips && responseTime >= quantil95ResponseTime) {
+				if (decimator != null) {
+					decimator.addOutlier(sx + x, sy - y, row);
+				} else {
+					renderCircle(sx + x, sy - y, 2.0, STYLE_DATA_POINT, STYLE_DATA_POINT_COLOR, getShortenedURL(samples.getUrl(row)));
+				}
 			} else {
-				circle.setAttribute("fill", "none");
+				final double r = Math.max(1.0, 1.0 + Math.min(resultCount, 10000.0) / 10000.0 * (MAX_DOT_RADIUS - 1.0));
+				// data points outside of the canvas are not decimated
+				if (decimator == null || !decimator.add(sx + x, sy - y, r)) {
+					renderCircle(sx + x, sy - y, r, STYLE_DATA_POINT, "none", null);
+				}
 			}
+		}
 
-			plotElement.appendChild(circle);
+		if (density != null) {
+			renderDensityPlot(samples, density, useTooltips);
+		} else {
+			if (decimator != null) {
+				renderDecimatedPoints(samples, decimator);
+			}
+			endGroup();
 		}
+	}
+
+	private void renderDecimatedPoints(final SampleTable samples, final PointDecimator decimator) {
+		for (int i = 0; i < decimator.getNumPoints(); i++) {
+			renderCircle(decimator.getX(i), decimator.getY(i), decimator.getRadius(i), STYLE_DATA_POINT, "none", null);
+		}
+		// the outliers with tooltips are rendered on top
+		for (int i = 0; i < decimator.getNumOutliers(); i++) {
+			renderCircle(	decimator.getOutlierX(i), decimator.getOutlierY(i), 2.0, STYLE_DATA_POINT, STYLE_DATA_POINT_COLOR,
+							getShortenedURL(samples.getUrl(decimator.getOutlierRow(i))));
+		}
+	}
 
-		svgRoot.appendChild(plotElement);
+	private void renderDensityPlot(final SampleTable samples, final DensityGrid density, final boolean useTooltips) {
+		final String image;
+		try {
+			image = density.toPngDataUri(Color.decode(STYLE_DATA_POINT_COLOR));
+		} catch (final IOException e) {
+			throw new IllegalStateException("The density of the samples cannot be encoded as PNG.", e);
+		}
+
+		startGroup("scatterPlot");
+		svg.startElement("image");
+		svg.attribute("x", String.valueOf(OFFSET_X));
+		svg.attribute("y", String.valueOf(OFFSET_Y));
+		svg.attribute("width", Integer.toString(CANVAS_WIDTH));
+		svg.attribute("height", Integer.toString(CANVAS_HEIGHT));
+		svg.attribute("image-rendering", "optimizeSpeed");
+		svg.attribute("xlink:href", image);
+		svg.endElement();
+		for (int i = 0; i < density.getNumOutliers(); i++) {
+			final String tooltip = useTooltips ? getShortenedURL(samples.getUrl(density.getOutlierRow(i))) : null;
+			renderCircle(density.getOutlierX(i), density.getOutlierY(i), 2.0, STYLE_DATA_POINT, STYLE_DATA_POINT_COLOR, tooltip);
+		}
+		endGroup();
+
+		if (density.getMaxCount() > 0) {
+			renderText(	"up to " + numberFormat0Digits.format(density.getMaxCount()) + " samples per pixel", CANVAS_WIDTH - CANVAS_MARGIN / 2,
+						CANVAS_MARGIN / 2, TEXT_STYLE_T, "end");
+		}
 	}
 
-	protected String getShortenedURL(final Sample sample) {
+	protected String getShortenedURL(final URL url) {
 		String shortenedURL = "";
-		if (sample != null && sample.getUrl() != null && sample.getUrl().getQuery() != null) {
+		if (url != null && url.getQuery() != null) {
 			// remove sessionID, username and password from URL query
-			shortenedURL = sample.getUrl().getQuery().replaceAll("sid=[^&]*&?", "").replaceAll("username=[^&]*&?", "").replaceAll("password=[^&]*&?", "");
+			shortenedURL = url.getQuery().replaceAll("sid=[^&]*&?", "").replaceAll("username=[^&]*&?", "").replaceAll("password=[^&]*&?", "");
 		}
 		return shortenedURL;
 	}
@@ -0,0 +1,202 @@
+package net.omikron.jtl.visualizer.transcoder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.batik.dom.svg.SVGDOMImplementation;
+
+/**
+ * Writes the rendered elements to a stream as soon as they are complete, indented like the DOM serialisation of the transcoder. Only the names of the
+ * currently open elements are kept, so the memory needed does not depend on the number of elements, e.g. the data points of a scatter plot.
+ *
+ * <p>
+ * Like a {@link java.io.PrintWriter} the writer does not throw on every element: after the first error nothing is written any more and the error is thrown by
+ * {@link #endDocument()}.
+ * </p>
+ */
+public class StreamingSvgWriter implements SvgWriter {
+
+	private static final String	INDENT				= "    ";
+	/** Attributes of the root element of a document created by the SVGDOMImplementation */
+	private static final String	ROOT_ATTRIBUTES		= " xmlns:xlink=\"http://www.w3.org/1999/xlink\" xmlns=\"" + SVGDOMImplementation.SVG_NAMESPACE_URI
+															+ "\" contentScriptType=\"text/ecmascript\" zoomAndPan=\"magnify\" contentStyleType=\"text/css\""
+															+ " preserveAspectRatio=\"xMidYMid meet\" version=\"1.0\"";
+
+	private final Writer		writer;
+	/** Names of the open elements, the root element first */
+	private final List<String>	openElements		= new ArrayList<String>();
+	/** Depths of the open elements which contain child elements, their end tag is written on a line of its own */
+	private final BitSet		withChildElements	= new BitSet();
+
+	/** True while attributes can be added to the current element, i.e. its start tag is not closed yet */
+	private boolean				startTagOpen		= false;
+	/** True if the current element contains text, it is not indented then */
+	private boolean				withText			= false;
+	private IOException			error				= null;
+
+	/**
+	 * Writes the XML declaration and starts the svg root element.
+	 *
+	 * @param writer The writer receiving the SVG, it should be buffered and encode UTF-8.
+	 */
+	public StreamingSvgWriter(final Writer writer) {
+		super();
+		this.writer = writer;
+		write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<svg");
+		write(ROOT_ATTRIBUTES);
+		openElements.add("svg");
+		startTagOpen = true;
+	}
+
+	public void startElement(final String name) {
+		closeStartTag();
+		final int depth = openElements.size();
+		withChildElements.set(depth - 1);
+		if (!withText) {
+			newLine(depth);
+		}
+		write("<");
+		write(name);
+		openElements.add(name);
+		withChildElements.clear(depth);
+		startTagOpen = true;
+		withText = false;
+	}
+
+	public void attribute(final String name, final String value) {
+		if (!startTagOpen) {
+			throw new IllegalStateException("Attributes have to be added before the content of an element: " + name);
+		}
+		write(" ");
+		write(name);
+		write("=\"");
+		writeEscaped(value, true);
+		write("\"");
+	}
+
+	public void characters(final String text) {
+		closeStartTag();
+		if (text != null) {
+			writeEscaped(text, false);
+		}
+		withText = true;
+	}
+
+	public void cdata(final String data) {
+		closeStartTag();
+		write("<![CDATA[");
+		write(data.replace("]]>", "]]]]><![CDATA[>"));
+		write("]]>");
+		withText = true;
+	}
+
+	public void endElement() {
+		if (openElements.size() <= 1) {
+			throw new IllegalStateException("The root element is ended by endDocument().");
+		}
+		end();
+	}
+
+	/**
+	 * Ends the root element and flushes the writer, which is not closed.
+	 *
+	 * @throws IOException If writing the SVG failed at any point.
+	 */
+	public void endDocument() throws IOException {
+		while (!openElements.isEmpty()) {
+			end();
+		}
+		write("\n");
+		if (error == null) {
+			try {
+				writer.flush();
+			} catch (final IOException e) {
+				error = e;
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+
+	private void end() {
+		final int depth = openElements.size() - 1;
+		final String name = openElements.remove(depth);
+		if (startTagOpen) {
+			write("/>");
+			startTagOpen = false;
+		} else {
+			if (withChildElements.get(depth) && !withText) {
+				newLine(depth);
+			}
+			write("</");
+			write(name);
+			write(">");
+		}
+		// the parent contains child elements, text would have been written before them
+		withText = false;
+	}
+
+	private void closeStartTag() {
+		if (startTagOpen) {
+			write(">");
+			startTagOpen = false;
+		}
+	}
+
+	private void newLine(final int depth) {
+		write("\n");
+		for (int i = 0; i < depth; i++) {
+			write(INDENT);
+		}
+	}
+
+	private void writeEscaped(final String text, final boolean attribute) {
+		int start = 0;
+		for (int i = 0; i < text.length(); i++) {
+			final String escaped;
+			switch (text.charAt(i)) {
+				case '&':
+					escaped = "&amp;";
+					break;
+				case '<':
+					escaped = "&lt;";
+					break;
+				case '>':
+					escaped = "&gt;";
+					break;
+				case '"':
+					escaped = attribute ? "&quot;" : null;
+					break;
+				case '\n':
+					escaped = attribute ? "&#10;" : null;
+					break;
+				default:
+					escaped = null;
+			}
+			if (escaped != null) {
+				write(text, start, i);
+				write(escaped);
+				start = i + 1;
+			}
+		}
+		write(text, start, text.length());
+	}
+
+	private void write(final String text) {
+		write(text, 0, text.length());
+	}
+
+	private void write(final String text, final int start, final int end) {
+		if (error == null && end > start) {
+			try {
+				writer.write(text, start, end - start);
+			} catch (final IOException e) {
+				error = e;
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package net.omikron.jtl.visualizer.transcoder;
+
+/**
+ * Target of the renderers. Elements are written in document order: an element is started, its attributes are added, then its content is written and
+ * finally the element is ended. Attributes can only be added before the first content of an element. The root element is started by the writer itself.
+ *
+ * <p>
+ * The {@link StreamingSvgWriter} writes the elements to a stream as soon as they are complete, so rendering needs no memory per element. The
+ * {@link DomSvgWriter} appends them to a DOM instead.
+ * </p>
+ */
+public interface SvgWriter {
+
+	/**
+	 * Starts a child element of the current element, which becomes the current element.
+	 * 
+	 * @param name The name of the element.
+	 */
+	void startElement(String name);
+
+	/**
+	 * Adds an attribute to the current element.
+	 * 
+	 * @param name The name of the attribute.
+	 * @param value The value of the attribute.
+	 */
+	void attribute(String name, String value);
+
+	/**
+	 * Appends text to the content of the current element.
+	 * 
+	 * @param text The text, special characters are escaped by the writer. Null is treated like an empty text.
+	 */
+	void characters(String text);
+
+	/**
+	 * Appends a CDATA section to the content of the current element.
+	 * 
+	 * @param data The content of the section.
+	 */
+	void cdata(String data);
+
+	/**
+	 * Ends the current element, its parent becomes the current element.
+	 */
+	void endElement();
+}